@@ -0,0 +1,494 @@
+package com.example.musicplayer;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.TransitionDrawable;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
+import android.provider.MediaStore;
+import android.util.LruCache;
+import android.widget.ImageView;
+import androidx.annotation.Nullable;
+import androidx.core.content.ContextCompat;
+import com.example.musicplayer.core.SongTable;
+import com.example.musicplayer.core.TagReader;
+import com.example.musicplayer.core.Tags;
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads embedded album art off the UI thread.
+ *
+ * Lookups go memory LRU, then the on-disk thumbnail store, and only then
+ * extract the embedded picture. An extraction decodes the picture once and
+ * writes every {@link ArtSize} to disk, so an album is decoded at most once
+ * until its source file changes.
+ *
+ * Each target view remembers its pending request; binding a new song or
+ * recycling the row cancels it, and a result is only delivered if the view
+ * is still waiting for that exact request.
+ */
+public final class AlbumArtLoader {
+
+    public interface Callback {
+        void onArtLoaded(@Nullable Bitmap bitmap);
+    }
+
+    private static final int DECODE_THREADS = 2;
+    private static final int MISSING_CACHE_SIZE = 1024;
+    private static final long DISK_CACHE_BYTES = 64L * 1024 * 1024;
+    // Larger embedded pictures are treated as damaged tags
+    private static final int MAX_PICTURE_BYTES = 16 * 1024 * 1024;
+    private static final int LOCK_STRIPES = 16;
+    private static final int CROSS_FADE_MS = 250;
+
+    private static volatile AlbumArtLoader instance;
+
+    private final Context appContext;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService executor;
+    private final ArtworkDiskCache diskCache;
+    // Keyed by album and size, see memoryKey()
+    private final LruCache<Long, Bitmap> memoryCache;
+    // Albums we already know carry no embedded picture
+    private final LruCache<Long, Boolean> missing = new LruCache<>(
+        MISSING_CACHE_SIZE
+    );
+    // Keeps two rows of one album from extracting it twice
+    private final Object[] extractLocks = new Object[LOCK_STRIPES];
+    private final ThreadLocal<TagReader> tagReaders = ThreadLocal.withInitial(
+        TagReader::new
+    );
+
+    public static AlbumArtLoader get(Context context) {
+        if (instance == null) {
+            synchronized (AlbumArtLoader.class) {
+                if (instance == null) {
+                    instance = new AlbumArtLoader(context);
+                }
+            }
+        }
+        return instance;
+    }
+
+    private AlbumArtLoader(Context context) {
+        appContext = context.getApplicationContext();
+        diskCache = new ArtworkDiskCache(
+            new File(appContext.getFilesDir(), "artwork"),
+            DISK_CACHE_BYTES
+        );
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            extractLocks[i] = new Object();
+        }
+
+        int cacheBytes = (int) Math.min(
+            Runtime.getRuntime().maxMemory() / 8,
+            Integer.MAX_VALUE
+        );
+        memoryCache = new LruCache<Long, Bitmap>(cacheBytes) {
+            @Override
+            protected int sizeOf(Long key, Bitmap value) {
+                return value.getAllocationByteCount();
+            }
+        };
+
+        AtomicInteger count = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(DECODE_THREADS, r -> {
+            Thread t = new Thread(
+                () -> {
+                    Process.setThreadPriority(
+                        Process.THREAD_PRIORITY_BACKGROUND
+                    );
+                    r.run();
+                },
+                "album-art-" + count.incrementAndGet()
+            );
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** Shows the art for {@code song} in {@code target}. Main thread only. */
+    public void load(SongTable.Row song, ImageView target, ArtSize size) {
+        load(song, target, size, false);
+    }
+
+    /**
+     * Like {@link #load(SongTable.Row, ImageView, ArtSize)}; with
+     * {@code crossFade} the current image stays up until the new one is
+     * ready and then fades into it, instead of flashing the placeholder.
+     */
+    public void load(
+        SongTable.Row song,
+        ImageView target,
+        ArtSize size,
+        boolean crossFade
+    ) {
+        cancel(target);
+
+        long albumKey = albumKey(song.getAlbumId(), song.getId());
+        Bitmap cached = memoryCache.get(memoryKey(albumKey, size));
+        if (cached != null) {
+            Metrics.ART_MEMORY_HITS.increment();
+            show(target, cached, crossFade);
+            return;
+        }
+        if (missing.get(albumKey) != null) {
+            Metrics.ART_MEMORY_HITS.increment();
+            show(target, null, crossFade);
+            return;
+        }
+        if (!crossFade) {
+            target.setImageResource(R.drawable.ic_music_placeholder);
+        }
+
+        Uri uri = LibraryDatabase.songUri(song.getId(), song.getDocumentUri());
+        Request request = new Request(uri, size, target, null);
+        request.albumKey = albumKey;
+        request.songKey = song.getId();
+        request.modified = song.getDateModified();
+        request.crossFade = crossFade;
+        start(request);
+    }
+
+    /**
+     * Shows the art for a bare content uri; the album is looked up on the
+     * worker thread. Main thread only.
+     */
+    public void load(Uri uri, ImageView target, ArtSize size) {
+        cancel(target);
+        target.setImageResource(R.drawable.ic_music_placeholder);
+        start(new Request(uri, size, target, null));
+    }
+
+    /** Delivers the art for {@code uri} to {@code callback} on the main thread. */
+    public void load(Uri uri, ArtSize size, Callback callback) {
+        start(new Request(uri, size, null, callback));
+    }
+
+    /** Drops any pending request for {@code target}. */
+    public void cancel(ImageView target) {
+        Object tag = target.getTag(R.id.tag_album_art_request);
+        if (tag instanceof Request) {
+            Request request = (Request) tag;
+            request.cancelled = true;
+            if (request.future != null) request.future.cancel(false);
+        }
+        target.setTag(R.id.tag_album_art_request, null);
+    }
+
+    /** Shows {@code bitmap}, or the placeholder when null. */
+    private void show(
+        ImageView target,
+        @Nullable Bitmap bitmap,
+        boolean crossFade
+    ) {
+        Drawable next = bitmap != null
+            ? new BitmapDrawable(target.getResources(), bitmap)
+            : ContextCompat.getDrawable(
+                target.getContext(),
+                R.drawable.ic_music_placeholder
+            );
+        Drawable current = target.getDrawable();
+        if (!crossFade || current == null) {
+            target.setImageDrawable(next);
+            return;
+        }
+        if (current instanceof TransitionDrawable) {
+            // Fade on from wherever the previous fade was heading
+            current = ((TransitionDrawable) current).getDrawable(1);
+        }
+        TransitionDrawable fade = new TransitionDrawable(
+            new Drawable[] { current, next }
+        );
+        fade.setCrossFadeEnabled(true);
+        target.setImageDrawable(fade);
+        fade.startTransition(CROSS_FADE_MS);
+    }
+
+    private void start(Request request) {
+        if (request.target != null) {
+            request.target.setTag(R.id.tag_album_art_request, request);
+        }
+        request.future = executor.submit(request);
+    }
+
+    /** Runs on a worker; returns null when the album has no art. */
+    @Nullable
+    private Bitmap fetch(
+        long albumKey,
+        long songKey,
+        long modified,
+        Uri uri,
+        ArtSize size
+    ) {
+        long memoryKey = memoryKey(albumKey, size);
+        Bitmap bitmap = memoryCache.get(memoryKey);
+        if (bitmap != null || missing.get(albumKey) != null) {
+            Metrics.ART_MEMORY_HITS.increment();
+            return bitmap;
+        }
+
+        synchronized (extractLocks[(int) (albumKey & (LOCK_STRIPES - 1))]) {
+            File file = diskCache.find(albumKey, songKey, modified, size);
+            if (file == null) {
+                Metrics.ART_MISSES.increment();
+                long start = Metrics.begin("AlbumArtLoader.extract");
+                try {
+                    extractToDisk(albumKey, songKey, modified, uri);
+                } finally {
+                    Metrics.end(Metrics.ART_EXTRACT_US, start);
+                }
+                file = diskCache.find(albumKey, songKey, modified, size);
+            } else {
+                Metrics.ART_DISK_HITS.increment();
+            }
+            if (file != null && file.length() > 0) {
+                long start = Metrics.begin("AlbumArtLoader.decode");
+                try {
+                    bitmap = BitmapFactory.decodeFile(file.getPath());
+                } finally {
+                    Metrics.end(Metrics.ART_DECODE_US, start);
+                }
+            }
+        }
+
+        if (bitmap != null) {
+            memoryCache.put(memoryKey, bitmap);
+        } else {
+            missing.put(albumKey, Boolean.TRUE);
+        }
+        return bitmap;
+    }
+
+    private void extractToDisk(
+        long albumKey,
+        long songKey,
+        long modified,
+        Uri uri
+    ) {
+        Bitmap source = null;
+        byte[] picture = readEmbeddedPicture(uri);
+        if (picture == null) picture = retrieveEmbeddedPicture(uri);
+        if (picture != null) {
+            source = decodeSampled(picture, ArtSize.largest().px);
+        }
+
+        for (ArtSize size : ArtSize.values()) {
+            Bitmap scaled = source != null ? scaleDown(source, size.px) : null;
+            diskCache.put(albumKey, songKey, modified, size, scaled);
+            if (scaled != null && scaled != source) scaled.recycle();
+        }
+        if (source != null) source.recycle();
+    }
+
+    /**
+     * Reads the embedded picture straight from the file where its tags say
+     * it is, or returns null so the slower retriever can have a go.
+     */
+    @Nullable
+    private byte[] readEmbeddedPicture(Uri uri) {
+        try (
+            ParcelFileDescriptor fd = appContext
+                .getContentResolver()
+                .openFileDescriptor(uri, "r");
+            FileInputStream in = new FileInputStream(fd.getFileDescriptor())
+        ) {
+            FileChannel channel = in.getChannel();
+            Tags tags = new Tags();
+            if (
+                !tagReaders.get().read(channel, tags) ||
+                !tags.hasArtwork() ||
+                tags.getArtworkLength() > MAX_PICTURE_BYTES
+            ) {
+                return null;
+            }
+            ByteBuffer picture = ByteBuffer.allocate(tags.getArtworkLength());
+            long offset = tags.getArtworkOffset();
+            while (picture.hasRemaining()) {
+                int n = channel.read(picture, offset + picture.position());
+                if (n <= 0) return null;
+            }
+            return picture.array();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    @Nullable
+    private byte[] retrieveEmbeddedPicture(Uri uri) {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(appContext, uri);
+            return retriever.getEmbeddedPicture();
+        } catch (Exception ignored) {
+            // Unreadable files are treated like files without art
+            return null;
+        } finally {
+            try {
+                retriever.release();
+            } catch (Exception ignored) {}
+        }
+    }
+
+    /** Resolves album id and modification time for a MediaStore uri. */
+    private void resolve(Request request) {
+        try (
+            Cursor cursor = appContext
+                .getContentResolver()
+                .query(
+                    request.uri,
+                    new String[] {
+                        MediaStore.Audio.Media._ID,
+                        MediaStore.Audio.Media.ALBUM_ID,
+                        MediaStore.Audio.Media.DATE_MODIFIED,
+                    },
+                    null,
+                    null,
+                    null
+                )
+        ) {
+            if (cursor != null && cursor.moveToFirst()) {
+                request.albumKey = albumKey(
+                    cursor.getLong(1),
+                    cursor.getLong(0)
+                );
+                request.songKey = cursor.getLong(0);
+                request.modified = cursor.getLong(2);
+                return;
+            }
+        } catch (Exception ignored) {
+            // Not a MediaStore uri, key it by the uri itself
+        }
+        request.albumKey = -((long) request.uri.toString().hashCode() &
+            0xffffffffL);
+        request.songKey = request.albumKey;
+        request.modified = 0;
+    }
+
+    static long albumKey(long albumId, long songId) {
+        // Songs without an album share nothing; key them by their own id
+        return albumId > 0 ? albumId : -songId;
+    }
+
+    private static long memoryKey(long albumKey, ArtSize size) {
+        return albumKey * ArtSize.values().length + size.ordinal();
+    }
+
+    @Nullable
+    static Bitmap decodeSampled(byte[] data, int sizePx) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) return null;
+
+        options.inSampleSize = sampleSize(
+            options.outWidth,
+            options.outHeight,
+            sizePx
+        );
+        options.inJustDecodeBounds = false;
+        return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+    }
+
+    static int sampleSize(int width, int height, int sizePx) {
+        int sample = 1;
+        if (sizePx <= 0) return sample;
+        // Largest power of two that keeps the smaller side >= the target
+        while (Math.min(width, height) / (sample * 2) >= sizePx) {
+            sample *= 2;
+        }
+        return sample;
+    }
+
+    /** Scales so the smaller side is {@code sizePx}; never scales up. */
+    static Bitmap scaleDown(Bitmap source, int sizePx) {
+        int smaller = Math.min(source.getWidth(), source.getHeight());
+        if (smaller <= sizePx) return source;
+        float scale = (float) sizePx / smaller;
+        return Bitmap.createScaledBitmap(
+            source,
+            Math.max(1, Math.round(source.getWidth() * scale)),
+            Math.max(1, Math.round(source.getHeight() * scale)),
+            true
+        );
+    }
+
+    private final class Request implements Runnable {
+
+        final Uri uri;
+        final ArtSize size;
+        @Nullable
+        final ImageView target;
+
+        @Nullable
+        final Callback callback;
+
+        // Filled in by the caller when known, otherwise by resolve()
+        long albumKey;
+        // The song asking; the disk cache checks its mtime only against
+        // art taken from this same song
+        long songKey;
+        long modified = Long.MIN_VALUE;
+        boolean crossFade;
+        volatile boolean cancelled;
+        Future<?> future;
+
+        Request(
+            Uri uri,
+            ArtSize size,
+            @Nullable ImageView target,
+            @Nullable Callback callback
+        ) {
+            this.uri = uri;
+            this.size = size;
+            this.target = target;
+            this.callback = callback;
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) return;
+            if (modified == Long.MIN_VALUE) resolve(this);
+
+            final Bitmap result = fetch(
+                albumKey,
+                songKey,
+                modified,
+                uri,
+                size
+            );
+            mainHandler.post(() -> deliver(result));
+        }
+
+        private void deliver(@Nullable Bitmap bitmap) {
+            if (cancelled) return;
+            if (callback != null) {
+                callback.onArtLoaded(bitmap);
+                return;
+            }
+            if (
+                target == null ||
+                target.getTag(R.id.tag_album_art_request) != this
+            ) return;
+            target.setTag(R.id.tag_album_art_request, null);
+            if (bitmap != null || crossFade) {
+                show(target, bitmap, crossFade);
+            }
+        }
+    }
+}
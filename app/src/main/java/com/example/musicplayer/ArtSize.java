@@ -0,0 +1,18 @@
+package com.example.musicplayer;
+
+/** Fixed thumbnail sizes kept by the artwork caches, in pixels. */
+public enum ArtSize {
+    LIST(200),
+    NOTIFICATION(256),
+    PLAYER(768);
+
+    public final int px;
+
+    ArtSize(int px) {
+        this.px = px;
+    }
+
+    static ArtSize largest() {
+        return PLAYER;
+    }
+}
@@ -0,0 +1,182 @@
+package com.example.musicplayer;
+
+import android.graphics.Bitmap;
+import androidx.annotation.Nullable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * On-disk store of pre-scaled album thumbnails.
+ *
+ * Files are named {@code <album>_<size>_<source>_<mtime>.jpg}, where source
+ * is the song the art was taken from and mtime its modification time. Any
+ * song of the album hits; only a lookup by the source song itself with a
+ * different mtime deletes the stale file and misses. An empty file records
+ * that the album has no embedded picture. Total size is capped and the least
+ * recently used files are evicted first; recency survives restarts through
+ * the file timestamps.
+ */
+final class ArtworkDiskCache {
+
+    private static final String SUFFIX = ".jpg";
+    private static final int JPEG_QUALITY = 90;
+
+    private final File dir;
+    private final long maxBytes;
+    // "<album>_<size>" -> file, in access order
+    private final LinkedHashMap<String, File> entries = new LinkedHashMap<>(
+        256,
+        0.75f,
+        true
+    );
+    private long totalBytes;
+    private boolean loaded;
+
+    ArtworkDiskCache(File dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the cached file for the album, or null on a miss. A zero-length
+     * file means the album is known to have no art.
+     */
+    @Nullable
+    synchronized File find(
+        long albumKey,
+        long songKey,
+        long modified,
+        ArtSize size
+    ) {
+        ensureLoaded();
+        String name = entryName(albumKey, size);
+        File file = entries.get(name);
+        if (file == null) return null;
+
+        long[] source = sourceOf(file);
+        boolean stale = source == null ||
+            (source[0] == songKey && source[1] != modified);
+        if (stale || !file.exists()) {
+            remove(name);
+            return null;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        return file;
+    }
+
+    /**
+     * Stores {@code bitmap}, or a no-art marker when it is null, as taken
+     * from song {@code songKey} at {@code modified}.
+     */
+    synchronized void put(
+        long albumKey,
+        long songKey,
+        long modified,
+        ArtSize size,
+        @Nullable Bitmap bitmap
+    ) {
+        ensureLoaded();
+        String name = entryName(albumKey, size);
+        remove(name);
+
+        File file = new File(
+            dir,
+            name + "_" + songKey + "_" + modified + SUFFIX
+        );
+        File tmp = new File(dir, file.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            if (bitmap != null) {
+                bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+            }
+            out.getFD().sync();
+        } catch (IOException e) {
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            return;
+        }
+
+        entries.put(name, file);
+        totalBytes += file.length();
+        trimToSize();
+    }
+
+    private void ensureLoaded() {
+        if (loaded) return;
+        loaded = true;
+        if (!dir.isDirectory() && !dir.mkdirs()) return;
+
+        File[] files = dir.listFiles();
+        if (files == null) return;
+
+        // Oldest first so the access-ordered map starts in LRU order
+        Arrays.sort(files, (a, b) ->
+            Long.compare(a.lastModified(), b.lastModified())
+        );
+        for (File file : files) {
+            String name = file.getName();
+            int sizeSep = name.indexOf('_', 1);
+            int sourceSep = sizeSep > 0 ? name.indexOf('_', sizeSep + 1) : -1;
+            if (sourceSep <= 0 || sourceOf(file) == null) {
+                // Unfinished writes and files from older layouts
+                file.delete();
+                continue;
+            }
+            File previous = entries.put(name.substring(0, sourceSep), file);
+            if (previous != null) {
+                totalBytes -= previous.length();
+                previous.delete();
+            }
+            totalBytes += file.length();
+        }
+        trimToSize();
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, File>> it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            File file = it.next().getValue();
+            totalBytes -= file.length();
+            file.delete();
+            it.remove();
+        }
+    }
+
+    private void remove(String name) {
+        File file = entries.remove(name);
+        if (file != null) {
+            totalBytes -= file.length();
+            file.delete();
+        }
+    }
+
+    private static String entryName(long albumKey, ArtSize size) {
+        return albumKey + "_" + size.px;
+    }
+
+    /** The source song and its mtime from a file name, or null. */
+    @Nullable
+    private static long[] sourceOf(File file) {
+        String name = file.getName();
+        if (!name.endsWith(SUFFIX)) return null;
+        String[] parts = name
+            .substring(0, name.length() - SUFFIX.length())
+            .split("_");
+        if (parts.length != 4) return null;
+        try {
+            return new long[] {
+                Long.parseLong(parts[2]),
+                Long.parseLong(parts[3]),
+            };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
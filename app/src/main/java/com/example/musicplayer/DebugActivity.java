@@ -0,0 +1,86 @@
+package com.example.musicplayer;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.util.Log;
+import android.widget.TextView;
+import android.widget.Toast;
+import androidx.appcompat.app.AppCompatActivity;
+import com.google.android.material.appbar.MaterialToolbar;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.json.JSONException;
+
+/**
+ * Hidden screen with the {@link Metrics} of this process, opened by a long
+ * press on the section title. Export writes them as JSON to the app's
+ * external files, where {@code adb pull} can reach them, and offers the
+ * same text to the share sheet.
+ */
+public class DebugActivity extends AppCompatActivity {
+
+    private static final String TAG = "DebugActivity";
+
+    private TextView tvMetrics;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_debug);
+
+        MaterialToolbar toolbar = findViewById(R.id.toolbar);
+        toolbar.setNavigationOnClickListener(v -> onBackPressed());
+        tvMetrics = findViewById(R.id.tvMetrics);
+        findViewById(R.id.btnExport).setOnClickListener(v -> export());
+        findViewById(R.id.btnReset).setOnClickListener(v -> {
+            Metrics.reset();
+            refresh();
+        });
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        refresh();
+    }
+
+    private void refresh() {
+        tvMetrics.setText(Metrics.describe());
+    }
+
+    private void export() {
+        String json;
+        try {
+            json = Metrics.toJson(this).toString(2);
+        } catch (JSONException e) {
+            Log.w(TAG, "Could not build metrics", e);
+            return;
+        }
+
+        File dir = getExternalFilesDir("metrics");
+        if (dir == null) dir = new File(getFilesDir(), "metrics");
+        File file = new File(
+            dir,
+            "metrics-" + System.currentTimeMillis() + ".json"
+        );
+        try {
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Could not create " + dir);
+            }
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                out.write(json.getBytes(StandardCharsets.UTF_8));
+            }
+            Toast.makeText(this, "Saved " + file, Toast.LENGTH_LONG).show();
+        } catch (IOException e) {
+            Log.w(TAG, "Could not save metrics", e);
+        }
+
+        Intent share = new Intent(Intent.ACTION_SEND)
+            .setType("application/json")
+            .putExtra(Intent.EXTRA_SUBJECT, file.getName())
+            .putExtra(Intent.EXTRA_TEXT, json);
+        startActivity(Intent.createChooser(share, "Export metrics"));
+    }
+}
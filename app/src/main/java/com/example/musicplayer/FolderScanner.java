@@ -0,0 +1,521 @@
+package com.example.musicplayer;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+import android.provider.DocumentsContract;
+import android.util.Log;
+import androidx.annotation.Nullable;
+import com.example.musicplayer.core.TagReader;
+import com.example.musicplayer.core.Tags;
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Walks a persisted {@link DocumentsContract} tree into {@link LibraryDatabase}.
+ *
+ * Directories are listed concurrently by a small worker pool, one
+ * child-documents query per directory. A directory whose last-modified time
+ * matches the previous walk is not listed again: its files are kept and its
+ * recorded subdirectories are walked instead.
+ *
+ * Tags of new and changed files are read on a work-stealing pool sized to
+ * the cores, in chunks that split so idle workers can take over part of a
+ * large directory. At most {@link #MAX_IN_FLIGHT} files are listed but not
+ * yet written, which holds the listing back when reading falls behind. The
+ * calling thread writes finished files in batches, so results show up while
+ * the walk is still running. A directory is only recorded once all its files
+ * are, so an interrupted walk resumes without reading written files again.
+ */
+class FolderScanner {
+
+    private static final String TAG = "FolderScanner";
+
+    // Files handed to the reading pool as one task
+    private static final int CHUNK_FILES = 32;
+    // Chunks split down to this many files
+    private static final int SPLIT_FILES = 4;
+    private static final int MAX_IN_FLIGHT = 256;
+    // Songs per write transaction
+    private static final int BATCH_SONGS = 128;
+
+    private static final String[] PROJECTION = {
+        DocumentsContract.Document.COLUMN_DOCUMENT_ID,
+        DocumentsContract.Document.COLUMN_DISPLAY_NAME,
+        DocumentsContract.Document.COLUMN_MIME_TYPE,
+        DocumentsContract.Document.COLUMN_LAST_MODIFIED,
+    };
+
+    public interface Progress {
+        /**
+         * Called on the scanning thread after each written batch with its
+         * songs, {@code done} of the {@code found} audio files so far and
+         * how many files per second had their tags read.
+         */
+        void onBatch(
+            List<SongItem> songs,
+            int done,
+            int found,
+            float filesPerSecond
+        );
+    }
+
+    /** One listed directory, tracked by the writer until it is complete. */
+    private static final class Dir {
+
+        final String docId;
+
+        @Nullable
+        final String parent;
+
+        final long lastModified;
+        // Counted by the listing before it queues its end marker
+        int chunks;
+        // Writer only
+        boolean listed;
+        int written;
+
+        Dir(String docId, @Nullable String parent, long lastModified) {
+            this.docId = docId;
+            this.parent = parent;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /** Audio files of one directory whose tags are read as one task. */
+    private static final class Chunk {
+
+        final Dir dir;
+        // Null for the chunk that marks the end of a listing
+        @Nullable
+        final List<SongItem> songs;
+
+        Chunk(Dir dir, @Nullable List<SongItem> songs) {
+            this.dir = dir;
+            this.songs = songs;
+        }
+    }
+
+    private static final Chunk END = new Chunk(null, null);
+
+    private final ContentResolver resolver;
+    private final LibraryDatabase database;
+    private final int threads;
+    private final int readers;
+    private final ThreadLocal<TagReader> tagReaders = ThreadLocal.withInitial(
+        TagReader::new
+    );
+
+    FolderScanner(Context context, LibraryDatabase database) {
+        this.resolver = context.getApplicationContext().getContentResolver();
+        this.database = database;
+        int cores = Runtime.getRuntime().availableProcessors();
+        this.threads = Math.max(2, Math.min(4, cores));
+        this.readers = Math.max(2, cores);
+    }
+
+    /**
+     * Walks {@code treeUri} and writes what changed. Blocks until the walk is
+     * done; call off the main thread. Interrupting it stops the walk and
+     * keeps what was written.
+     */
+    void scan(Uri treeUri, Progress progress) throws InterruptedException {
+        String tree = treeUri.toString();
+        Map<String, LibraryDatabase.FolderRow> known = database.loadFolders(
+            tree
+        );
+        Map<Long, LibraryDatabase.DocumentRow> knownSongs =
+            database.loadDocuments(tree);
+
+        Walk walk = new Walk(treeUri, known, knownSongs);
+        String rootId = DocumentsContract.getTreeDocumentId(treeUri);
+        walk.submit(rootId, null, -1);
+
+        // Single writer: files are written here as the readers finish them
+        Map<String, List<SongItem>> songs = new HashMap<>();
+        Map<String, LibraryDatabase.FolderRow> folders = new HashMap<>();
+        List<SongItem> written = new ArrayList<>();
+        long start = SystemClock.uptimeMillis();
+        int read = 0;
+        try {
+            Chunk chunk = walk.results.take();
+            while (chunk != END) {
+                Dir dir = chunk.dir;
+                if (chunk.songs != null) {
+                    List<SongItem> list = songs.get(dir.docId);
+                    if (list == null) {
+                        list = new ArrayList<>();
+                        songs.put(dir.docId, list);
+                    }
+                    list.addAll(chunk.songs);
+                    written.addAll(chunk.songs);
+                    dir.written++;
+                } else {
+                    dir.listed = true;
+                }
+                if (dir.listed && dir.written == dir.chunks) {
+                    folders.put(
+                        dir.docId,
+                        new LibraryDatabase.FolderRow(
+                            dir.parent,
+                            dir.lastModified
+                        )
+                    );
+                }
+
+                Chunk next = written.size() < BATCH_SONGS
+                    ? walk.results.poll()
+                    : null;
+                if (next == null || next == END) {
+                    database.applyFolderBatch(tree, songs, folders);
+                    walk.inFlight.release(written.size());
+                    read += written.size();
+                    long elapsed = SystemClock.uptimeMillis() - start;
+                    progress.onBatch(
+                        written,
+                        walk.done.addAndGet(written.size()),
+                        walk.found.get(),
+                        read * 1000f / Math.max(1, elapsed)
+                    );
+                    songs.clear();
+                    folders.clear();
+                    written = new ArrayList<>();
+                    if (next == null) next = walk.results.take();
+                }
+                chunk = next;
+            }
+        } finally {
+            walk.pool.shutdownNow();
+            walk.readPool.shutdownNow();
+        }
+
+        // Drop songs that vanished from a listed directory or with their
+        // directory, and directories that were not reached at all
+        List<Long> deletedSongs = new ArrayList<>();
+        for (long id : knownSongs.keySet()) {
+            String parent = knownSongs.get(id).parent;
+            boolean relisted = walk.listed.contains(parent);
+            boolean reached = walk.visited.contains(parent);
+            if (!reached || (relisted && !walk.seen.contains(id))) {
+                deletedSongs.add(id);
+            }
+        }
+        List<String> deletedFolders = new ArrayList<>();
+        for (String docId : known.keySet()) {
+            if (!walk.visited.contains(docId)) deletedFolders.add(docId);
+        }
+        database.deleteFolderEntries(tree, deletedSongs, deletedFolders);
+    }
+
+    /** Stable negative id for a document, clear of MediaStore ids. */
+    static long documentId(String documentUri) {
+        // 64-bit FNV-1a
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < documentUri.length(); i++) {
+            hash ^= documentUri.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash | Long.MIN_VALUE;
+    }
+
+    /** The tags of {@code uri}, or null when the file has none we read. */
+    @Nullable
+    private Tags readTags(Uri uri) {
+        try (
+            ParcelFileDescriptor fd = resolver.openFileDescriptor(uri, "r");
+            FileInputStream in = new FileInputStream(fd.getFileDescriptor())
+        ) {
+            Tags tags = new Tags();
+            return tagReaders.get().read(in.getChannel(), tags) ? tags : null;
+        } catch (Exception e) {
+            Log.w(TAG, "Could not read tags of " + uri, e);
+            return null;
+        }
+    }
+
+    /** Replaces the names guessed from the listing with tagged ones. */
+    private void applyTags(SongItem song) {
+        Tags tags = readTags(song.getUri());
+        if (tags == null) return;
+        if (tags.getTitle() != null) song.setTitle(tags.getTitle());
+        if (tags.getArtist() != null) song.setArtist(tags.getArtist());
+        if (tags.getAlbum() != null) song.setAlbum(tags.getAlbum());
+        song.setDuration(tags.getDurationMs());
+    }
+
+    private static ForkJoinWorkerThread newReader(ForkJoinPool pool) {
+        ForkJoinWorkerThread thread =
+            ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("tag-read");
+        return thread;
+    }
+
+    static boolean isAudio(@Nullable String mimeType) {
+        return (
+            mimeType != null &&
+            (mimeType.startsWith("audio/") ||
+                mimeType.equals("application/ogg"))
+        );
+    }
+
+    private final class Walk {
+
+        final Uri treeUri;
+        final Map<String, LibraryDatabase.FolderRow> known;
+        final Map<Long, LibraryDatabase.DocumentRow> knownSongs;
+        // Parent document id -> recorded subdirectories
+        final Map<String, List<String>> knownChildren = new HashMap<>();
+        final ExecutorService pool = Executors.newFixedThreadPool(
+            threads,
+            r -> new Thread(r, "folder-scan")
+        );
+        final ForkJoinPool readPool = new ForkJoinPool(
+            readers,
+            FolderScanner::newReader,
+            null,
+            false
+        );
+        final BlockingQueue<Chunk> results = new LinkedBlockingQueue<>();
+        // Files listed for reading whose songs are not written yet
+        final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+        final Set<String> visited = Collections.newSetFromMap(
+            new ConcurrentHashMap<>()
+        );
+        final Set<String> listed = Collections.newSetFromMap(
+            new ConcurrentHashMap<>()
+        );
+        // Every audio file listed, read or kept
+        final Set<Long> seen = Collections.newSetFromMap(
+            new ConcurrentHashMap<>()
+        );
+        final AtomicInteger found = new AtomicInteger();
+        final AtomicInteger done = new AtomicInteger();
+        // Directories and chunks not finished; END goes out at zero
+        final AtomicInteger outstanding = new AtomicInteger();
+
+        Walk(
+            Uri treeUri,
+            Map<String, LibraryDatabase.FolderRow> known,
+            Map<Long, LibraryDatabase.DocumentRow> knownSongs
+        ) {
+            this.treeUri = treeUri;
+            this.known = known;
+            this.knownSongs = knownSongs;
+            for (Map.Entry<String, LibraryDatabase.FolderRow> e : known.entrySet()) {
+                String parent = e.getValue().parent;
+                if (parent == null) continue;
+                List<String> children = knownChildren.get(parent);
+                if (children == null) {
+                    children = new ArrayList<>();
+                    knownChildren.put(parent, children);
+                }
+                children.add(e.getKey());
+            }
+        }
+
+        void submit(String docId, @Nullable String parent, long modified) {
+            if (!visited.add(docId)) return;
+            outstanding.incrementAndGet();
+            pool.execute(() -> {
+                try {
+                    visit(docId, parent, modified);
+                } catch (InterruptedException e) {
+                    // The walk was cancelled
+                } catch (Exception e) {
+                    // Keep what we knew about this directory
+                    Log.w(TAG, "Could not list " + docId, e);
+                    submitKnownChildren(docId);
+                } finally {
+                    finish();
+                }
+            });
+        }
+
+        private void finish() {
+            if (outstanding.decrementAndGet() == 0) results.add(END);
+        }
+
+        private void visit(String docId, @Nullable String parent, long modified)
+            throws InterruptedException {
+            LibraryDatabase.FolderRow previous = known.get(docId);
+            if (
+                previous != null &&
+                modified > 0 &&
+                previous.lastModified == modified
+            ) {
+                submitKnownChildren(docId);
+                return;
+            }
+
+            Uri children = DocumentsContract.buildChildDocumentsUriUsingTree(
+                treeUri,
+                docId
+            );
+            Dir dir = new Dir(docId, parent, modified);
+            List<SongItem> songs = new ArrayList<>();
+            try (
+                Cursor cursor = resolver.query(
+                    children,
+                    PROJECTION,
+                    null,
+                    null,
+                    null
+                )
+            ) {
+                if (cursor == null) {
+                    submitKnownChildren(docId);
+                    return;
+                }
+                while (cursor.moveToNext()) {
+                    String childId = cursor.getString(0);
+                    String name = cursor.getString(1);
+                    String mime = cursor.getString(2);
+                    long childModified = cursor.isNull(3)
+                        ? 0
+                        : cursor.getLong(3);
+
+                    if (DocumentsContract.Document.MIME_TYPE_DIR.equals(mime)) {
+                        submit(childId, docId, childModified);
+                    } else if (isAudio(mime)) {
+                        SongItem song = toSong(
+                            childId,
+                            name,
+                            docId,
+                            childModified
+                        );
+                        found.incrementAndGet();
+                        seen.add(song.getId());
+                        if (isRecorded(song, docId)) {
+                            done.incrementAndGet();
+                            continue;
+                        }
+                        songs.add(song);
+                        if (songs.size() == CHUNK_FILES) {
+                            read(dir, songs);
+                            songs = new ArrayList<>();
+                        }
+                    }
+                }
+            }
+            if (!songs.isEmpty()) read(dir, songs);
+
+            listed.add(docId);
+            results.add(new Chunk(dir, null));
+        }
+
+        /** Whether the last walk already wrote this version of the file. */
+        private boolean isRecorded(SongItem song, String parentId) {
+            LibraryDatabase.DocumentRow row = knownSongs.get(song.getId());
+            return (
+                row != null &&
+                song.getDateModified() > 0 &&
+                row.dateModified == song.getDateModified() &&
+                parentId.equals(row.parent)
+            );
+        }
+
+        /** Hands one chunk to the readers, waiting while too many are out. */
+        private void read(Dir dir, List<SongItem> songs)
+            throws InterruptedException {
+            inFlight.acquire(songs.size());
+            dir.chunks++;
+            outstanding.incrementAndGet();
+            readPool.execute(
+                new ReadTags(new Chunk(dir, songs), 0, songs.size())
+            );
+        }
+
+        private void submitKnownChildren(String docId) {
+            List<String> children = knownChildren.get(docId);
+            if (children == null) return;
+            for (String childId : children) {
+                submit(childId, docId, known.get(childId).lastModified);
+            }
+        }
+
+        private SongItem toSong(
+            String docId,
+            @Nullable String name,
+            String parentId,
+            long modified
+        ) {
+            Uri uri = DocumentsContract.buildDocumentUriUsingTree(
+                treeUri,
+                docId
+            );
+            String title = name != null ? name : "Unknown Title";
+            int dot = title.lastIndexOf('.');
+            if (dot > 0) title = title.substring(0, dot);
+
+            String folder = parentId.substring(parentId.lastIndexOf('/') + 1);
+            if (folder.contains(":")) {
+                folder = folder.substring(folder.indexOf(':') + 1);
+            }
+
+            SongItem song = new SongItem();
+            song.setId(documentId(uri.toString()));
+            song.setTitle(title);
+            song.setArtist("Unknown Artist");
+            song.setAlbum(folder.isEmpty() ? "Unknown Album" : folder);
+            song.setDateAdded(modified / 1000);
+            song.setDateModified(modified / 1000);
+            song.setUri(uri);
+            return song;
+        }
+
+        /**
+         * Reads the tags of a range of one chunk, forking halves so idle
+         * readers can steal them. The whole chunk is queued for writing once
+         * its root task is done.
+         */
+        private final class ReadTags extends RecursiveAction {
+
+            final Chunk chunk;
+            final int from;
+            final int to;
+
+            ReadTags(Chunk chunk, int from, int to) {
+                this.chunk = chunk;
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected void compute() {
+                if (to - from <= SPLIT_FILES) {
+                    for (int i = from; i < to; i++) {
+                        applyTags(chunk.songs.get(i));
+                    }
+                } else {
+                    int mid = (from + to) >>> 1;
+                    invokeAll(
+                        new ReadTags(chunk, from, mid),
+                        new ReadTags(chunk, mid, to)
+                    );
+                }
+                if (from == 0 && to == chunk.songs.size()) {
+                    results.add(chunk);
+                    finish();
+                }
+            }
+        }
+    }
+}
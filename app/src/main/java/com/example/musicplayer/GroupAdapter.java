@@ -0,0 +1,113 @@
+package com.example.musicplayer;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+import android.widget.TextView;
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+import java.util.Collections;
+import java.util.List;
+
+/** Album, artist or folder rows of a {@link LibraryGroups}. */
+public class GroupAdapter
+    extends RecyclerView.Adapter<GroupAdapter.GroupViewHolder> {
+
+    public interface OnGroupClickListener {
+        void onGroupClick(LibraryGroups.Group group);
+    }
+
+    private final OnGroupClickListener listener;
+    private LibraryGroups groups;
+    private List<LibraryGroups.Group> rows = Collections.emptyList();
+
+    public GroupAdapter(OnGroupClickListener listener) {
+        this.listener = listener;
+    }
+
+    public void submitGroups(
+        LibraryGroups groups,
+        List<LibraryGroups.Group> rows
+    ) {
+        this.groups = groups;
+        this.rows = rows;
+        notifyDataSetChanged();
+    }
+
+    @NonNull
+    @Override
+    public GroupViewHolder onCreateViewHolder(
+        @NonNull ViewGroup parent,
+        int viewType
+    ) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(
+            R.layout.item_song,
+            parent,
+            false
+        );
+        return new GroupViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull GroupViewHolder holder, int position) {
+        holder.bind(rows.get(position));
+    }
+
+    @Override
+    public void onViewRecycled(@NonNull GroupViewHolder holder) {
+        super.onViewRecycled(holder);
+        AlbumArtLoader.get(holder.itemView.getContext()).cancel(
+            holder.imgAlbumArt
+        );
+    }
+
+    @Override
+    public int getItemCount() {
+        return rows.size();
+    }
+
+    public class GroupViewHolder extends RecyclerView.ViewHolder {
+
+        private ImageView imgAlbumArt;
+        private TextView tvTitle;
+        private TextView tvArtist;
+        private TextView tvDuration;
+
+        public GroupViewHolder(@NonNull View itemView) {
+            super(itemView);
+            imgAlbumArt = itemView.findViewById(R.id.imgAlbumArt);
+            tvTitle = itemView.findViewById(R.id.tvTitle);
+            tvArtist = itemView.findViewById(R.id.tvArtist);
+            tvDuration = itemView.findViewById(R.id.tvDuration);
+        }
+
+        public void bind(LibraryGroups.Group group) {
+            int count = group.getCount();
+            String songs = count + (count == 1 ? " song" : " songs");
+            tvTitle.setText(group.getName());
+            tvArtist.setText(
+                group.getSubtitle() != null
+                    ? group.getSubtitle() + " • " + songs
+                    : songs
+            );
+            tvDuration.setText(formatTotal(group.getTotalDuration()));
+
+            AlbumArtLoader.get(itemView.getContext()).load(
+                groups.artSong(group),
+                imgAlbumArt,
+                ArtSize.LIST
+            );
+
+            itemView.setOnClickListener(v -> {
+                if (listener != null) listener.onGroupClick(group);
+            });
+        }
+
+        private String formatTotal(long ms) {
+            long minutes = ms / 60000;
+            if (minutes < 60) return minutes + " min";
+            return String.format("%d h %02d min", minutes / 60, minutes % 60);
+        }
+    }
+}
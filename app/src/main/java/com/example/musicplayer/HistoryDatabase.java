@@ -0,0 +1,264 @@
+package com.example.musicplayer;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Play history and favorites.
+ *
+ * Unlike {@link LibraryDatabase} nothing here can be rebuilt by scanning,
+ * so it lives in its own file and upgrades must keep the data. Every play
+ * is logged, and a per-song summary row is kept current next to the log so
+ * recently and most played lists are index scans rather than aggregations
+ * over the log.
+ */
+public class HistoryDatabase extends SQLiteOpenHelper {
+
+    private static final String DB_NAME = "history.db";
+    private static final int DB_VERSION = 1;
+
+    // The log keeps only this many most recent plays
+    private static final int MAX_PLAYS = 10_000;
+
+    static final String TABLE_PLAYS = "plays";
+    static final String COL_ID = "_id";
+    static final String COL_SONG_ID = "song_id";
+    static final String COL_PLAYED_AT = "played_at";
+    static final String COL_COMPLETED = "completed";
+
+    static final String TABLE_STATS = "song_stats";
+    static final String COL_PLAY_COUNT = "play_count";
+    static final String COL_COMPLETE_COUNT = "complete_count";
+    static final String COL_LAST_PLAYED = "last_played";
+
+    static final String TABLE_FAVORITES = "favorites";
+    static final String COL_ADDED_AT = "added_at";
+
+    public HistoryDatabase(Context context) {
+        super(context.getApplicationContext(), DB_NAME, null, DB_VERSION);
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL(
+            "CREATE TABLE " +
+            TABLE_PLAYS +
+            " (" +
+            COL_ID +
+            " INTEGER PRIMARY KEY, " +
+            COL_SONG_ID +
+            " INTEGER NOT NULL, " +
+            COL_PLAYED_AT +
+            " INTEGER NOT NULL, " +
+            COL_COMPLETED +
+            " INTEGER NOT NULL DEFAULT 0)"
+        );
+        db.execSQL(
+            "CREATE TABLE " +
+            TABLE_STATS +
+            " (" +
+            COL_SONG_ID +
+            " INTEGER PRIMARY KEY, " +
+            COL_PLAY_COUNT +
+            " INTEGER NOT NULL DEFAULT 0, " +
+            COL_COMPLETE_COUNT +
+            " INTEGER NOT NULL DEFAULT 0, " +
+            COL_LAST_PLAYED +
+            " INTEGER NOT NULL DEFAULT 0)"
+        );
+        db.execSQL(
+            "CREATE INDEX stats_recent ON " +
+            TABLE_STATS +
+            " (" +
+            COL_LAST_PLAYED +
+            ")"
+        );
+        db.execSQL(
+            "CREATE INDEX stats_most ON " +
+            TABLE_STATS +
+            " (" +
+            COL_PLAY_COUNT +
+            ", " +
+            COL_LAST_PLAYED +
+            ")"
+        );
+        db.execSQL(
+            "CREATE TABLE " +
+            TABLE_FAVORITES +
+            " (" +
+            COL_SONG_ID +
+            " INTEGER PRIMARY KEY, " +
+            COL_ADDED_AT +
+            " INTEGER NOT NULL)"
+        );
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // Nothing to migrate yet; future versions must keep user data
+    }
+
+    /** Writes one batch of events in a single transaction. */
+    public void apply(List<HistoryStore.Event> events) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try (
+            SQLiteStatement logPlay = db.compileStatement(
+                "INSERT INTO " +
+                TABLE_PLAYS +
+                " (" +
+                COL_SONG_ID +
+                ", " +
+                COL_PLAYED_AT +
+                ", " +
+                COL_COMPLETED +
+                ") VALUES (?, ?, ?)"
+            );
+            // No upsert before SQLite 3.24, so ensure the row, then update
+            SQLiteStatement ensureStats = db.compileStatement(
+                "INSERT OR IGNORE INTO " +
+                TABLE_STATS +
+                " (" +
+                COL_SONG_ID +
+                ") VALUES (?)"
+            );
+            SQLiteStatement countPlay = db.compileStatement(
+                "UPDATE " +
+                TABLE_STATS +
+                " SET " +
+                COL_PLAY_COUNT +
+                " = " +
+                COL_PLAY_COUNT +
+                " + 1, " +
+                COL_LAST_PLAYED +
+                " = ? WHERE " +
+                COL_SONG_ID +
+                " = ?"
+            );
+            SQLiteStatement countComplete = db.compileStatement(
+                "UPDATE " +
+                TABLE_STATS +
+                " SET " +
+                COL_COMPLETE_COUNT +
+                " = " +
+                COL_COMPLETE_COUNT +
+                " + 1 WHERE " +
+                COL_SONG_ID +
+                " = ?"
+            );
+            SQLiteStatement addFavorite = db.compileStatement(
+                "INSERT OR IGNORE INTO " +
+                TABLE_FAVORITES +
+                " (" +
+                COL_SONG_ID +
+                ", " +
+                COL_ADDED_AT +
+                ") VALUES (?, ?)"
+            );
+            SQLiteStatement removeFavorite = db.compileStatement(
+                "DELETE FROM " +
+                TABLE_FAVORITES +
+                " WHERE " +
+                COL_SONG_ID +
+                " = ?"
+            )
+        ) {
+            boolean played = false;
+            for (HistoryStore.Event event : events) {
+                switch (event.kind) {
+                    case HistoryStore.Event.PLAY:
+                    case HistoryStore.Event.COMPLETE:
+                        boolean complete =
+                            event.kind == HistoryStore.Event.COMPLETE;
+                        logPlay.bindLong(1, event.songId);
+                        logPlay.bindLong(2, event.time);
+                        logPlay.bindLong(3, complete ? 1 : 0);
+                        logPlay.executeInsert();
+                        ensureStats.bindLong(1, event.songId);
+                        ensureStats.executeInsert();
+                        if (complete) {
+                            countComplete.bindLong(1, event.songId);
+                            countComplete.executeUpdateDelete();
+                        } else {
+                            countPlay.bindLong(1, event.time);
+                            countPlay.bindLong(2, event.songId);
+                            countPlay.executeUpdateDelete();
+                        }
+                        played = true;
+                        break;
+                    case HistoryStore.Event.FAVORITE:
+                        addFavorite.bindLong(1, event.songId);
+                        addFavorite.bindLong(2, event.time);
+                        addFavorite.executeInsert();
+                        break;
+                    case HistoryStore.Event.UNFAVORITE:
+                        removeFavorite.bindLong(1, event.songId);
+                        removeFavorite.executeUpdateDelete();
+                        break;
+                }
+            }
+            if (played) {
+                db.execSQL(
+                    "DELETE FROM " +
+                    TABLE_PLAYS +
+                    " WHERE " +
+                    COL_ID +
+                    " <= (SELECT MAX(" +
+                    COL_ID +
+                    ") FROM " +
+                    TABLE_PLAYS +
+                    ") - " +
+                    MAX_PLAYS
+                );
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /** Songs by when they were last started, newest first. */
+    public long[] loadRecentlyPlayed(int limit) {
+        return loadIds(TABLE_STATS, COL_LAST_PLAYED + " DESC", limit);
+    }
+
+    /** Songs by how often they were started, then by recency. */
+    public long[] loadMostPlayed(int limit) {
+        return loadIds(
+            TABLE_STATS,
+            COL_PLAY_COUNT + " DESC, " + COL_LAST_PLAYED + " DESC",
+            limit
+        );
+    }
+
+    /** Favorite songs, most recently added first. */
+    public long[] loadFavorites() {
+        return loadIds(TABLE_FAVORITES, COL_ADDED_AT + " DESC", -1);
+    }
+
+    private long[] loadIds(String table, String order, int limit) {
+        try (
+            Cursor cursor = getReadableDatabase().query(
+                table,
+                new String[] { COL_SONG_ID },
+                null,
+                null,
+                null,
+                null,
+                order,
+                limit > 0 ? String.valueOf(limit) : null
+            )
+        ) {
+            long[] ids = new long[cursor.getCount()];
+            int i = 0;
+            while (cursor.moveToNext()) ids[i++] = cursor.getLong(0);
+            return i == ids.length ? ids : Arrays.copyOf(ids, i);
+        }
+    }
+}
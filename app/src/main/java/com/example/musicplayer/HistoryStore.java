@@ -0,0 +1,224 @@
+package com.example.musicplayer;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteException;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import com.example.musicplayer.core.LongIntMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Play history and favorites, written behind.
+ *
+ * Recording a play or toggling a favorite only appends to an in-memory
+ * batch, so the playback path never waits for the disk. One writer thread
+ * commits the batch in a single transaction {@link #FLUSH_DELAY_MS} after
+ * its first event, or at once when it reaches {@link #MAX_BATCH}. Queries
+ * run on the same thread behind any pending batch and so see every earlier
+ * write. Favorites are mirrored in memory for instant checks while binding.
+ */
+public final class HistoryStore {
+
+    private static final String TAG = "HistoryStore";
+    private static final long FLUSH_DELAY_MS = 2000;
+    private static final int MAX_BATCH = 64;
+
+    /** Favorites changes, delivered on the main thread. */
+    public interface Listener {
+        void onFavoritesChanged();
+    }
+
+    /** Song ids of a query, in order, delivered on the main thread. */
+    public interface IdsCallback {
+        void onIds(long[] ids);
+    }
+
+    /** One write waiting for the next batch. */
+    static final class Event {
+
+        static final int PLAY = 0;
+        static final int COMPLETE = 1;
+        static final int FAVORITE = 2;
+        static final int UNFAVORITE = 3;
+
+        final int kind;
+        final long songId;
+        final long time;
+
+        Event(int kind, long songId, long time) {
+            this.kind = kind;
+            this.songId = songId;
+            this.time = time;
+        }
+    }
+
+    private static volatile HistoryStore instance;
+
+    private final HistoryDatabase database;
+    private final ScheduledExecutorService writer =
+        Executors.newSingleThreadScheduledExecutor(r ->
+            new Thread(r, "history-writer")
+        );
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    // Guarded by this
+    private List<Event> pending = new ArrayList<>();
+    private boolean flushScheduled;
+    private boolean flushUrgent;
+    private final LongIntMap favorites = new LongIntMap(64);
+    // Songs toggled before the stored favorites came in; null once they have
+    private LongIntMap changedBeforeLoad = new LongIntMap(16);
+
+    public static HistoryStore get(Context context) {
+        if (instance == null) {
+            synchronized (HistoryStore.class) {
+                if (instance == null) {
+                    instance = new HistoryStore(context);
+                }
+            }
+        }
+        return instance;
+    }
+
+    private HistoryStore(Context context) {
+        database = new HistoryDatabase(context);
+        writer.execute(this::loadFavorites);
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /** Records that {@code songId} started playing. Any thread. */
+    public void recordPlay(long songId) {
+        enqueue(Event.PLAY, songId);
+    }
+
+    /** Records that {@code songId} played to its end. Any thread. */
+    public void recordCompletion(long songId) {
+        enqueue(Event.COMPLETE, songId);
+    }
+
+    public synchronized boolean isFavorite(long songId) {
+        return songId != 0 && favorites.get(songId) >= 0;
+    }
+
+    public void setFavorite(long songId, boolean favorite) {
+        synchronized (this) {
+            if (songId == 0 || isFavorite(songId) == favorite) return;
+            if (favorite) favorites.put(songId, 1);
+            else favorites.remove(songId);
+            if (changedBeforeLoad != null) changedBeforeLoad.put(songId, 1);
+        }
+        enqueue(favorite ? Event.FAVORITE : Event.UNFAVORITE, songId);
+        notifyFavoritesChanged();
+    }
+
+    public void toggleFavorite(long songId) {
+        setFavorite(songId, !isFavorite(songId));
+    }
+
+    public void loadRecentlyPlayed(int limit, IdsCallback callback) {
+        query(() -> database.loadRecentlyPlayed(limit), callback);
+    }
+
+    public void loadMostPlayed(int limit, IdsCallback callback) {
+        query(() -> database.loadMostPlayed(limit), callback);
+    }
+
+    public void loadFavorites(IdsCallback callback) {
+        query(database::loadFavorites, callback);
+    }
+
+    /** Commits the pending batch now, e.g. when playback shuts down. */
+    public void flush() {
+        writer.execute(this::writePending);
+    }
+
+    private void enqueue(int kind, long songId) {
+        long delay;
+        synchronized (this) {
+            pending.add(new Event(kind, songId, System.currentTimeMillis()));
+            if (pending.size() >= MAX_BATCH && !flushUrgent) {
+                flushUrgent = true;
+                delay = 0;
+            } else if (!flushScheduled) {
+                delay = FLUSH_DELAY_MS;
+            } else {
+                return;
+            }
+            flushScheduled = true;
+        }
+        writer.schedule(this::writePending, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /** Runs on the writer thread. */
+    private void writePending() {
+        List<Event> batch;
+        synchronized (this) {
+            flushScheduled = false;
+            flushUrgent = false;
+            if (pending.isEmpty()) return;
+            batch = pending;
+            pending = new ArrayList<>();
+        }
+        try {
+            database.apply(batch);
+        } catch (SQLiteException e) {
+            Log.w(TAG, "Dropped " + batch.size() + " history events", e);
+        }
+    }
+
+    private void query(Supplier<long[]> load, IdsCallback callback) {
+        writer.execute(() -> {
+            writePending();
+            long[] ids;
+            try {
+                ids = load.get();
+            } catch (SQLiteException e) {
+                Log.w(TAG, "History query failed", e);
+                ids = new long[0];
+            }
+            long[] result = ids;
+            mainHandler.post(() -> callback.onIds(result));
+        });
+    }
+
+    private void loadFavorites() {
+        long[] ids;
+        try {
+            ids = database.loadFavorites();
+        } catch (SQLiteException e) {
+            Log.w(TAG, "Could not load favorites", e);
+            ids = new long[0];
+        }
+        synchronized (this) {
+            // The user's later choice wins over what was stored
+            for (long id : ids) {
+                if (id != 0 && changedBeforeLoad.get(id) < 0) {
+                    favorites.put(id, 1);
+                }
+            }
+            changedBeforeLoad = null;
+        }
+        notifyFavoritesChanged();
+    }
+
+    private void notifyFavoritesChanged() {
+        mainHandler.post(() -> {
+            for (Listener l : listeners) l.onFavoritesChanged();
+        });
+    }
+}
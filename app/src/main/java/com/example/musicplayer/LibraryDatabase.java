@@ -0,0 +1,662 @@
+package com.example.musicplayer;
+
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+import android.provider.MediaStore;
+import androidx.annotation.Nullable;
+import com.example.musicplayer.core.SearchIndex;
+import com.example.musicplayer.core.SongTable;
+import com.example.musicplayer.core.SortKeys;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Local copy of the scanned music library.
+ *
+ * MediaStore songs keep their MediaStore id and have no source. Songs found
+ * in a picked folder tree record the tree uri as their source, their
+ * document uri and parent directory, and use a negative id derived from the
+ * document uri so the two kinds never collide.
+ */
+public class LibraryDatabase extends SQLiteOpenHelper {
+
+    private static final String DB_NAME = "library.db";
+    private static final int DB_VERSION = 3;
+
+    static final String TABLE_SONGS = "songs";
+    static final String COL_ID = "_id";
+    static final String COL_TITLE = "title";
+    static final String COL_ARTIST = "artist";
+    static final String COL_ALBUM = "album";
+    static final String COL_ALBUM_ID = "album_id";
+    static final String COL_DURATION = "duration";
+    static final String COL_DATE_ADDED = "date_added";
+    static final String COL_DATE_MODIFIED = "date_modified";
+    static final String COL_PATH = "path";
+    static final String COL_URI = "uri";
+    static final String COL_SOURCE = "source";
+    static final String COL_PARENT = "parent";
+
+    static final String TABLE_FOLDERS = "folders";
+    static final String COL_TREE = "tree";
+    static final String COL_DOC_ID = "doc_id";
+    static final String COL_LAST_MODIFIED = "last_modified";
+
+    static final String[] SONG_COLUMNS = {
+        COL_ID,
+        COL_TITLE,
+        COL_ARTIST,
+        COL_ALBUM,
+        COL_ALBUM_ID,
+        COL_DURATION,
+        COL_DATE_ADDED,
+        COL_DATE_MODIFIED,
+        COL_PATH,
+        COL_URI,
+    };
+
+    /** What a {@link SongTable} row holds, in {@link SongTable#put} order. */
+    static final String[] ROW_COLUMNS = {
+        COL_ID,
+        COL_ALBUM_ID,
+        COL_TITLE,
+        COL_ARTIST,
+        COL_ALBUM,
+        COL_DURATION,
+        COL_DATE_MODIFIED,
+        COL_URI,
+    };
+
+    static final String DEFAULT_ORDER =
+        COL_TITLE + " COLLATE NOCASE ASC, " + COL_ID + " ASC";
+
+    /** Parallel columns returned by {@link #loadSorted(String)}. */
+    static final class SortedIds {
+
+        final long[] ids;
+        final long[] modified;
+
+        @Nullable
+        final String[] uris;
+
+        SortedIds(long[] ids, long[] modified, @Nullable String[] uris) {
+            this.ids = ids;
+            this.modified = modified;
+            this.uris = uris;
+        }
+    }
+
+    /** A directory as recorded by the last walk of its tree. */
+    static final class FolderRow {
+
+        final String parent;
+        final long lastModified;
+
+        FolderRow(String parent, long lastModified) {
+            this.parent = parent;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /** An audio document as recorded by the last walk of its tree. */
+    static final class DocumentRow {
+
+        final String parent;
+        // Seconds, as in COL_DATE_MODIFIED
+        final long dateModified;
+
+        DocumentRow(String parent, long dateModified) {
+            this.parent = parent;
+            this.dateModified = dateModified;
+        }
+    }
+
+    public LibraryDatabase(Context context) {
+        super(context.getApplicationContext(), DB_NAME, null, DB_VERSION);
+        // Page reads must not wait behind a scan's write transaction
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL(
+            "CREATE TABLE " +
+            TABLE_SONGS +
+            " (" +
+            COL_ID +
+            " INTEGER PRIMARY KEY, " +
+            COL_TITLE +
+            " TEXT NOT NULL, " +
+            COL_ARTIST +
+            " TEXT NOT NULL, " +
+            COL_ALBUM +
+            " TEXT NOT NULL, " +
+            COL_ALBUM_ID +
+            " INTEGER NOT NULL DEFAULT 0, " +
+            COL_DURATION +
+            " INTEGER NOT NULL DEFAULT 0, " +
+            COL_DATE_ADDED +
+            " INTEGER NOT NULL DEFAULT 0, " +
+            COL_DATE_MODIFIED +
+            " INTEGER NOT NULL DEFAULT 0, " +
+            COL_PATH +
+            " TEXT, " +
+            COL_URI +
+            " TEXT, " +
+            COL_SOURCE +
+            " TEXT, " +
+            COL_PARENT +
+            " TEXT)"
+        );
+        db.execSQL(
+            "CREATE INDEX songs_title ON " +
+            TABLE_SONGS +
+            " (" +
+            COL_SOURCE +
+            ", " +
+            COL_TITLE +
+            " COLLATE NOCASE)"
+        );
+        db.execSQL(
+            "CREATE TABLE " +
+            TABLE_FOLDERS +
+            " (" +
+            COL_TREE +
+            " TEXT NOT NULL, " +
+            COL_DOC_ID +
+            " TEXT NOT NULL, " +
+            COL_PARENT +
+            " TEXT, " +
+            COL_LAST_MODIFIED +
+            " INTEGER NOT NULL DEFAULT 0, PRIMARY KEY (" +
+            COL_TREE +
+            ", " +
+            COL_DOC_ID +
+            "))"
+        );
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // Everything here can be rebuilt by scanning again
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_SONGS);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_FOLDERS);
+        onCreate(db);
+    }
+
+    /**
+     * Ids of one source in display order, with each row's modification time
+     * and, for folder trees, its document uri. A null source means
+     * MediaStore.
+     */
+    public SortedIds loadSorted(@Nullable String source) {
+        try (
+            Cursor cursor = getReadableDatabase().query(
+                TABLE_SONGS,
+                new String[] { COL_ID, COL_DATE_MODIFIED, COL_URI },
+                source == null ? COL_SOURCE + " IS NULL" : COL_SOURCE + " = ?",
+                source == null ? null : new String[] { source },
+                null,
+                null,
+                DEFAULT_ORDER
+            )
+        ) {
+            int count = cursor.getCount();
+            SortedIds sorted = new SortedIds(
+                new long[count],
+                new long[count],
+                source != null ? new String[count] : null
+            );
+            int i = 0;
+            while (cursor.moveToNext()) {
+                sorted.ids[i] = cursor.getLong(0);
+                sorted.modified[i] = cursor.getLong(1);
+                if (sorted.uris != null) sorted.uris[i] = cursor.getString(2);
+                i++;
+            }
+            return sorted;
+        }
+    }
+
+    /** Indexes the text of every song from {@code source} into a new index. */
+    public SearchIndex loadSearchIndex(@Nullable String source) {
+        SearchIndex index = new SearchIndex();
+        try (
+            Cursor cursor = getReadableDatabase().query(
+                TABLE_SONGS,
+                new String[] { COL_ID, COL_TITLE, COL_ARTIST, COL_ALBUM },
+                source == null ? COL_SOURCE + " IS NULL" : COL_SOURCE + " = ?",
+                source == null ? null : new String[] { source },
+                null,
+                null,
+                null
+            )
+        ) {
+            while (cursor.moveToNext()) {
+                index.put(
+                    cursor.getLong(0),
+                    cursor.getString(1),
+                    cursor.getString(2),
+                    cursor.getString(3)
+                );
+            }
+        }
+        index.commit();
+        return index;
+    }
+
+    /** Collation-ranked sort keys for every song from {@code source}. */
+    public SortKeys loadSortKeys(@Nullable String source) {
+        try (
+            Cursor cursor = getReadableDatabase().query(
+                TABLE_SONGS,
+                new String[] {
+                    COL_ID,
+                    COL_TITLE,
+                    COL_ARTIST,
+                    COL_ALBUM,
+                    COL_DURATION,
+                    COL_DATE_ADDED,
+                },
+                source == null ? COL_SOURCE + " IS NULL" : COL_SOURCE + " = ?",
+                source == null ? null : new String[] { source },
+                null,
+                null,
+                null
+            )
+        ) {
+            SortKeys.Builder builder = new SortKeys.Builder(cursor.getCount());
+            while (cursor.moveToNext()) {
+                builder.add(
+                    cursor.getLong(0),
+                    cursor.getString(1),
+                    cursor.getString(2),
+                    cursor.getString(3),
+                    cursor.getLong(4),
+                    cursor.getLong(5)
+                );
+            }
+            return builder.build();
+        }
+    }
+
+    /** Groups the songs of {@code songs}, which were read from {@code source}. */
+    public LibraryGroups loadGroups(@Nullable String source, SongList songs) {
+        LibraryGroups.Builder builder = new LibraryGroups.Builder(songs);
+        try (
+            Cursor cursor = getReadableDatabase().query(
+                TABLE_SONGS,
+                new String[] {
+                    COL_ID,
+                    COL_ALBUM_ID,
+                    COL_ALBUM,
+                    COL_ARTIST,
+                    COL_DURATION,
+                    COL_DATE_MODIFIED,
+                    COL_PATH,
+                    COL_PARENT,
+                },
+                source == null ? COL_SOURCE + " IS NULL" : COL_SOURCE + " = ?",
+                source == null ? null : new String[] { source },
+                null,
+                null,
+                null
+            )
+        ) {
+            while (cursor.moveToNext()) {
+                // Folder songs know their directory; MediaStore songs have
+                // a file path
+                String folder = cursor.getString(7);
+                if (folder == null) {
+                    String path = cursor.getString(6);
+                    int slash = path != null ? path.lastIndexOf('/') : -1;
+                    folder = slash > 0 ? path.substring(0, slash) : null;
+                }
+                builder.add(
+                    cursor.getLong(0),
+                    cursor.getLong(1),
+                    cursor.getString(2),
+                    cursor.getString(3),
+                    cursor.getLong(4),
+                    cursor.getLong(5),
+                    folder
+                );
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Reads the rows for {@code ids[from, to)} into {@code table}; returns
+     * how many were found.
+     */
+    public int loadRows(long[] ids, int from, int to, SongTable table) {
+        if (from >= to) return 0;
+
+        StringBuilder in = new StringBuilder(COL_ID).append(" IN (");
+        for (int i = from; i < to; i++) {
+            if (i > from) in.append(',');
+            in.append(ids[i]);
+        }
+        in.append(')');
+
+        try (
+            Cursor cursor = getReadableDatabase().query(
+                TABLE_SONGS,
+                ROW_COLUMNS,
+                in.toString(),
+                null,
+                null,
+                null,
+                null
+            )
+        ) {
+            while (cursor.moveToNext()) {
+                table.put(
+                    cursor.getLong(0),
+                    cursor.getLong(1),
+                    cursor.getString(2),
+                    cursor.getString(3),
+                    cursor.getString(4),
+                    cursor.getLong(5),
+                    cursor.getLong(6),
+                    cursor.getString(7)
+                );
+            }
+            return cursor.getCount();
+        }
+    }
+
+    /** Ids of all MediaStore songs, unordered. */
+    public long[] loadMediaIds() {
+        try (
+            Cursor cursor = getReadableDatabase().query(
+                TABLE_SONGS,
+                new String[] { COL_ID },
+                COL_SOURCE + " IS NULL",
+                null,
+                null,
+                null,
+                null
+            )
+        ) {
+            long[] ids = new long[cursor.getCount()];
+            int i = 0;
+            while (cursor.moveToNext()) {
+                ids[i++] = cursor.getLong(0);
+            }
+            return ids;
+        }
+    }
+
+    public int countMedia() {
+        try (
+            Cursor cursor = getReadableDatabase().rawQuery(
+                "SELECT COUNT(*) FROM " +
+                TABLE_SONGS +
+                " WHERE " +
+                COL_SOURCE +
+                " IS NULL",
+                null
+            )
+        ) {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        }
+    }
+
+    /**
+     * Inserts or replaces the MediaStore songs {@code upserts} and drops
+     * {@code deletedIds}.
+     */
+    public void applyChanges(
+        Collection<SongItem> upserts,
+        Collection<Long> deletedIds
+    ) {
+        if (upserts.isEmpty() && deletedIds.isEmpty()) return;
+
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try (
+            SQLiteStatement insert = db.compileStatement(
+                "INSERT OR REPLACE INTO " +
+                TABLE_SONGS +
+                " (" +
+                String.join(", ", SONG_COLUMNS) +
+                ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)"
+            );
+            SQLiteStatement delete = db.compileStatement(
+                "DELETE FROM " + TABLE_SONGS + " WHERE " + COL_ID + " = ?"
+            )
+        ) {
+            for (SongItem song : upserts) {
+                insert.clearBindings();
+                insert.bindLong(1, song.getId());
+                insert.bindString(2, song.getTitle());
+                insert.bindString(3, song.getArtist());
+                insert.bindString(4, song.getAlbum());
+                insert.bindLong(5, song.getAlbumId());
+                insert.bindLong(6, song.getDuration());
+                insert.bindLong(7, song.getDateAdded());
+                insert.bindLong(8, song.getDateModified());
+                if (song.getPath() != null) insert.bindString(9, song.getPath());
+                insert.executeInsert();
+            }
+            for (Long id : deletedIds) {
+                delete.bindLong(1, id);
+                delete.executeUpdateDelete();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /** Directories recorded for {@code tree}, by document id. */
+    public Map<String, FolderRow> loadFolders(String tree) {
+        Map<String, FolderRow> folders = new HashMap<>();
+        try (
+            Cursor cursor = getReadableDatabase().query(
+                TABLE_FOLDERS,
+                new String[] { COL_DOC_ID, COL_PARENT, COL_LAST_MODIFIED },
+                COL_TREE + " = ?",
+                new String[] { tree },
+                null,
+                null,
+                null
+            )
+        ) {
+            while (cursor.moveToNext()) {
+                folders.put(
+                    cursor.getString(0),
+                    new FolderRow(cursor.getString(1), cursor.getLong(2))
+                );
+            }
+        }
+        return folders;
+    }
+
+    /** Song id to its recorded directory and time for {@code tree}. */
+    public Map<Long, DocumentRow> loadDocuments(String tree) {
+        Map<Long, DocumentRow> documents = new HashMap<>();
+        try (
+            Cursor cursor = getReadableDatabase().query(
+                TABLE_SONGS,
+                new String[] { COL_ID, COL_PARENT, COL_DATE_MODIFIED },
+                COL_SOURCE + " = ?",
+                new String[] { tree },
+                null,
+                null,
+                null
+            )
+        ) {
+            while (cursor.moveToNext()) {
+                documents.put(
+                    cursor.getLong(0),
+                    new DocumentRow(cursor.getString(1), cursor.getLong(2))
+                );
+            }
+        }
+        return documents;
+    }
+
+    /**
+     * Records one batch of a walk of {@code tree}: audio documents by the
+     * directory they sit in, and the rows of directories whose files are
+     * all recorded now.
+     */
+    public void applyFolderBatch(
+        String tree,
+        Map<String, List<SongItem>> songsByParent,
+        Map<String, FolderRow> folders
+    ) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try (
+            SQLiteStatement folder = db.compileStatement(
+                "INSERT OR REPLACE INTO " +
+                TABLE_FOLDERS +
+                " (" +
+                COL_TREE +
+                ", " +
+                COL_DOC_ID +
+                ", " +
+                COL_PARENT +
+                ", " +
+                COL_LAST_MODIFIED +
+                ") VALUES (?, ?, ?, ?)"
+            );
+            SQLiteStatement insert = db.compileStatement(
+                "INSERT OR REPLACE INTO " +
+                TABLE_SONGS +
+                " (" +
+                String.join(", ", SONG_COLUMNS) +
+                ", " +
+                COL_SOURCE +
+                ", " +
+                COL_PARENT +
+                ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)"
+            )
+        ) {
+            for (
+                Map.Entry<String, List<SongItem>> e : songsByParent.entrySet()
+            ) {
+                for (SongItem song : e.getValue()) {
+                    insert.clearBindings();
+                    insert.bindLong(1, song.getId());
+                    insert.bindString(2, song.getTitle());
+                    insert.bindString(3, song.getArtist());
+                    insert.bindString(4, song.getAlbum());
+                    insert.bindLong(5, song.getAlbumId());
+                    insert.bindLong(6, song.getDuration());
+                    insert.bindLong(7, song.getDateAdded());
+                    insert.bindLong(8, song.getDateModified());
+                    if (song.getPath() != null) {
+                        insert.bindString(9, song.getPath());
+                    }
+                    insert.bindString(10, song.getUri().toString());
+                    insert.bindString(11, tree);
+                    insert.bindString(12, e.getKey());
+                    insert.executeInsert();
+                }
+            }
+            for (Map.Entry<String, FolderRow> e : folders.entrySet()) {
+                folder.clearBindings();
+                folder.bindString(1, tree);
+                folder.bindString(2, e.getKey());
+                if (e.getValue().parent != null) {
+                    folder.bindString(3, e.getValue().parent);
+                }
+                folder.bindLong(4, e.getValue().lastModified);
+                folder.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /** Drops songs by id and directories of {@code tree} by document id. */
+    public void deleteFolderEntries(
+        String tree,
+        Collection<Long> songIds,
+        Collection<String> folderDocIds
+    ) {
+        if (songIds.isEmpty() && folderDocIds.isEmpty()) return;
+
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try (
+            SQLiteStatement song = db.compileStatement(
+                "DELETE FROM " + TABLE_SONGS + " WHERE " + COL_ID + " = ?"
+            );
+            SQLiteStatement folder = db.compileStatement(
+                "DELETE FROM " +
+                TABLE_FOLDERS +
+                " WHERE " +
+                COL_TREE +
+                " = ? AND " +
+                COL_DOC_ID +
+                " = ?"
+            )
+        ) {
+            for (Long id : songIds) {
+                song.bindLong(1, id);
+                song.executeUpdateDelete();
+            }
+            folder.bindString(1, tree);
+            for (String docId : folderDocIds) {
+                folder.bindString(2, docId);
+                folder.executeUpdateDelete();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Drops the songs and directories of every folder tree but
+     * {@code tree}; all of them for null.
+     */
+    public void deleteFoldersExcept(@Nullable String tree) {
+        SQLiteDatabase db = getWritableDatabase();
+        String[] args = tree != null ? new String[] { tree } : null;
+        db.beginTransaction();
+        try {
+            db.delete(
+                TABLE_SONGS,
+                tree != null
+                    ? COL_SOURCE + " IS NOT NULL AND " + COL_SOURCE + " != ?"
+                    : COL_SOURCE + " IS NOT NULL",
+                args
+            );
+            db.delete(
+                TABLE_FOLDERS,
+                tree != null ? COL_TREE + " != ?" : null,
+                args
+            );
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * The uri to play a song by: its document uri for folder songs, its
+     * MediaStore uri otherwise.
+     */
+    static Uri songUri(long id, @Nullable String documentUri) {
+        if (documentUri != null) return Uri.parse(documentUri);
+        return ContentUris.withAppendedId(
+            MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+            id
+        );
+    }
+}
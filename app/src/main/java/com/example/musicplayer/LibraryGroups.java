@@ -0,0 +1,278 @@
+package com.example.musicplayer;
+
+import androidx.annotation.Nullable;
+import com.example.musicplayer.core.LongIntMap;
+import com.example.musicplayer.core.SongTable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Albums, artists and folders of one published {@link SongList}.
+ *
+ * Built once per library change in the background. Each group keeps the
+ * positions of its songs in that list, so opening one is a slice of the
+ * list with no query.
+ */
+public final class LibraryGroups {
+
+    public static final class Group {
+
+        final String name;
+        // Album artist, or null for artists and folders
+        @Nullable
+        final String subtitle;
+        final int[] positions;
+        final long totalDuration;
+        // A song whose art stands for the group
+        final long artAlbumId;
+        final int artPosition;
+        final long artModified;
+
+        Group(
+            String name,
+            @Nullable String subtitle,
+            int[] positions,
+            long totalDuration,
+            long artAlbumId,
+            int artPosition,
+            long artModified
+        ) {
+            this.name = name;
+            this.subtitle = subtitle;
+            this.positions = positions;
+            this.totalDuration = totalDuration;
+            this.artAlbumId = artAlbumId;
+            this.artPosition = artPosition;
+            this.artModified = artModified;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        @Nullable
+        public String getSubtitle() {
+            return subtitle;
+        }
+
+        public int getCount() {
+            return positions.length;
+        }
+
+        public long getTotalDuration() {
+            return totalDuration;
+        }
+    }
+
+    private final SongList songs;
+    private final List<Group> albums;
+    private final List<Group> artists;
+    private final List<Group> folders;
+
+    private LibraryGroups(
+        SongList songs,
+        List<Group> albums,
+        List<Group> artists,
+        List<Group> folders
+    ) {
+        this.songs = songs;
+        this.albums = albums;
+        this.artists = artists;
+        this.folders = folders;
+    }
+
+    static LibraryGroups empty(SongList songs) {
+        return new LibraryGroups(
+            songs,
+            Collections.emptyList(),
+            Collections.emptyList(),
+            Collections.emptyList()
+        );
+    }
+
+    /** The list the groups were built from. */
+    public SongList getSongs() {
+        return songs;
+    }
+
+    public List<Group> getAlbums() {
+        return albums;
+    }
+
+    public List<Group> getArtists() {
+        return artists;
+    }
+
+    public List<Group> getFolders() {
+        return folders;
+    }
+
+    /** The songs of {@code group} in library order. */
+    public SongList songsOf(Group group) {
+        return songs.subset(group.positions);
+    }
+
+    /** A stand-in row carrying what the art loader needs for {@code group}. */
+    SongTable.Row artSong(Group group) {
+        SongTable.Row song = new SongTable.Row();
+        song.set(
+            songs.getId(group.artPosition),
+            group.artAlbumId,
+            null,
+            null,
+            null,
+            0,
+            group.artModified,
+            songs.documentUris != null
+                ? songs.documentUris[group.artPosition]
+                : null
+        );
+        return song;
+    }
+
+    /** Collects rows in any order, then sorts groups by name. */
+    static final class Builder {
+
+        private final SongList songs;
+        private final LongIntMap positions;
+        private final Map<String, Acc> albums = new HashMap<>();
+        private final Map<String, Acc> artists = new HashMap<>();
+        private final Map<String, Acc> folders = new HashMap<>();
+
+        Builder(SongList songs) {
+            this.songs = songs;
+            positions = new LongIntMap(songs.size());
+            for (int i = 0; i < songs.size(); i++) {
+                positions.put(songs.getId(i), i);
+            }
+        }
+
+        void add(
+            long id,
+            long albumId,
+            @Nullable String album,
+            @Nullable String artist,
+            long duration,
+            long modified,
+            @Nullable String folder
+        ) {
+            int position = positions.get(id);
+            // Written after the list was read
+            if (position < 0) return;
+
+            String albumName = orUnknown(album, "Unknown Album");
+            String artistName = orUnknown(artist, "Unknown Artist");
+            String albumKey = albumId > 0
+                ? "#" + albumId
+                : albumName.toLowerCase(Locale.ROOT);
+            accumulate(albums, albumKey, albumName, artistName)
+                .add(position, duration, albumId, modified);
+            accumulate(
+                artists,
+                artistName.toLowerCase(Locale.ROOT),
+                artistName,
+                null
+            ).add(position, duration, albumId, modified);
+            if (folder != null) {
+                accumulate(folders, folder, folderName(folder), null)
+                    .add(position, duration, albumId, modified);
+            }
+        }
+
+        LibraryGroups build() {
+            return new LibraryGroups(
+                songs,
+                finish(albums),
+                finish(artists),
+                finish(folders)
+            );
+        }
+
+        private static Acc accumulate(
+            Map<String, Acc> groups,
+            String key,
+            String name,
+            @Nullable String subtitle
+        ) {
+            Acc acc = groups.get(key);
+            if (acc == null) {
+                acc = new Acc(name, subtitle);
+                groups.put(key, acc);
+            }
+            return acc;
+        }
+
+        private static List<Group> finish(Map<String, Acc> groups) {
+            List<Group> list = new ArrayList<>(groups.size());
+            for (Acc acc : groups.values()) list.add(acc.toGroup());
+            Collections.sort(list, (a, b) ->
+                String.CASE_INSENSITIVE_ORDER.compare(a.name, b.name)
+            );
+            return Collections.unmodifiableList(list);
+        }
+
+        private static String orUnknown(@Nullable String value, String unknown) {
+            return value == null || value.isEmpty() ? unknown : value;
+        }
+
+        private static String folderName(String folder) {
+            String name = folder.substring(folder.lastIndexOf('/') + 1);
+            int colon = name.indexOf(':');
+            if (colon >= 0) name = name.substring(colon + 1);
+            return name.isEmpty() ? folder : name;
+        }
+    }
+
+    private static final class Acc {
+
+        final String name;
+
+        @Nullable
+        final String subtitle;
+
+        int[] positions = new int[4];
+        int count;
+        long totalDuration;
+        long artAlbumId;
+        int artPosition = Integer.MAX_VALUE;
+        long artModified;
+
+        Acc(String name, @Nullable String subtitle) {
+            this.name = name;
+            this.subtitle = subtitle;
+        }
+
+        void add(int position, long duration, long albumId, long modified) {
+            if (count == positions.length) {
+                positions = Arrays.copyOf(positions, count * 2);
+            }
+            positions[count++] = position;
+            totalDuration += duration;
+            // The group's first song in library order lends its art
+            if (position < artPosition) {
+                artPosition = position;
+                artAlbumId = albumId;
+                artModified = modified;
+            }
+        }
+
+        Group toGroup() {
+            int[] sorted = Arrays.copyOf(positions, count);
+            Arrays.sort(sorted);
+            return new Group(
+                name,
+                subtitle,
+                sorted,
+                totalDuration,
+                artAlbumId,
+                artPosition,
+                artModified
+            );
+        }
+    }
+}
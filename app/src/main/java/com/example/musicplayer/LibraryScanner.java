@@ -0,0 +1,293 @@
+package com.example.musicplayer;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.provider.MediaStore;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Brings {@link LibraryDatabase} in line with MediaStore.
+ *
+ * The first scan, and any scan after MediaStore reports a new version, reads
+ * every audio row. Later scans only ask for rows changed since the last one:
+ * by per-volume generation on Android 11+, by DATE_MODIFIED before that.
+ * Deletions are found by comparing row counts, and the id lists are only
+ * read when the counts disagree. A volume that is no longer mounted counts
+ * as changed, so its songs are purged.
+ */
+class LibraryScanner {
+
+    private static final String PREFS = "library_scan";
+    private static final String KEY_VERSION = "media_version";
+    private static final String KEY_LAST_SCAN = "last_scan_seconds";
+    private static final String KEY_GENERATION_PREFIX = "generation_";
+
+    private static final String[] PROJECTION = {
+        MediaStore.Audio.Media._ID,
+        MediaStore.Audio.Media.TITLE,
+        MediaStore.Audio.Media.ARTIST,
+        MediaStore.Audio.Media.ALBUM,
+        MediaStore.Audio.Media.ALBUM_ID,
+        MediaStore.Audio.Media.DURATION,
+        MediaStore.Audio.Media.DATE_ADDED,
+        MediaStore.Audio.Media.DATE_MODIFIED,
+        MediaStore.Audio.Media.DATA,
+        MediaStore.Audio.Media.IS_MUSIC,
+    };
+
+    /** What one scan changed. */
+    static final class Result {
+
+        final List<SongItem> upserts = new ArrayList<>();
+        final Set<Long> deletedIds = new HashSet<>();
+        boolean full;
+
+        boolean isEmpty() {
+            return upserts.isEmpty() && deletedIds.isEmpty();
+        }
+    }
+
+    private final Context context;
+    private final LibraryDatabase database;
+    private final SharedPreferences prefs;
+
+    LibraryScanner(Context context, LibraryDatabase database) {
+        this.context = context.getApplicationContext();
+        this.database = database;
+        this.prefs = this.context.getSharedPreferences(
+            PREFS,
+            Context.MODE_PRIVATE
+        );
+    }
+
+    /** Runs a scan and writes its changes. Call off the main thread. */
+    Result scan() {
+        long scanStartSeconds = System.currentTimeMillis() / 1000;
+        String version = MediaStore.getVersion(context);
+        Result result = new Result();
+        result.full = !version.equals(prefs.getString(KEY_VERSION, null));
+
+        SharedPreferences.Editor editor = prefs.edit();
+        boolean mayHaveDeletions = true;
+        if (result.full) {
+            queryChanges(
+                MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+                null,
+                null,
+                result
+            );
+            Set<Long> known = new HashSet<>();
+            for (long id : database.loadMediaIds()) known.add(id);
+            for (SongItem song : result.upserts) known.remove(song.getId());
+            result.deletedIds.addAll(known);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+                Set<String> volumes =
+                    MediaStore.getExternalVolumeNames(context);
+                forgetMissingVolumes(volumes, editor);
+                for (String volume : volumes) {
+                    editor.putLong(
+                        KEY_GENERATION_PREFIX + volume,
+                        MediaStore.getGeneration(context, volume)
+                    );
+                }
+            }
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            // Deletions bump the generation too, so an unchanged volume is
+            // done; a volume that went away, like an ejected SD card, took
+            // its songs with it
+            Set<String> volumes = MediaStore.getExternalVolumeNames(context);
+            mayHaveDeletions = forgetMissingVolumes(volumes, editor);
+            for (String volume : volumes) {
+                String key = KEY_GENERATION_PREFIX + volume;
+                long generation = MediaStore.getGeneration(context, volume);
+                if (generation == prefs.getLong(key, -1)) continue;
+
+                mayHaveDeletions = true;
+                queryChanges(
+                    MediaStore.Audio.Media.getContentUri(volume),
+                    MediaStore.Audio.Media.GENERATION_MODIFIED + " > ?",
+                    new String[] { String.valueOf(prefs.getLong(key, -1)) },
+                    result
+                );
+                editor.putLong(key, generation);
+            }
+        } else {
+            // DATE_MODIFIED only has second precision, so overlap by one
+            long since = prefs.getLong(KEY_LAST_SCAN, 0) - 1;
+            queryChanges(
+                MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+                MediaStore.Audio.Media.DATE_MODIFIED + " >= ?",
+                new String[] { String.valueOf(since) },
+                result
+            );
+        }
+
+        database.applyChanges(result.upserts, result.deletedIds);
+        if (!result.full && mayHaveDeletions) findDeletions(result);
+
+        editor
+            .putString(KEY_VERSION, version)
+            .putLong(KEY_LAST_SCAN, scanStartSeconds)
+            .apply();
+        return result;
+    }
+
+    /** Forgets the scan state so the next scan reads everything. */
+    void reset() {
+        prefs.edit().clear().apply();
+    }
+
+    /**
+     * Drops the stored generation of every volume not in {@code volumes};
+     * returns whether there was one.
+     */
+    private boolean forgetMissingVolumes(
+        Set<String> volumes,
+        SharedPreferences.Editor editor
+    ) {
+        boolean missing = false;
+        for (String key : prefs.getAll().keySet()) {
+            if (!key.startsWith(KEY_GENERATION_PREFIX)) continue;
+            String volume = key.substring(KEY_GENERATION_PREFIX.length());
+            if (volumes.contains(volume)) continue;
+            editor.remove(key);
+            missing = true;
+        }
+        return missing;
+    }
+
+    private void queryChanges(
+        Uri contentUri,
+        String selection,
+        String[] selectionArgs,
+        Result result
+    ) {
+        ContentResolver resolver = context.getContentResolver();
+        try (
+            Cursor cursor = resolver.query(
+                contentUri,
+                PROJECTION,
+                selection,
+                selectionArgs,
+                null
+            )
+        ) {
+            if (cursor == null) return;
+
+            int idCol = cursor.getColumnIndexOrThrow(
+                MediaStore.Audio.Media._ID
+            );
+            int titleCol = cursor.getColumnIndexOrThrow(
+                MediaStore.Audio.Media.TITLE
+            );
+            int artistCol = cursor.getColumnIndexOrThrow(
+                MediaStore.Audio.Media.ARTIST
+            );
+            int albumCol = cursor.getColumnIndexOrThrow(
+                MediaStore.Audio.Media.ALBUM
+            );
+            int albumIdCol = cursor.getColumnIndexOrThrow(
+                MediaStore.Audio.Media.ALBUM_ID
+            );
+            int durationCol = cursor.getColumnIndexOrThrow(
+                MediaStore.Audio.Media.DURATION
+            );
+            int addedCol = cursor.getColumnIndexOrThrow(
+                MediaStore.Audio.Media.DATE_ADDED
+            );
+            int modifiedCol = cursor.getColumnIndexOrThrow(
+                MediaStore.Audio.Media.DATE_MODIFIED
+            );
+            int pathCol = cursor.getColumnIndexOrThrow(
+                MediaStore.Audio.Media.DATA
+            );
+            int isMusicCol = cursor.getColumnIndexOrThrow(
+                MediaStore.Audio.Media.IS_MUSIC
+            );
+
+            while (cursor.moveToNext()) {
+                long id = cursor.getLong(idCol);
+                // Rows can stop being music, e.g. after a retag
+                if (cursor.getInt(isMusicCol) == 0) {
+                    result.deletedIds.add(id);
+                    continue;
+                }
+
+                String title = cursor.getString(titleCol);
+                String artist = cursor.getString(artistCol);
+                String album = cursor.getString(albumCol);
+
+                SongItem song = new SongItem();
+                song.setId(id);
+                song.setTitle(title != null ? title : "Unknown Title");
+                song.setArtist(artist != null ? artist : "Unknown Artist");
+                song.setAlbum(album != null ? album : "Unknown Album");
+                song.setAlbumId(cursor.getLong(albumIdCol));
+                song.setDuration(cursor.getLong(durationCol));
+                song.setDateAdded(cursor.getLong(addedCol));
+                song.setDateModified(cursor.getLong(modifiedCol));
+                song.setPath(cursor.getString(pathCol));
+                song.setUri(
+                    ContentUris.withAppendedId(
+                        MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+                        id
+                    )
+                );
+                result.upserts.add(song);
+            }
+        }
+    }
+
+    private void findDeletions(Result result) {
+        int mediaCount = countMusic();
+        if (mediaCount < 0 || mediaCount == database.countMedia()) return;
+
+        Set<Long> present = new HashSet<>();
+        try (
+            Cursor cursor = context
+                .getContentResolver()
+                .query(
+                    MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+                    new String[] { MediaStore.Audio.Media._ID },
+                    MediaStore.Audio.Media.IS_MUSIC + " != 0",
+                    null,
+                    null
+                )
+        ) {
+            if (cursor == null) return;
+            while (cursor.moveToNext()) present.add(cursor.getLong(0));
+        }
+
+        Set<Long> deleted = new HashSet<>();
+        for (long id : database.loadMediaIds()) {
+            if (!present.contains(id)) deleted.add(id);
+        }
+        database.applyChanges(new ArrayList<>(), deleted);
+        result.deletedIds.addAll(deleted);
+    }
+
+    // MediaStore rejects COUNT(*) projections, so count a one-column cursor
+    private int countMusic() {
+        try (
+            Cursor cursor = context
+                .getContentResolver()
+                .query(
+                    MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+                    new String[] { MediaStore.Audio.Media._ID },
+                    MediaStore.Audio.Media.IS_MUSIC + " != 0",
+                    null,
+                    null
+                )
+        ) {
+            return cursor != null ? cursor.getCount() : -1;
+        }
+    }
+}
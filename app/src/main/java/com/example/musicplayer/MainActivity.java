@@ -4,12 +4,11 @@ import android.Manifest;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.content.res.Configuration;
-import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
-import android.provider.MediaStore;
 import android.provider.Settings;
+import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.ImageButton;
@@ -18,35 +17,74 @@ import android.widget.LinearLayout;
 import android.widget.TextView;
 import android.widget.Toast;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.SearchView;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
+import androidx.core.view.GravityCompat;
+import androidx.drawerlayout.widget.DrawerLayout;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
+import com.example.musicplayer.core.SortMode;
+import com.google.android.material.appbar.MaterialToolbar;
 import com.google.android.material.card.MaterialCardView;
 import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
+import com.google.android.material.navigation.NavigationView;
 import com.google.android.material.snackbar.Snackbar;
-import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
 
 public class MainActivity
     extends AppCompatActivity
-    implements SongAdapter.OnSongClickListener {
+    implements
+        SongAdapter.OnSongClickListener,
+        MusicLibrary.Listener,
+        HistoryStore.Listener {
 
     private static final int PERMISSION_REQUEST_CODE = 100;
     private static final int PICK_DIRECTORY_REQUEST = 101;
 
+    // What the list shows; a group of the albums, artists or folders view
+    // can be opened on top
+    private static final int VIEW_SONGS = 0;
+    private static final int VIEW_ALBUMS = 1;
+    private static final int VIEW_ARTISTS = 2;
+    private static final int VIEW_FOLDERS = 3;
+    // Songs from the play history, in its order
+    private static final int VIEW_RECENT = 4;
+    private static final int VIEW_MOST_PLAYED = 5;
+    private static final int VIEW_FAVORITES = 6;
+
+    private static final int HISTORY_LIMIT = 200;
+
     // UI Components
     private RecyclerView recyclerView;
     private SongAdapter songAdapter;
+    private GroupAdapter groupAdapter;
+    private DrawerLayout drawerLayout;
+    private NavigationView navigationView;
+    private MaterialToolbar toolbar;
+    private TextView tvSectionTitle;
+    private TextView tvScanProgress;
     private FloatingActionButton fabSelectFolder;
     private LinearLayout emptyStateLayout;
 
     // Data
-    private ArrayList<SongItem> songList;
-    private ArrayList<Uri> playlist;
+    private SongList songList;
     private int currentPlayingIndex = -1;
+    private Toast loadedToast;
+    // Current search, empty when showing the whole library
+    private String query = "";
+    private int view = VIEW_SONGS;
+
+    @Nullable
+    private LibraryGroups groups;
+
+    @Nullable
+    private LibraryGroups.Group openGroup;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -56,8 +94,11 @@ public class MainActivity
 
         initViews();
         setupRecyclerView();
+        setupDrawer();
         setupFabs();
         updateWelcomeMessage();
+        MusicLibrary.get(this).addListener(this);
+        HistoryStore.get(this).addListener(this);
 
         // Check permissions and load songs
         if (checkPermissions()) {
@@ -68,18 +109,69 @@ public class MainActivity
     }
 
     private void initViews() {
+        drawerLayout = findViewById(R.id.drawerLayout);
+        navigationView = findViewById(R.id.navigationView);
+        toolbar = findViewById(R.id.toolbar);
+        tvSectionTitle = findViewById(R.id.tvSectionTitle);
+        tvScanProgress = findViewById(R.id.tvScanProgress);
+        // Hidden way into the metrics screen
+        tvSectionTitle.setOnLongClickListener(v -> {
+            startActivity(new Intent(this, DebugActivity.class));
+            return true;
+        });
+        setSupportActionBar(toolbar);
+        if (getSupportActionBar() != null) {
+            getSupportActionBar().setDisplayShowTitleEnabled(false);
+        }
         recyclerView = findViewById(R.id.recyclerView);
         fabSelectFolder = findViewById(R.id.fabSelectFolder);
         emptyStateLayout = findViewById(R.id.emptyStateLayout);
 
-        songList = new ArrayList<>();
-        playlist = new ArrayList<>();
+        MusicLibrary library = MusicLibrary.get(this);
+        songList = library.getSongs() != null
+            ? library.getSongs()
+            : SongList.empty(library.getPager());
+        groups = library.getGroups();
     }
 
     private void setupRecyclerView() {
         songAdapter = new SongAdapter(songList, this);
+        MusicLibrary.get(this).getPager().setListener(songAdapter);
         recyclerView.setLayoutManager(new LinearLayoutManager(this));
         recyclerView.setAdapter(songAdapter);
+        groupAdapter = new GroupAdapter(this::onGroupClick);
+    }
+
+    private void setupDrawer() {
+        toolbar.setNavigationOnClickListener(v ->
+            drawerLayout.openDrawer(GravityCompat.START)
+        );
+        navigationView.setNavigationItemSelectedListener(item -> {
+            drawerLayout.closeDrawer(GravityCompat.START);
+            int id = item.getItemId();
+            if (id == R.id.nav_home || id == R.id.nav_all_songs) {
+                showSongs();
+            } else if (id == R.id.nav_albums) {
+                showGroups(VIEW_ALBUMS);
+            } else if (id == R.id.nav_artists) {
+                showGroups(VIEW_ARTISTS);
+            } else if (id == R.id.nav_folders) {
+                showGroups(VIEW_FOLDERS);
+            } else if (id == R.id.nav_recently_played) {
+                showHistory(VIEW_RECENT);
+            } else if (id == R.id.nav_most_played) {
+                showHistory(VIEW_MOST_PLAYED);
+            } else if (id == R.id.nav_favorites) {
+                showHistory(VIEW_FAVORITES);
+            } else if (id == R.id.nav_about) {
+                showAboutDialog();
+                return false;
+            } else {
+                Toast.makeText(this, "Coming soon", Toast.LENGTH_SHORT).show();
+                return false;
+            }
+            return true;
+        });
     }
 
     private void setupFabs() {
@@ -257,94 +349,276 @@ public class MainActivity
     }
 
     private void loadDefaultSongs() {
-        songList.clear();
-        playlist.clear();
-
-        String[] projection = {
-            MediaStore.Audio.Media._ID,
-            MediaStore.Audio.Media.TITLE,
-            MediaStore.Audio.Media.ARTIST,
-            MediaStore.Audio.Media.ALBUM,
-            MediaStore.Audio.Media.DURATION,
-            MediaStore.Audio.Media.DATA,
+        MusicLibrary.get(this).load();
+    }
+
+    @Override
+    public void onLibraryChanged(SongList songs) {
+        songList = songs;
+        // Open groups follow once the library is regrouped
+        if (view == VIEW_SONGS) showShownSongs();
+        else if (isHistoryView()) loadHistory();
+        updateUIState();
+    }
+
+    @Override
+    public void onScanProgress(
+        int done,
+        int found,
+        float filesPerSecond,
+        boolean finished
+    ) {
+        if (finished) {
+            tvScanProgress.setVisibility(View.GONE);
+            return;
+        }
+        tvScanProgress.setText(
+            "Reading tags: " +
+            done +
+            " of " +
+            found +
+            " files, " +
+            Math.round(filesPerSecond) +
+            " files/s"
+        );
+        tvScanProgress.setVisibility(View.VISIBLE);
+    }
+
+    @Override
+    public void onGroupsChanged(LibraryGroups newGroups) {
+        groups = newGroups;
+        if (view == VIEW_SONGS || isHistoryView()) return;
+        if (openGroup == null) {
+            groupAdapter.submitGroups(groups, groupRows());
+            return;
+        }
+        // Reopen the same group in the new grouping, if it still exists
+        LibraryGroups.Group reopened = null;
+        for (LibraryGroups.Group group : groupRows()) {
+            if (group.getName().equals(openGroup.getName())) {
+                reopened = group;
+                break;
+            }
+        }
+        if (reopened != null) {
+            openGroup = reopened;
+            showShownSongs();
+        } else {
+            showGroups(view);
+        }
+    }
+
+    private void showSongs() {
+        view = VIEW_SONGS;
+        openGroup = null;
+        tvSectionTitle.setText("Your Music");
+        recyclerView.setAdapter(songAdapter);
+        showShownSongs();
+    }
+
+    private void showGroups(int groupView) {
+        view = groupView;
+        openGroup = null;
+        tvSectionTitle.setText(
+            groupView == VIEW_ALBUMS
+                ? "Albums"
+                : groupView == VIEW_ARTISTS ? "Artists" : "Folders"
+        );
+        recyclerView.setAdapter(groupAdapter);
+        if (groups != null) {
+            groupAdapter.submitGroups(groups, groupRows());
+        }
+    }
+
+    private void showHistory(int historyView) {
+        view = historyView;
+        openGroup = null;
+        tvSectionTitle.setText(
+            historyView == VIEW_RECENT
+                ? "Recently Played"
+                : historyView == VIEW_MOST_PLAYED
+                    ? "Most Played"
+                    : "Favorites"
+        );
+        recyclerView.setAdapter(songAdapter);
+        loadHistory();
+    }
+
+    /** Shows the history view's songs that are still in the library. */
+    private void loadHistory() {
+        int requested = view;
+        HistoryStore.IdsCallback show = ids -> {
+            if (view != requested || isDestroyed()) return;
+            MusicLibrary.get(this).select(songList, ids, songs -> {
+                if (view == requested && !isDestroyed()) {
+                    songAdapter.submitSongs(songs);
+                }
+            });
         };
+        HistoryStore history = HistoryStore.get(this);
+        if (view == VIEW_RECENT) {
+            history.loadRecentlyPlayed(HISTORY_LIMIT, show);
+        } else if (view == VIEW_MOST_PLAYED) {
+            history.loadMostPlayed(HISTORY_LIMIT, show);
+        } else {
+            history.loadFavorites(show);
+        }
+    }
 
-        String selection = MediaStore.Audio.Media.IS_MUSIC + " != 0";
-        String sortOrder = MediaStore.Audio.Media.TITLE + " ASC";
+    private boolean isHistoryView() {
+        return (
+            view == VIEW_RECENT ||
+            view == VIEW_MOST_PLAYED ||
+            view == VIEW_FAVORITES
+        );
+    }
 
-        try (
-            Cursor cursor = getContentResolver().query(
-                MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
-                projection,
-                selection,
-                null,
-                sortOrder
-            )
-        ) {
-            if (cursor != null && cursor.moveToFirst()) {
-                do {
-                    long id = cursor.getLong(
-                        cursor.getColumnIndexOrThrow(MediaStore.Audio.Media._ID)
-                    );
-                    String title = cursor.getString(
-                        cursor.getColumnIndexOrThrow(
-                            MediaStore.Audio.Media.TITLE
-                        )
-                    );
-                    String artist = cursor.getString(
-                        cursor.getColumnIndexOrThrow(
-                            MediaStore.Audio.Media.ARTIST
-                        )
-                    );
-                    String album = cursor.getString(
-                        cursor.getColumnIndexOrThrow(
-                            MediaStore.Audio.Media.ALBUM
-                        )
-                    );
-                    long duration = cursor.getLong(
-                        cursor.getColumnIndexOrThrow(
-                            MediaStore.Audio.Media.DURATION
-                        )
-                    );
-                    String path = cursor.getString(
-                        cursor.getColumnIndexOrThrow(
-                            MediaStore.Audio.Media.DATA
-                        )
-                    );
-
-                    Uri uri = Uri.withAppendedPath(
-                        MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
-                        String.valueOf(id)
-                    );
-
-                    SongItem song = new SongItem();
-                    song.setTitle(title != null ? title : "Unknown Title");
-                    song.setArtist(artist != null ? artist : "Unknown Artist");
-                    song.setAlbum(album != null ? album : "Unknown Album");
-                    song.setDuration(duration);
-                    song.setUri(uri);
-                    song.setPath(path);
-
-                    songList.add(song);
-                    playlist.add(uri);
-                } while (cursor.moveToNext());
+    @Override
+    public void onFavoritesChanged() {
+        if (view == VIEW_FAVORITES) loadHistory();
+    }
+
+    private void onGroupClick(LibraryGroups.Group group) {
+        openGroup = group;
+        tvSectionTitle.setText(group.getName());
+        recyclerView.setAdapter(songAdapter);
+        showShownSongs();
+    }
+
+    private List<LibraryGroups.Group> groupRows() {
+        if (groups == null) return Collections.emptyList();
+        if (view == VIEW_ALBUMS) return groups.getAlbums();
+        if (view == VIEW_ARTISTS) return groups.getArtists();
+        return groups.getFolders();
+    }
+
+    /** The songs the list is showing before any search filter. */
+    private SongList shownSongs() {
+        if (openGroup != null && groups != null) {
+            return groups.songsOf(openGroup);
+        }
+        return songList;
+    }
+
+    private void showShownSongs() {
+        runQuery();
+    }
+
+    @Override
+    public void onIndexesChanged() {
+        if (songsShown()) runQuery();
+    }
+
+    private boolean songsShown() {
+        return view == VIEW_SONGS || openGroup != null;
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.main_menu, menu);
+        MenuItem sortItem = menu.findItem(
+            sortItemId(MusicLibrary.get(this).getSortMode())
+        );
+        if (sortItem != null) sortItem.setChecked(true);
+        MenuItem searchItem = menu.findItem(R.id.action_search);
+        SearchView searchView = (SearchView) searchItem.getActionView();
+        searchView.setQueryHint("Songs, artists, albums");
+        searchView.setOnQueryTextListener(
+            new SearchView.OnQueryTextListener() {
+                @Override
+                public boolean onQueryTextSubmit(String text) {
+                    searchView.clearFocus();
+                    return true;
+                }
+
+                @Override
+                public boolean onQueryTextChange(String text) {
+                    setQuery(text);
+                    return true;
+                }
+            }
+        );
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(@NonNull MenuItem item) {
+        int id = item.getItemId();
+        if (id == R.id.action_refresh) {
+            if (checkPermissions()) MusicLibrary.get(this).rescan();
+            return true;
+        } else if (id == R.id.action_select_folder) {
+            fabSelectFolder.performClick();
+            return true;
+        }
+        for (SortMode mode : SortMode.values()) {
+            if (id != sortItemId(mode)) continue;
+            item.setChecked(true);
+            MusicLibrary library = MusicLibrary.get(this);
+            if (library.getSortMode() != mode) {
+                library.setSortMode(mode);
+                if (songsShown()) showShownSongs();
             }
-        } catch (Exception e) {
-            e.printStackTrace();
-            showError("Error loading music files: " + e.getMessage());
+            return true;
         }
+        return super.onOptionsItemSelected(item);
+    }
 
-        songAdapter.notifyDataSetChanged();
-        updateUIState();
+    private static int sortItemId(SortMode mode) {
+        switch (mode) {
+            case ARTIST:
+                return R.id.sort_artist;
+            case ALBUM:
+                return R.id.sort_album;
+            case DURATION:
+                return R.id.sort_duration;
+            case DATE_ADDED:
+                return R.id.sort_date_added;
+            case TITLE:
+            default:
+                return R.id.sort_title;
+        }
+    }
+
+    private void setQuery(String text) {
+        String trimmed = text.trim();
+        if (trimmed.equals(query)) return;
+        query = trimmed;
+        if (!songsShown()) {
+            // Searching from a group list searches the whole library
+            showSongs();
+            return;
+        }
+        showShownSongs();
+    }
+
+    private void runQuery() {
+        // Each keystroke or sort change supersedes the previous query
+        MusicLibrary library = MusicLibrary.get(this);
+        library.query(shownSongs(), query, library.getSortMode(), results ->
+            songAdapter.submitSongs(results)
+        );
+    }
+
+    @Override
+    public void onLibraryError(String message) {
+        showError(message);
     }
 
     private void loadSongsFromDirectory(Uri treeUri) {
-        Toast.makeText(
-            this,
-            "Custom folder selection is not yet fully implemented. Loading default music library instead.",
-            Toast.LENGTH_LONG
-        ).show();
-        loadDefaultSongs();
+        MusicLibrary library = MusicLibrary.get(this);
+        Uri previous = library.getFolder();
+        if (previous != null && !previous.equals(treeUri)) {
+            try {
+                getContentResolver().releasePersistableUriPermission(
+                    previous,
+                    Intent.FLAG_GRANT_READ_URI_PERMISSION
+                );
+            } catch (SecurityException ignored) {}
+        }
+
+        Toast.makeText(this, "Scanning folder...", Toast.LENGTH_SHORT).show();
+        library.setFolder(treeUri);
     }
 
     private void updateUIState() {
@@ -354,11 +628,14 @@ public class MainActivity
         } else {
             emptyStateLayout.setVisibility(View.GONE);
             recyclerView.setVisibility(View.VISIBLE);
-            Toast.makeText(
+            // Folder scans publish in increments; keep one toast up to date
+            if (loadedToast != null) loadedToast.cancel();
+            loadedToast = Toast.makeText(
                 this,
                 "Loaded " + songList.size() + " songs",
                 Toast.LENGTH_SHORT
-            ).show();
+            );
+            loadedToast.show();
         }
     }
 
@@ -368,11 +645,14 @@ public class MainActivity
 
     @Override
     public void onSongClick(int position) {
-        if (position >= 0 && position < playlist.size()) {
+        // The adapter may still show the previous list while a diff runs
+        SongList shown = songAdapter.getSongs();
+        if (position >= 0 && position < shown.size()) {
             currentPlayingIndex = position;
 
+            PlayQueue queue = QueueStore.get().publish(shown);
             Intent intent = new Intent(this, PlayerActivity.class);
-            intent.putParcelableArrayListExtra("playlist", playlist);
+            intent.putExtra("queue_id", queue.getId());
             intent.putExtra("index", position);
             startActivity(intent);
         }
@@ -401,14 +681,33 @@ public class MainActivity
 
     @Override
     public void onBackPressed() {
-        super.onBackPressed();
+        if (drawerLayout.isDrawerOpen(GravityCompat.START)) {
+            drawerLayout.closeDrawer(GravityCompat.START);
+        } else if (openGroup != null) {
+            showGroups(view);
+        } else if (view != VIEW_SONGS) {
+            showSongs();
+        } else {
+            super.onBackPressed();
+        }
     }
 
     @Override
     protected void onResume() {
         super.onResume();
-        if (checkPermissions() && songList.isEmpty()) {
-            loadDefaultSongs();
+        // Plays since the list was shown are at the top now
+        if (isHistoryView()) loadHistory();
+        if (checkPermissions()) {
+            // Incremental, so this is cheap when nothing changed
+            MusicLibrary.get(this).rescan();
         }
     }
+
+    @Override
+    protected void onDestroy() {
+        MusicLibrary.get(this).removeListener(this);
+        MusicLibrary.get(this).getPager().setListener(null);
+        HistoryStore.get(this).removeListener(this);
+        super.onDestroy();
+    }
 }
@@ -0,0 +1,217 @@
+package com.example.musicplayer;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.os.Trace;
+import com.example.musicplayer.core.Histogram;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Process-wide performance numbers, kept so builds can be compared on real
+ * libraries.
+ *
+ * Latencies go into lock-free {@link Histogram}s in microseconds. Code timed
+ * with {@link #begin} and {@link #end} also runs inside a {@link Trace}
+ * section of the same name, so it shows up in system traces. The hidden
+ * {@link DebugActivity} shows the numbers and exports {@link #toJson}.
+ */
+final class Metrics {
+
+    private static final Map<String, Histogram> HISTOGRAMS =
+        new LinkedHashMap<>();
+    private static final Map<String, LongAdder> COUNTERS =
+        new LinkedHashMap<>();
+
+    static final Histogram SCAN_US = histogram("scan_us");
+    static final Histogram SCAN_ROWS_PER_SECOND = histogram(
+        "scan_rows_per_second"
+    );
+    static final Histogram BIND_US = histogram("bind_us");
+    // Reading a cached picture back from disk
+    static final Histogram ART_DECODE_US = histogram("art_decode_us");
+    // Pulling a picture out of the audio file and caching it on disk
+    static final Histogram ART_EXTRACT_US = histogram("art_extract_us");
+    static final Histogram PREPARE_US = histogram("prepare_us");
+    static final Histogram SKIP_TO_AUDIO_US = histogram("skip_to_audio_us");
+    static final Histogram FRAME_US = histogram("frame_us");
+
+    static final LongAdder ART_MEMORY_HITS = counter("art_memory_hits");
+    static final LongAdder ART_DISK_HITS = counter("art_disk_hits");
+    static final LongAdder ART_MISSES = counter("art_misses");
+    static final LongAdder FRAMES_DROPPED = counter("frames_dropped");
+
+    private static volatile Handler frameHandler;
+
+    private Metrics() {}
+
+    /** Opens a trace section; hand the result to {@link #end}. */
+    static long begin(String section) {
+        Trace.beginSection(section);
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    /** Records the time since {@code start} and closes the section. */
+    static void end(Histogram histogram, long start) {
+        histogram.record(micros(start));
+        Trace.endSection();
+    }
+
+    /** Microseconds since {@code start}, an elapsedRealtimeNanos value. */
+    static long micros(long start) {
+        return (SystemClock.elapsedRealtimeNanos() - start) / 1000;
+    }
+
+    /**
+     * Records a scan that started at {@code start} and wrote {@code rows};
+     * the caller closes its section.
+     */
+    static void recordScan(long start, int rows) {
+        long micros = Math.max(1, micros(start));
+        SCAN_US.record(micros);
+        if (rows > 0) SCAN_ROWS_PER_SECOND.record(rows * 1_000_000L / micros);
+    }
+
+    /** Opens a trace section that ends on another thread, where supported. */
+    static void beginAsync(String section, int cookie) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.beginAsyncSection(section, cookie);
+        }
+    }
+
+    static void endAsync(String section, int cookie) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.endAsyncSection(section, cookie);
+        }
+    }
+
+    /**
+     * Records one rendered frame; every full {@code intervalNanos} it ran
+     * over is a dropped frame.
+     */
+    static void recordFrame(long durationNanos, long intervalNanos) {
+        FRAME_US.record(durationNanos / 1000);
+        if (durationNanos > intervalNanos) {
+            FRAMES_DROPPED.add((durationNanos - 1) / intervalNanos);
+        }
+    }
+
+    /** A background handler for frame metrics callbacks. */
+    static Handler frameHandler() {
+        if (frameHandler == null) {
+            synchronized (Metrics.class) {
+                if (frameHandler == null) {
+                    HandlerThread thread = new HandlerThread("frame-metrics");
+                    thread.start();
+                    frameHandler = new Handler(thread.getLooper());
+                }
+            }
+        }
+        return frameHandler;
+    }
+
+    /** Memory and disk hits over all art lookups, or 0 before any. */
+    static double artHitRate() {
+        long hits = ART_MEMORY_HITS.sum() + ART_DISK_HITS.sum();
+        long total = hits + ART_MISSES.sum();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    static void reset() {
+        for (Histogram histogram : HISTOGRAMS.values()) histogram.reset();
+        for (LongAdder counter : COUNTERS.values()) counter.reset();
+    }
+
+    /** One line per metric, for the debug screen. */
+    static String describe() {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, Histogram> e : HISTOGRAMS.entrySet()) {
+            Histogram.Snapshot s = e.getValue().snapshot();
+            text.append(
+                String.format(
+                    Locale.ROOT,
+                    "%s%n  n=%d p50=%d p90=%d p99=%d max=%d%n",
+                    e.getKey(),
+                    s.getCount(),
+                    s.getPercentile(50),
+                    s.getPercentile(90),
+                    s.getPercentile(99),
+                    s.getMax()
+                )
+            );
+        }
+        for (Map.Entry<String, LongAdder> e : COUNTERS.entrySet()) {
+            text.append(e.getKey()).append(" = ").append(e.getValue().sum());
+            text.append('\n');
+        }
+        text.append(
+            String.format(Locale.ROOT, "art_hit_rate = %.3f", artHitRate())
+        );
+        return text.toString();
+    }
+
+    /**
+     * All metrics with the build and device they were taken on. Main thread
+     * only, for the library size.
+     */
+    static JSONObject toJson(Context context) throws JSONException {
+        JSONObject json = new JSONObject();
+        try {
+            PackageInfo info = context
+                .getPackageManager()
+                .getPackageInfo(context.getPackageName(), 0);
+            json.put("version_name", info.versionName);
+            json.put("version_code", info.getLongVersionCode());
+        } catch (PackageManager.NameNotFoundException ignored) {}
+        json.put("device", Build.MANUFACTURER + " " + Build.MODEL);
+        json.put("sdk", Build.VERSION.SDK_INT);
+        json.put("time", System.currentTimeMillis());
+        SongList songs = MusicLibrary.get(context).getSongs();
+        json.put("songs", songs != null ? songs.size() : 0);
+
+        JSONObject histograms = new JSONObject();
+        for (Map.Entry<String, Histogram> e : HISTOGRAMS.entrySet()) {
+            Histogram.Snapshot s = e.getValue().snapshot();
+            histograms.put(
+                e.getKey(),
+                new JSONObject()
+                    .put("count", s.getCount())
+                    .put("mean", s.getMean())
+                    .put("p50", s.getPercentile(50))
+                    .put("p90", s.getPercentile(90))
+                    .put("p99", s.getPercentile(99))
+                    .put("max", s.getMax())
+            );
+        }
+        json.put("histograms", histograms);
+
+        JSONObject counters = new JSONObject();
+        for (Map.Entry<String, LongAdder> e : COUNTERS.entrySet()) {
+            counters.put(e.getKey(), e.getValue().sum());
+        }
+        json.put("counters", counters);
+        json.put("art_hit_rate", artHitRate());
+        return json;
+    }
+
+    private static Histogram histogram(String name) {
+        Histogram histogram = new Histogram();
+        HISTOGRAMS.put(name, histogram);
+        return histogram;
+    }
+
+    private static LongAdder counter(String name) {
+        LongAdder counter = new LongAdder();
+        COUNTERS.put(name, counter);
+        return counter;
+    }
+}
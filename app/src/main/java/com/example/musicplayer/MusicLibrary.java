@@ -0,0 +1,448 @@
+package com.example.musicplayer;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.os.Looper;
+import android.os.Trace;
+import android.util.Log;
+import androidx.annotation.Nullable;
+import com.example.musicplayer.core.SearchIndex;
+import com.example.musicplayer.core.SortKeys;
+import com.example.musicplayer.core.SortMode;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Process-wide owner of the song library.
+ *
+ * {@link #load()} publishes the library cached in {@link LibraryDatabase}
+ * first, then runs an incremental {@link LibraryScanner} pass and publishes
+ * again only if it changed something. A published {@link SongList} only
+ * holds ids; rows are paged in by {@link SongPager}.
+ *
+ * When the user has picked a folder, the library is that folder tree
+ * instead, walked by {@link FolderScanner} and published in increments as
+ * files are read, with progress reported along the way. Switching the
+ * library cancels a folder scan; the next one resumes where it stopped.
+ * Scans run on a single background thread; listeners are called on the main
+ * thread.
+ */
+public final class MusicLibrary {
+
+    private static final String TAG = "MusicLibrary";
+    private static final String PREFS = "library";
+    private static final String KEY_FOLDER = "folder_tree";
+    private static final String KEY_SORT = "sort_mode";
+    private static final long PUBLISH_INTERVAL_MS = 500;
+
+    public interface Listener {
+        void onLibraryChanged(SongList songs);
+
+        /** Search index and sort keys caught up with the library. */
+        void onIndexesChanged();
+
+        /** Albums, artists and folders were regrouped for {@code songs}. */
+        void onGroupsChanged(LibraryGroups groups);
+
+        /**
+         * A folder scan has {@code done} of the {@code found} files so far,
+         * reading {@code filesPerSecond}; {@code finished} once it stopped.
+         */
+        void onScanProgress(
+            int done,
+            int found,
+            float filesPerSecond,
+            boolean finished
+        );
+
+        void onLibraryError(String message);
+    }
+
+    public interface QueryCallback {
+        void onQueryResult(SongList results);
+    }
+
+    private static volatile MusicLibrary instance;
+
+    private final LibraryDatabase database;
+    private final LibraryScanner scanner;
+    private final FolderScanner folderScanner;
+    private final SongPager pager;
+    private final SharedPreferences prefs;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(
+        r -> new Thread(r, "music-library")
+    );
+    private final ExecutorService queryExecutor =
+        Executors.newSingleThreadExecutor(r -> new Thread(r, "song-query"));
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    // Only touched on the main thread
+    @Nullable
+    private SongList songs;
+
+    @Nullable
+    private LibraryGroups groups;
+
+    // Written on the main thread, read by scans when they start
+    @Nullable
+    private volatile Uri folder;
+
+    private boolean scanQueued;
+
+    // The last scan handed to the executor, cancelled by a library switch
+    @Nullable
+    private Future<?> scanTask;
+
+    // Built and updated by scans, read by searches
+    @Nullable
+    private volatile SearchIndex searchIndex;
+
+    @Nullable
+    private volatile SortKeys sortKeys;
+
+    @Nullable
+    private volatile String indexedSource;
+
+    // Bumped on the main thread by every query; older ones are dropped
+    private volatile int queryGeneration;
+
+    private SortMode sortMode;
+
+    public static MusicLibrary get(Context context) {
+        if (instance == null) {
+            synchronized (MusicLibrary.class) {
+                if (instance == null) {
+                    instance = new MusicLibrary(context);
+                }
+            }
+        }
+        return instance;
+    }
+
+    private MusicLibrary(Context context) {
+        database = new LibraryDatabase(context);
+        scanner = new LibraryScanner(context, database);
+        folderScanner = new FolderScanner(context, database);
+        pager = new SongPager(database);
+        prefs = context
+            .getApplicationContext()
+            .getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        String tree = prefs.getString(KEY_FOLDER, null);
+        folder = tree != null ? Uri.parse(tree) : null;
+        try {
+            sortMode = SortMode.valueOf(
+                prefs.getString(KEY_SORT, SortMode.TITLE.name())
+            );
+        } catch (IllegalArgumentException e) {
+            sortMode = SortMode.TITLE;
+        }
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /** The last published library, or null before the first load. */
+    @Nullable
+    public SongList getSongs() {
+        return songs;
+    }
+
+    /** Groups of the last published library, or null while computing. */
+    @Nullable
+    public LibraryGroups getGroups() {
+        return groups;
+    }
+
+    public SongPager getPager() {
+        return pager;
+    }
+
+    public SortMode getSortMode() {
+        return sortMode;
+    }
+
+    /** Remembers the order lists are shown in; apply it through query(). */
+    public void setSortMode(SortMode mode) {
+        sortMode = mode;
+        prefs.edit().putString(KEY_SORT, mode.name()).apply();
+    }
+
+    /** The picked folder tree, or null when the library is MediaStore. */
+    @Nullable
+    public Uri getFolder() {
+        return folder;
+    }
+
+    /**
+     * Switches the library to a folder tree with persisted read access, or
+     * back to MediaStore for null.
+     */
+    public void setFolder(@Nullable Uri treeUri) {
+        if (Objects.equals(folder, treeUri)) return;
+        folder = treeUri;
+        prefs
+            .edit()
+            .putString(KEY_FOLDER, treeUri != null ? treeUri.toString() : null)
+            .apply();
+        songs = null;
+        groups = null;
+        if (scanTask != null) scanTask.cancel(true);
+        // A cancelled scan that never started cannot clear the flag itself
+        scanQueued = false;
+        load();
+    }
+
+    /** Publishes the cached library, then rescans in the background. */
+    public void load() {
+        if (songs == null) {
+            String source = source();
+            executor.execute(() -> {
+                // Rows of folders picked before only take up space
+                database.deleteFoldersExcept(source);
+                SongList snapshot = pager.query(source);
+                publish(snapshot, source);
+                rebuildIndex(source);
+                regroup(snapshot, source);
+            });
+        } else {
+            dispatch(songs);
+        }
+        rescan();
+    }
+
+    /** Runs an incremental scan; a scan already waiting absorbs this one. */
+    public void rescan() {
+        if (scanQueued) return;
+        scanQueued = true;
+        scanTask = executor.submit(() -> {
+            mainHandler.post(() -> scanQueued = false);
+            Uri tree = folder;
+            String source = source();
+            long start = Metrics.begin("MusicLibrary.scan");
+            try {
+                int rows;
+                if (tree != null) {
+                    rows = scanFolder(tree, source);
+                } else {
+                    LibraryScanner.Result result = scanner.scan();
+                    rows = result.upserts.size();
+                    if (!result.isEmpty()) {
+                        pager.update(result.upserts, result.deletedIds);
+                        updateIndex(result, source);
+                        SongList snapshot = pager.query(source);
+                        publish(snapshot, source);
+                        regroup(snapshot, source);
+                    }
+                }
+                Metrics.recordScan(start, rows);
+            } catch (InterruptedException e) {
+                // Cancelled by a library switch; written files are kept
+            } catch (Exception e) {
+                Log.e(TAG, "Library scan failed", e);
+                mainHandler.post(() -> {
+                    for (Listener l : listeners) {
+                        l.onLibraryError(
+                            "Error loading music files: " + e.getMessage()
+                        );
+                    }
+                });
+            } finally {
+                Trace.endSection();
+            }
+        });
+    }
+
+    /** Walks the folder tree, publishing as it goes; returns files read. */
+    private int scanFolder(Uri tree, String source)
+        throws InterruptedException {
+        // Kept searchable while files come in; rebuilt when the walk is done
+        SearchIndex index = Objects.equals(source, indexedSource)
+            ? searchIndex
+            : null;
+        long[] lastPublish = { SystemClock.uptimeMillis() };
+        int[] rows = { 0 };
+        try {
+            folderScanner.scan(tree, (written, done, found, filesPerSecond) -> {
+                rows[0] += written.size();
+                pager.update(written, Collections.emptyList());
+                if (index != null) {
+                    for (SongItem song : written) {
+                        index.put(
+                            song.getId(),
+                            song.getTitle(),
+                            song.getArtist(),
+                            song.getAlbum()
+                        );
+                    }
+                }
+                long now = SystemClock.uptimeMillis();
+                if (now - lastPublish[0] >= PUBLISH_INTERVAL_MS) {
+                    lastPublish[0] = now;
+                    if (index != null) {
+                        index.commit();
+                        indexesChanged(source);
+                    }
+                    publish(pager.query(source), source);
+                    scanProgress(source, done, found, filesPerSecond, false);
+                }
+            });
+        } finally {
+            scanProgress(source, 0, 0, 0, true);
+        }
+        pager.invalidate();
+        SongList snapshot = pager.query(source);
+        publish(snapshot, source);
+        rebuildIndex(source);
+        regroup(snapshot, source);
+        return rows[0];
+    }
+
+    /**
+     * Filters {@code songs} to those matching {@code query}, if not empty,
+     * and puts them in {@code mode} order. Runs in the background; only the
+     * latest query is answered.
+     */
+    public void query(
+        SongList songs,
+        String query,
+        SortMode mode,
+        QueryCallback callback
+    ) {
+        int generation = ++queryGeneration;
+        String source = source();
+        queryExecutor.execute(() -> {
+            if (generation != queryGeneration) return;
+            boolean current = Objects.equals(source, indexedSource);
+            SongList results = songs;
+            if (!query.isEmpty()) {
+                SearchIndex index = searchIndex;
+                results = index != null && current
+                    ? results.subset(index.search(query, results.ids))
+                    : SongList.empty(pager);
+            }
+            SortKeys keys = sortKeys;
+            if (keys != null && current) {
+                results = results.subset(keys.order(results.ids, mode));
+            }
+            SongList answer = results;
+            mainHandler.post(() -> {
+                if (generation == queryGeneration) {
+                    callback.onQueryResult(answer);
+                }
+            });
+        });
+    }
+
+    /**
+     * Picks the songs with the {@code wanted} ids out of {@code songs}, in
+     * that order, in the background. Supersedes and is superseded by
+     * {@link #query} like any other query.
+     */
+    public void select(SongList songs, long[] wanted, QueryCallback callback) {
+        int generation = ++queryGeneration;
+        queryExecutor.execute(() -> {
+            if (generation != queryGeneration) return;
+            SongList answer = songs.select(wanted);
+            mainHandler.post(() -> {
+                if (generation == queryGeneration) {
+                    callback.onQueryResult(answer);
+                }
+            });
+        });
+    }
+
+    private void rebuildIndex(@Nullable String source) {
+        searchIndex = database.loadSearchIndex(source);
+        sortKeys = database.loadSortKeys(source);
+        indexedSource = source;
+        indexesChanged(source);
+    }
+
+    private void indexesChanged(@Nullable String source) {
+        mainHandler.post(() -> {
+            if (!Objects.equals(source, source())) return;
+            for (Listener l : listeners) l.onIndexesChanged();
+        });
+    }
+
+    private void regroup(SongList snapshot, @Nullable String source) {
+        LibraryGroups grouped = database.loadGroups(source, snapshot);
+        mainHandler.post(() -> {
+            if (!Objects.equals(source, source())) return;
+            groups = grouped;
+            for (Listener l : listeners) l.onGroupsChanged(grouped);
+        });
+    }
+
+    private void updateIndex(
+        LibraryScanner.Result result,
+        @Nullable String source
+    ) {
+        SearchIndex index = searchIndex;
+        if (index == null || !Objects.equals(source, indexedSource)) {
+            rebuildIndex(source);
+            return;
+        }
+        for (Long id : result.deletedIds) index.remove(id);
+        for (SongItem song : result.upserts) {
+            index.put(
+                song.getId(),
+                song.getTitle(),
+                song.getArtist(),
+                song.getAlbum()
+            );
+        }
+        index.commit();
+        // Ranks are global, so any change means new keys
+        sortKeys = database.loadSortKeys(source);
+        indexesChanged(source);
+    }
+
+    @Nullable
+    private String source() {
+        return folder != null ? folder.toString() : null;
+    }
+
+    private void scanProgress(
+        @Nullable String source,
+        int done,
+        int found,
+        float filesPerSecond,
+        boolean finished
+    ) {
+        mainHandler.post(() -> {
+            // Ending a scan of a library the user left still ends its progress
+            if (!finished && !Objects.equals(source, source())) return;
+            for (Listener l : listeners) {
+                l.onScanProgress(done, found, filesPerSecond, finished);
+            }
+        });
+    }
+
+    private void publish(SongList snapshot, @Nullable String source) {
+        mainHandler.post(() -> {
+            // A scan of a library the user already switched away from
+            if (!Objects.equals(source, source())) return;
+            songs = snapshot;
+            dispatch(snapshot);
+        });
+    }
+
+    private void dispatch(SongList snapshot) {
+        for (Listener l : listeners) l.onLibraryChanged(snapshot);
+    }
+}
@@ -6,17 +6,33 @@ import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Intent;
-import android.graphics.BitmapFactory;
-import android.media.MediaMetadataRetriever;
+import android.graphics.Bitmap;
 import android.media.MediaPlayer;
 import android.net.Uri;
+import android.os.Binder;
 import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.v4.media.MediaMetadataCompat;
+import android.support.v4.media.session.MediaSessionCompat;
+import android.support.v4.media.session.PlaybackStateCompat;
 
 import androidx.annotation.Nullable;
 import androidx.core.app.NotificationCompat;
 
-import java.util.ArrayList;
+import com.example.musicplayer.core.QueueEngine;
+import com.example.musicplayer.core.RepeatMode;
+import com.example.musicplayer.core.SongTable;
+
+import java.io.File;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class MusicService extends Service {
 
@@ -29,130 +45,764 @@ public class MusicService extends Service {
     public static final String ACTION_SEEK = "com.example.musicplayer.action.SEEK";
     public static final String ACTION_STOP = "com.example.musicplayer.action.STOP";
 
+    private static final Object PREPARE_TOKEN = new Object();
+    private static final Object NEXT_TOKEN = new Object();
+    // Position saves while playing are at least this far apart
+    private static final long SAVE_INTERVAL_MS = 10_000;
+
     private static final int NOTIF_ID = 1001;
     private static final String CHANNEL_ID = "music_playback";
 
-    private ArrayList<Uri> playlist = new ArrayList<>();
+    private static final long SESSION_ACTIONS = PlaybackStateCompat.ACTION_PLAY
+            | PlaybackStateCompat.ACTION_PAUSE
+            | PlaybackStateCompat.ACTION_PLAY_PAUSE
+            | PlaybackStateCompat.ACTION_SKIP_TO_NEXT
+            | PlaybackStateCompat.ACTION_SKIP_TO_PREVIOUS
+            | PlaybackStateCompat.ACTION_SEEK_TO
+            | PlaybackStateCompat.ACTION_STOP
+            | PlaybackStateCompat.ACTION_SET_SHUFFLE_MODE
+            | PlaybackStateCompat.ACTION_SET_REPEAT_MODE;
+
+    /** Playback changes, delivered on the main thread. */
+    public interface Listener {
+        void onPlaybackStateChanged(PlaybackStateCompat state);
+
+        void onTrackChanged(int index);
+    }
+
+    /**
+     * Edits of the play order, delivered on the main thread. Positions are
+     * places in the play order, as for {@link #getQueueSongId(int)}.
+     */
+    public interface QueueListener {
+        /** Everything changed: a new queue, or shuffle was toggled. */
+        void onQueueReset();
+
+        void onQueueItemMoved(int from, int to);
+
+        void onQueueItemsRemoved(int start, int count);
+    }
+
+    /** Hands bound clients the service itself; all calls stay in-process. */
+    public class LocalBinder extends Binder {
+        public MusicService getService() { return MusicService.this; }
+    }
+
+    private final IBinder binder = new LocalBinder();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final List<QueueListener> queueListeners = new CopyOnWriteArrayList<>();
+
+    @Nullable private PlayQueue queue;
+    // Play order over the queue; index is always its current position
+    @Nullable private QueueEngine engine;
     private int index = 0;
+    private boolean shuffle;
+    private RepeatMode repeatMode = RepeatMode.OFF;
+    private final Random seeds = new Random();
     private MediaPlayer player;
+    // Following track, prepared ahead and chained for gapless transitions
+    @Nullable private MediaPlayer nextPlayer;
+    private int nextIndex = -1;
+    private boolean gapless = true;
+
+    // Players are opened and prepared here; see openPlayer
+    private HandlerThread prepareThread;
+    private Handler prepareHandler;
+    // Players still preparing, prepare thread only; see releasePreparing
+    @Nullable private MediaPlayer preparingPlayer, preparingNext;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Bumped per request; read by the prepare thread to drop stale work
+    private volatile int requestGen;
+    private volatile int nextGen;
+    private boolean preparing;
+    private boolean buffering;
+    private boolean playWhenReady = true;
+    private long requestedAt;
+    private long timeToFirstAudioMs = -1;
+    private MediaSessionCompat session;
+    private PlaybackStateCompat state = new PlaybackStateCompat.Builder()
+            .setState(PlaybackStateCompat.STATE_NONE, 0, 0f)
+            .build();
+    // Library row of the current track, null until the cache hands it over
+    @Nullable private SongTable.Row track;
+    // Notification pieces that never change, built once in onCreate
+    private PendingIntent openIntent;
+    private NotificationCompat.Action prevAction, playAction, pauseAction, nextAction;
+    private androidx.media.app.NotificationCompat.MediaStyle mediaStyle;
+    @Nullable private Uri largeIconUri;
+    @Nullable private Bitmap largeIcon;
+
+    private HistoryStore history;
+
+    // Saved state, written on its own thread; see scheduleSave
+    private PlaybackStore store;
+    private final ExecutorService stateExecutor = Executors.newSingleThreadExecutor(r -> new Thread(r, "playback-state"));
+    private final Runnable saveTask = this::saveNow;
+    private long queueStamp;
+    private boolean queueDirty;
+    private boolean savePending;
+    private long lastSavedAt;
+    // Where the track being prepared should start, for resuming
+    private int pendingSeekMs;
+    private boolean restoring;
+    private boolean resumeOnRestore;
+    private boolean playAfterRestore;
 
     @Override
     public void onCreate() {
         super.onCreate();
         ensureChannel();
+        prepareThread = new HandlerThread("player-prepare");
+        prepareThread.start();
+        prepareHandler = new Handler(prepareThread.getLooper());
+
+        session = new MediaSessionCompat(this, "MusicService");
+        session.setCallback(new MediaSessionCompat.Callback() {
+            @Override public void onPlay() { play(); }
+            @Override public void onPause() { pause(); }
+            @Override public void onSkipToNext() { skipToNext(); }
+            @Override public void onSkipToPrevious() { skipToPrevious(); }
+            @Override public void onSeekTo(long pos) { seekTo((int) pos); }
+            @Override public void onStop() { stop(); }
+            @Override public void onSetShuffleMode(int mode) { setShuffle(mode != PlaybackStateCompat.SHUFFLE_MODE_NONE); }
+            @Override public void onSetRepeatMode(int mode) {
+                setRepeatMode(mode == PlaybackStateCompat.REPEAT_MODE_ONE ? RepeatMode.ONE
+                        : mode == PlaybackStateCompat.REPEAT_MODE_NONE ? RepeatMode.OFF : RepeatMode.ALL);
+            }
+        });
+        session.setPlaybackState(state);
+
+        openIntent = PendingIntent.getActivity(this, 0, new Intent(this, PlayerActivity.class), PendingIntent.FLAG_IMMUTABLE);
+        prevAction = new NotificationCompat.Action(android.R.drawable.ic_media_previous, "Prev", serviceIntent(1, ACTION_PREV));
+        playAction = new NotificationCompat.Action(android.R.drawable.ic_media_play, "Play", serviceIntent(2, ACTION_TOGGLE));
+        pauseAction = new NotificationCompat.Action(android.R.drawable.ic_media_pause, "Pause", serviceIntent(2, ACTION_TOGGLE));
+        nextAction = new NotificationCompat.Action(android.R.drawable.ic_media_next, "Next", serviceIntent(3, ACTION_NEXT));
+        mediaStyle = new androidx.media.app.NotificationCompat.MediaStyle()
+                .setMediaSession(session.getSessionToken())
+                .setShowActionsInCompactView(0, 1, 2);
+
+        history = HistoryStore.get(this);
+
+        // Pick up the last queue unless someone starts a new one first
+        store = new PlaybackStore(new File(getFilesDir(), "playback"));
+        SongPager pager = MusicLibrary.get(this).getPager();
+        restoring = true;
+        stateExecutor.execute(() -> {
+            PlaybackStore.Snapshot snapshot = store.load(pager);
+            mainHandler.post(() -> restore(snapshot));
+        });
+    }
+
+    private PendingIntent serviceIntent(int requestCode, String action) {
+        return PendingIntent.getService(this, requestCode, new Intent(this, MusicService.class).setAction(action), PendingIntent.FLAG_IMMUTABLE);
     }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
-        if (intent != null) {
+        if (intent == null) {
+            // Restarted after the process died; carry on if it was playing
+            resumeOnRestore = true;
+        } else {
             String action = intent.getAction();
             if (ACTION_INIT.equals(action)) {
-                ArrayList<Uri> list = intent.getParcelableArrayListExtra("playlist");
-                int idx = intent.getIntExtra("index", 0);
-                if (list != null && !list.isEmpty()) {
-                    playlist = list;
-                    playIndex(idx);
-                }
+                PlayQueue q = QueueStore.get().find(intent.getLongExtra("queue_id", 0));
+                if (q != null) playQueue(q, intent.getIntExtra("index", 0));
             } else if (ACTION_PLAY.equals(action)) {
-                startPlay();
+                play();
             } else if (ACTION_PAUSE.equals(action)) {
-                pausePlay();
+                pause();
             } else if (ACTION_TOGGLE.equals(action)) {
-                if (player != null && player.isPlaying()) pausePlay(); else startPlay();
+                togglePlayPause();
             } else if (ACTION_NEXT.equals(action)) {
-                playIndex(index + 1);
+                skipToNext();
             } else if (ACTION_PREV.equals(action)) {
-                playIndex(index - 1);
+                skipToPrevious();
             } else if (ACTION_SEEK.equals(action)) {
                 int position = intent.getIntExtra("position", 0);
                 seekTo(position);
             } else if (ACTION_STOP.equals(action)) {
-                stopForeground(true);
-                stopSelf();
+                stop();
             }
         }
         return START_STICKY;
     }
 
-    private void playIndex(int idx) {
-        if (playlist == null || playlist.isEmpty()) return;
-        if (idx < 0) idx = playlist.size() - 1;
-        if (idx >= playlist.size()) idx = 0;
-        index = idx;
+    // --- Direct control for bound clients; main thread only ---
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public void addQueueListener(QueueListener listener) {
+        queueListeners.add(listener);
+    }
+
+    public void removeQueueListener(QueueListener listener) {
+        queueListeners.remove(listener);
+    }
+
+    /** Replaces the queue and starts playing {@code idx}. */
+    public void playQueue(PlayQueue q, int idx) {
+        if (q == null || q.isEmpty()) return;
+        invalidateNext();
+        queue = q;
+        QueueStore.get().setCurrent(q);
+        engine = new QueueEngine(q.size(), idx);
+        engine.setRepeat(repeatMode);
+        engine.setShuffle(shuffle, seeds.nextLong());
+        for (QueueListener l : queueListeners) l.onQueueReset();
+        scheduleSave(true);
+        playIndex(engine.current());
+    }
+
+    public void play() { startPlay(); }
+
+    public void pause() { pausePlay(); }
+
+    public void togglePlayPause() {
+        if (isPlaying() || (preparing && playWhenReady)) pausePlay(); else startPlay();
+    }
+
+    public void skipToNext() {
+        if (engine != null && !engine.isEmpty()) playIndex(engine.next(false));
+    }
+
+    public void skipToPrevious() {
+        if (engine != null && !engine.isEmpty()) playIndex(engine.previous());
+    }
+
+    public boolean getShuffle() { return shuffle; }
+
+    /** Puts the current track first and shuffles all others, or restores queue order. */
+    public void setShuffle(boolean enabled) {
+        if (shuffle == enabled) return;
+        shuffle = enabled;
+        if (engine != null) engine.setShuffle(enabled, seeds.nextLong());
+        for (QueueListener l : queueListeners) l.onQueueReset();
+        publishModes();
+        invalidateNext();
+        prepareNext();
+        scheduleSave(true);
+    }
+
+    public RepeatMode getRepeatMode() { return repeatMode; }
+
+    public void setRepeatMode(RepeatMode mode) {
+        if (repeatMode == mode) return;
+        repeatMode = mode;
+        if (engine != null) engine.setRepeat(mode);
+        publishModes();
+        invalidateNext();
+        prepareNext();
+        scheduleSave(false);
+    }
+
+    private void publishModes() {
+        session.setShuffleMode(shuffle ? PlaybackStateCompat.SHUFFLE_MODE_ALL : PlaybackStateCompat.SHUFFLE_MODE_NONE);
+        session.setRepeatMode(repeatMode == RepeatMode.ONE ? PlaybackStateCompat.REPEAT_MODE_ONE
+                : repeatMode == RepeatMode.ALL ? PlaybackStateCompat.REPEAT_MODE_ALL : PlaybackStateCompat.REPEAT_MODE_NONE);
+    }
+
+    public void seekTo(int position) {
+        if (player == null) return;
+        try { player.seekTo(position); } catch (Exception ignored) {}
+        publishState();
+        scheduleSave(false);
+    }
+
+    public boolean isPlaying() {
+        return player != null && player.isPlaying();
+    }
+
+    public int getPosition() {
+        if (player == null) return pendingSeekMs;
+        try { return player.getCurrentPosition(); } catch (Exception e) { return 0; }
+    }
+
+    public int getDuration() {
+        if (player == null) return 0;
+        try { return player.getDuration(); } catch (Exception e) { return 0; }
+    }
+
+    public int getIndex() { return index; }
+
+    /** Milliseconds from the last track request until it started, or -1. */
+    public long getTimeToFirstAudioMs() { return timeToFirstAudioMs; }
+
+    public boolean isGapless() { return gapless; }
+
+    public void setGapless(boolean enabled) {
+        if (gapless == enabled) return;
+        gapless = enabled;
+        invalidateNext();
+        prepareNext();
+    }
+
+    // --- Play order, as shown by the queue sheet ---
+
+    public int getQueueLength() { return engine == null ? 0 : engine.size(); }
+
+    /** Place of the current track in the play order, or -1. */
+    public int getQueueCursor() { return engine == null ? -1 : engine.getCursor(); }
+
+    /** Queue position of the {@code i}-th track in play order; stable across moves. */
+    public int getQueuePosition(int i) { return engine.positionAt(i); }
+
+    public long getQueueSongId(int i) { return queue.getSongId(engine.positionAt(i)); }
+
+    public void skipToQueueItem(int i) {
+        if (engine != null) playIndex(engine.moveTo(i));
+    }
+
+    public void moveQueueItem(int from, int to) {
+        if (engine == null || from == to) return;
+        engine.move(from, to);
+        for (QueueListener l : queueListeners) l.onQueueItemMoved(from, to);
+        followingChanged();
+        scheduleSave(true);
+    }
+
+    /** Moves the {@code i}-th track to play after the current one; returns where it went. */
+    public int playQueueItemNext(int i) {
+        if (engine == null) return i;
+        int to = engine.playNext(i);
+        if (to == i) return i;
+        for (QueueListener l : queueListeners) l.onQueueItemMoved(i, to);
+        followingChanged();
+        scheduleSave(true);
+        return to;
+    }
 
+    public void removeQueueItem(int i) {
+        if (engine == null) return;
+        boolean wasCurrent = engine.remove(i);
+        for (QueueListener l : queueListeners) l.onQueueItemsRemoved(i, 1);
+        scheduleSave(true);
+        if (engine.isEmpty()) {
+            stop();
+        } else if (wasCurrent) {
+            boolean resume = isPlaying() || (preparing && playWhenReady);
+            playIndex(engine.current(), resume, 0);
+        } else {
+            followingChanged();
+        }
+    }
+
+    /** Drops everything queued after the current track. */
+    public void clearUpcoming() {
+        if (engine == null) return;
+        int start = engine.getCursor() + 1;
+        int count = engine.clearUpcoming();
+        if (count == 0) return;
+        for (QueueListener l : queueListeners) l.onQueueItemsRemoved(start, count);
+        followingChanged();
+        scheduleSave(true);
+    }
+
+    /** Re-prepares the next track if an edit changed what follows. */
+    private void followingChanged() {
+        if (engine.peekNext(true) == nextIndex) return;
+        invalidateNext();
+        prepareNext();
+    }
+
+    /**
+     * Drops the pre-prepared next track. Call whenever what follows the
+     * current track changes: a new queue, a new order or a new repeat mode.
+     */
+    void invalidateNext() {
+        nextGen++;
+        nextIndex = -1;
+        prepareHandler.removeCallbacksAndMessages(NEXT_TOKEN);
+        if (nextPlayer == null) return;
+        if (player != null) {
+            try { player.setNextMediaPlayer(null); } catch (Exception ignored) {}
+        }
+        try { nextPlayer.release(); } catch (Exception ignored) {}
+        nextPlayer = null;
+    }
+
+    @Nullable
+    public PlayQueue getQueue() { return queue; }
+
+    public PlaybackStateCompat getPlaybackState() { return state; }
+
+    public MediaSessionCompat.Token getSessionToken() { return session.getSessionToken(); }
+
+    private void stop() {
+        saveNow();
+        invalidateNext();
+        requestGen++;
+        preparing = false;
+        prepareHandler.removeCallbacksAndMessages(PREPARE_TOKEN);
         if (player != null) {
             try { player.stop(); } catch (Exception ignored) {}
-            try { player.release(); } catch (Exception ignored) {}
-            player = null;
         }
+        publishState(PlaybackStateCompat.STATE_STOPPED);
+        session.setActive(false);
+        stopForeground(true);
+        stopSelf();
+    }
+
+    /**
+     * Switches to queue position {@code idx}, which the engine has already
+     * moved to, right away and prepares it in the background. Requests that
+     * arrive while an earlier one is still queued or preparing supersede it,
+     * so rapid skips only ever prepare the last index.
+     */
+    private void playIndex(int idx) { playIndex(idx, true, 0); }
+
+    private void playIndex(int idx, boolean play, int startAtMs) {
+        if (queue == null || queue.isEmpty()) return;
+        index = idx;
+        invalidateNext();
+        releasePlayer();
+
+        Uri u = queue.getUri(index);
+        int gen = ++requestGen;
+        requestedAt = SystemClock.elapsedRealtime();
+        preparing = true;
+        playWhenReady = play;
+        pendingSeekMs = startAtMs;
+        prepareHandler.removeCallbacksAndMessages(PREPARE_TOKEN);
+        prepareHandler.postAtTime(() -> openPlayer(u, gen, false), PREPARE_TOKEN, SystemClock.uptimeMillis());
+
+        for (Listener l : listeners) l.onTrackChanged(index);
+        publishState();
+        session.setActive(true);
+        loadTrack();
+        if (play) {
+            startForeground(NOTIF_ID, buildNotification());
+            history.recordPlay(queue.getSongId(index));
+        }
+        scheduleSave(false);
+    }
+
+    /** Resumes the saved queue paused at its position, or playing after a restart. */
+    private void restore(@Nullable PlaybackStore.Snapshot snapshot) {
+        restoring = false;
+        boolean play = playAfterRestore;
+        playAfterRestore = false;
+        if (snapshot == null || queue != null) return;
+        queue = QueueStore.get().publish(snapshot.songs);
+        QueueStore.get().setCurrent(queue);
+        queueStamp = snapshot.stamp;
+        shuffle = snapshot.shuffle;
+        repeatMode = snapshot.repeat;
+        engine = QueueEngine.restore(snapshot.order, snapshot.linear, snapshot.cursor, snapshot.seed, repeatMode);
+        publishModes();
+        for (QueueListener l : queueListeners) l.onQueueReset();
+        playIndex(engine.current(), play || (resumeOnRestore && snapshot.playing), snapshot.positionMs);
+    }
+
+    /**
+     * Runs on the prepare thread. The player's callbacks arrive there as well
+     * and are handed to the main thread.
+     */
+    private void openPlayer(Uri u, int gen, boolean next) {
+        // Superseded while queued
+        if (gen != (next ? nextGen : requestGen)) return;
+        MediaPlayer mp = new MediaPlayer();
+        if (next) preparingNext = mp; else preparingPlayer = mp;
+        long openedAt = SystemClock.elapsedRealtimeNanos();
+        String section = next ? "MusicService.prepareNext" : "MusicService.prepare";
+        Metrics.beginAsync(section, gen);
+        mp.setOnPreparedListener(p -> {
+            handedOver(p);
+            Metrics.PREPARE_US.record(Metrics.micros(openedAt));
+            Metrics.endAsync(section, gen);
+            mainHandler.post(() -> onPrepared(p, gen, next));
+        });
+        mp.setOnCompletionListener(p -> mainHandler.post(() -> onTrackCompleted(p)));
+        // Republish with the player's own position after seeks and stalls
+        mp.setOnSeekCompleteListener(p -> mainHandler.post(() -> {
+            if (p == player) publishState();
+        }));
+        mp.setOnInfoListener((p, what, extra) -> {
+            if (what == MediaPlayer.MEDIA_INFO_BUFFERING_START || what == MediaPlayer.MEDIA_INFO_BUFFERING_END) {
+                boolean stalled = what == MediaPlayer.MEDIA_INFO_BUFFERING_START;
+                mainHandler.post(() -> {
+                    if (p != player) return;
+                    buffering = stalled;
+                    publishState();
+                });
+            }
+            return false;
+        });
+        mp.setOnErrorListener((p, what, extra) -> {
+            handedOver(p);
+            Metrics.endAsync(section, gen);
+            mainHandler.post(() -> onPlayerError(p, gen, next));
+            return true;
+        });
+        try {
+            mp.setDataSource(this, u);
+            mp.prepareAsync();
+        } catch (Exception e) {
+            handedOver(mp);
+            Metrics.endAsync(section, gen);
+            mainHandler.post(() -> onPlayerError(mp, gen, next));
+        }
+    }
+
+    /** Prepare thread; {@code mp} now belongs to the main thread. */
+    private void handedOver(MediaPlayer mp) {
+        if (mp == preparingPlayer) preparingPlayer = null;
+        if (mp == preparingNext) preparingNext = null;
+    }
+
+    /** Prepare thread; their callbacks would need its looper. */
+    private void releasePreparing() {
+        if (preparingPlayer != null) {
+            try { preparingPlayer.release(); } catch (Exception ignored) {}
+            preparingPlayer = null;
+        }
+        if (preparingNext != null) {
+            try { preparingNext.release(); } catch (Exception ignored) {}
+            preparingNext = null;
+        }
+    }
+
+    private void onPrepared(MediaPlayer mp, int gen, boolean next) {
+        if (next) {
+            if (gen != nextGen || player == null) {
+                mp.release();
+                return;
+            }
+            nextPlayer = mp;
+            try { player.setNextMediaPlayer(mp); } catch (Exception e) { invalidateNext(); }
+            return;
+        }
+        if (gen != requestGen) {
+            mp.release();
+            return;
+        }
+        player = mp;
+        preparing = false;
+        if (pendingSeekMs > 0) {
+            try { mp.seekTo(pendingSeekMs); } catch (Exception ignored) {}
+            pendingSeekMs = 0;
+        }
+        if (playWhenReady) {
+            startPlay();
+            timeToFirstAudioMs = SystemClock.elapsedRealtime() - requestedAt;
+        } else {
+            publishState();
+        }
+        prepareNext();
+    }
 
-        Uri u = playlist.get(index);
-        player = MediaPlayer.create(this, u);
+    private void onPlayerError(MediaPlayer mp, int gen, boolean next) {
+        if (next) {
+            if (mp == nextPlayer || gen == nextGen) invalidateNext();
+        } else if (mp == player || gen == requestGen) {
+            invalidateNext();
+            if (mp == player) player = null;
+            preparing = false;
+            publishState(PlaybackStateCompat.STATE_ERROR);
+        }
+        try { mp.release(); } catch (Exception ignored) {}
+    }
+
+    private void releasePlayer() {
+        buffering = false;
         if (player == null) return;
-        player.setOnCompletionListener(mp -> playIndex(index + 1));
+        try { player.stop(); } catch (Exception ignored) {}
+        try { player.release(); } catch (Exception ignored) {}
+        player = null;
+    }
 
-        startForeground(NOTIF_ID, buildNotification(u));
-        startPlay();
+    private void onTrackCompleted(MediaPlayer finished) {
+        if (finished != player) return;
+        history.recordCompletion(queue.getSongId(index));
+        if (nextPlayer == null) {
+            int following = engine.next(true);
+            if (following >= 0) {
+                playIndex(following);
+            } else {
+                // End of the queue with repeat off
+                publishState();
+                updateNotification();
+            }
+            return;
+        }
+        // The chained player has already started on its own
+        engine.next(true);
+        player = nextPlayer;
+        index = nextIndex;
+        buffering = false;
+        nextPlayer = null;
+        nextIndex = -1;
+        try { finished.release(); } catch (Exception ignored) {}
+        history.recordPlay(queue.getSongId(index));
+
+        for (Listener l : listeners) l.onTrackChanged(index);
+        publishState();
+        loadTrack();
+        updateNotification();
+        prepareNext();
+        scheduleSave(false);
+    }
+
+    /** Prepares the following track in the background and chains it. */
+    private void prepareNext() {
+        if (!gapless || player == null || queue == null || engine == null) return;
+        if (nextIndex >= 0) return;
+        nextIndex = engine.peekNext(true);
+        if (nextIndex < 0) return;
+        Uri u = queue.getUri(nextIndex);
+        int gen = ++nextGen;
+        prepareHandler.postAtTime(() -> openPlayer(u, gen, true), NEXT_TOKEN, SystemClock.uptimeMillis());
     }
 
     private void startPlay() {
-        if (player == null) return;
+        if (player == null) {
+            // Still preparing; start once ready
+            if (preparing) {
+                playWhenReady = true;
+                publishState();
+            } else if (restoring) {
+                playAfterRestore = true;
+            }
+            return;
+        }
         try { player.start(); } catch (Exception ignored) {}
-        Notification n = buildNotification(playlist.isEmpty() ? null : playlist.get(index));
-        NotificationManager nm = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
-        nm.notify(NOTIF_ID, n);
+        publishState();
+        // A resumed queue starts out paused and in the background
+        startForeground(NOTIF_ID, buildNotification());
+        scheduleSave(false);
     }
 
     private void pausePlay() {
-        if (player == null) return;
+        if (player == null) {
+            if (preparing) {
+                playWhenReady = false;
+                publishState();
+            }
+            return;
+        }
         try { player.pause(); } catch (Exception ignored) {}
-        Notification n = buildNotification(playlist.isEmpty() ? null : playlist.get(index));
-        NotificationManager nm = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
-        nm.notify(NOTIF_ID, n);
+        publishState();
+        updateNotification();
+        saveNow();
     }
 
-    private void seekTo(int position) {
-        if (player == null) return;
-        try { player.seekTo(position); } catch (Exception ignored) {}
+    /** Saves soon, but at most once per SAVE_INTERVAL_MS. */
+    private void scheduleSave(boolean queueChanged) {
+        queueDirty |= queueChanged;
+        if (savePending) return;
+        savePending = true;
+        long wait = Math.max(0, lastSavedAt + SAVE_INTERVAL_MS - SystemClock.elapsedRealtime());
+        mainHandler.postDelayed(saveTask, wait);
     }
 
-    private Notification buildNotification(@Nullable Uri uri) {
-        String title = "Playing";
-        String artist = "";
-        if (uri != null) {
-            MediaMetadataRetriever mmr = new MediaMetadataRetriever();
-            try {
-                mmr.setDataSource(this, uri);
-                String t = mmr.extractMetadata(MediaMetadataRetriever.METADATA_KEY_TITLE);
-                String a = mmr.extractMetadata(MediaMetadataRetriever.METADATA_KEY_ARTIST);
-                if (t != null) title = t;
-                if (a != null) artist = a;
-            } catch (Exception ignored) {} finally { try { mmr.release(); } catch (Exception ignored) {} }
+    /**
+     * Copies what is to be saved and hands it to the state thread. The queue
+     * file is only rewritten after the queue or its order changed.
+     */
+    private void saveNow() {
+        mainHandler.removeCallbacks(saveTask);
+        savePending = false;
+        if (queue == null || engine == null || engine.isEmpty()) return;
+        lastSavedAt = SystemClock.elapsedRealtime();
+        if (queueDirty) {
+            queueDirty = false;
+            queueStamp = seeds.nextLong();
+            long stamp = queueStamp;
+            SongList songs = queue.getSongs();
+            int[] order = engine.getOrder();
+            int[] linear = engine.getLinear();
+            long seed = engine.getSeed();
+            stateExecutor.execute(() -> store.saveQueue(stamp, songs, order, linear, seed));
         }
+        long stamp = queueStamp;
+        int cursor = engine.getCursor();
+        int position = getPosition();
+        boolean shuffled = shuffle;
+        RepeatMode repeat = repeatMode;
+        boolean playing = isPlaying() || (preparing && playWhenReady);
+        stateExecutor.execute(() -> store.saveState(stamp, cursor, position, shuffled, repeat, playing));
+        // Keep the saved position close while it moves
+        if (playing) scheduleSave(false);
+    }
 
-        Intent open = new Intent(this, PlayerActivity.class);
-        open.putParcelableArrayListExtra("playlist", playlist);
-        open.putExtra("index", index);
-        PendingIntent pi = PendingIntent.getActivity(this, 0, open, PendingIntent.FLAG_UPDATE_CURRENT | (Build.VERSION.SDK_INT >= 23 ? PendingIntent.FLAG_IMMUTABLE : 0));
+    private void publishState() {
+        if (isPlaying() && !buffering) publishState(PlaybackStateCompat.STATE_PLAYING);
+        else if (buffering || (preparing && playWhenReady)) publishState(PlaybackStateCompat.STATE_BUFFERING);
+        else publishState(PlaybackStateCompat.STATE_PAUSED);
+    }
+
+    private void publishState(int playbackState) {
+        state = new PlaybackStateCompat.Builder()
+                .setActions(SESSION_ACTIONS)
+                .setActiveQueueItemId(index)
+                .setState(playbackState, getPosition(),
+                        playbackState == PlaybackStateCompat.STATE_PLAYING ? 1f : 0f,
+                        SystemClock.elapsedRealtime())
+                .build();
+        session.setPlaybackState(state);
+        for (Listener l : listeners) l.onPlaybackStateChanged(state);
+    }
 
-        PendingIntent pPrev = PendingIntent.getService(this, 1, new Intent(this, MusicService.class).setAction(ACTION_PREV), PendingIntent.FLAG_UPDATE_CURRENT | (Build.VERSION.SDK_INT >= 23 ? PendingIntent.FLAG_IMMUTABLE : 0));
-        PendingIntent pToggle = PendingIntent.getService(this, 2, new Intent(this, MusicService.class).setAction(ACTION_TOGGLE), PendingIntent.FLAG_UPDATE_CURRENT | (Build.VERSION.SDK_INT >= 23 ? PendingIntent.FLAG_IMMUTABLE : 0));
-        PendingIntent pNext = PendingIntent.getService(this, 3, new Intent(this, MusicService.class).setAction(ACTION_NEXT), PendingIntent.FLAG_UPDATE_CURRENT | (Build.VERSION.SDK_INT >= 23 ? PendingIntent.FLAG_IMMUTABLE : 0));
+    /** Built from cached library rows only; never opens the media file. */
+    private Notification buildNotification() {
+        Uri uri = queue == null ? null : queue.getUri(index);
+        requestLargeIcon(uri);
+        boolean playing = isPlaying();
 
         NotificationCompat.Builder b = new NotificationCompat.Builder(this, CHANNEL_ID)
                 .setSmallIcon(android.R.drawable.ic_media_play)
-                .setContentTitle(title)
-                .setContentText(artist)
-                .setContentIntent(pi)
-                .setOngoing(player != null && player.isPlaying())
-                .addAction(android.R.drawable.ic_media_previous, "Prev", pPrev)
-                .addAction(player != null && player.isPlaying() ? android.R.drawable.ic_media_pause : android.R.drawable.ic_media_play, player != null && player.isPlaying() ? "Pause" : "Play", pToggle)
-                .addAction(android.R.drawable.ic_media_next, "Next", pNext)
-                .setStyle(new NotificationCompat.BigTextStyle().bigText(title + " - " + artist));
+                .setContentTitle(track != null ? track.getTitle() : "Playing")
+                .setContentText(track != null ? track.getArtist() : "")
+                .setContentIntent(openIntent)
+                .setLargeIcon(largeIcon)
+                .setOngoing(playing)
+                .addAction(prevAction)
+                .addAction(playing ? pauseAction : playAction)
+                .addAction(nextAction)
+                .setStyle(mediaStyle);
 
         return b.build();
     }
 
+    private void updateNotification() {
+        NotificationManager nm = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
+        nm.notify(NOTIF_ID, buildNotification());
+    }
+
+    /** Looks up the current track's row in the library's shared row cache. */
+    private void loadTrack() {
+        long id = queue.getSongId(index);
+        if (track != null && track.getId() == id) return;
+        track = null;
+        MusicLibrary.get(this).getPager().fetch(id, song -> {
+            if (song == null || queue == null || queue.getSongId(index) != id) return;
+            track = song;
+            session.setMetadata(new MediaMetadataCompat.Builder()
+                    .putString(MediaMetadataCompat.METADATA_KEY_TITLE, song.getTitle())
+                    .putString(MediaMetadataCompat.METADATA_KEY_ARTIST, song.getArtist())
+                    .putString(MediaMetadataCompat.METADATA_KEY_ALBUM, song.getAlbum())
+                    .putLong(MediaMetadataCompat.METADATA_KEY_DURATION, song.getDuration())
+                    .build());
+            if (player != null || preparing) updateNotification();
+        });
+    }
+
+    private void requestLargeIcon(@Nullable Uri uri) {
+        if (uri == null || uri.equals(largeIconUri)) return;
+        largeIconUri = uri;
+        largeIcon = null;
+        AlbumArtLoader.get(this).load(uri, ArtSize.NOTIFICATION, bitmap -> {
+            if (bitmap == null || !uri.equals(largeIconUri) || (player == null && !preparing)) return;
+            largeIcon = bitmap;
+            updateNotification();
+        });
+    }
+
     private void ensureChannel() {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
             NotificationChannel ch = new NotificationChannel(CHANNEL_ID, "Music Playback", NotificationManager.IMPORTANCE_LOW);
@@ -163,16 +813,27 @@ public class MusicService extends Service {
 
     @Nullable
     @Override
-    public IBinder onBind(Intent intent) { return null; }
+    public IBinder onBind(Intent intent) { return binder; }
 
     @Override
     public void onDestroy() {
+        saveNow();
+        mainHandler.removeCallbacks(saveTask);
+        stateExecutor.shutdown();
+        history.flush();
+        invalidateNext();
+        requestGen++;
+        // Runs after any queued openPlayer, before the looper stops
+        prepareHandler.post(this::releasePreparing);
+        prepareThread.quitSafely();
         if (player != null) {
             try { player.release(); } catch (Exception ignored) {}
             player = null;
         }
+        listeners.clear();
+        queueListeners.clear();
+        QueueStore.get().setCurrent(null);
+        session.release();
         super.onDestroy();
     }
 }
-
-
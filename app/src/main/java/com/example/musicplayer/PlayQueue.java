@@ -0,0 +1,44 @@
+package com.example.musicplayer;
+
+import android.net.Uri;
+
+/**
+ * One immutable version of the play queue. A new song list is a new
+ * {@code PlayQueue} with a new id, so an id names exactly one song order.
+ * Reordering and removing while it plays are kept by the service's
+ * {@link com.example.musicplayer.core.QueueEngine} on top of it.
+ */
+public final class PlayQueue {
+
+    private final long id;
+    private final SongList songs;
+
+    PlayQueue(long id, SongList songs) {
+        this.id = id;
+        this.songs = songs;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public SongList getSongs() {
+        return songs;
+    }
+
+    public int size() {
+        return songs.size();
+    }
+
+    public boolean isEmpty() {
+        return songs.isEmpty();
+    }
+
+    public long getSongId(int index) {
+        return songs.getId(index);
+    }
+
+    public Uri getUri(int index) {
+        return songs.getUri(index);
+    }
+}
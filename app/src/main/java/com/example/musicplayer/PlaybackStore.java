@@ -0,0 +1,265 @@
+package com.example.musicplayer;
+
+import android.util.AtomicFile;
+import android.util.Log;
+import androidx.annotation.Nullable;
+import com.example.musicplayer.core.RepeatMode;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * What {@link MusicService} was playing, kept across process death.
+ *
+ * Two small binary files: the queue with its play order, rewritten only
+ * when either changes, and the playback position with modes, rewritten
+ * often. The second names the first by a stamp, so a crash between the two
+ * writes is noticed. Each file is replaced atomically and ends in a CRC, so
+ * a torn or damaged file reads as absent rather than as a wrong queue.
+ * Files are read whole into one buffer; there is no parsing beyond that.
+ */
+final class PlaybackStore {
+
+    private static final String TAG = "PlaybackStore";
+    private static final int QUEUE_MAGIC = 0x4d505131; // MPQ1
+    private static final int STATE_MAGIC = 0x4d505331; // MPS1
+
+    /** Everything needed to pick up where playback stopped. */
+    static final class Snapshot {
+
+        // Names the queue file; position saves for the same queue reuse it
+        final long stamp;
+        final SongList songs;
+        final int[] order;
+        @Nullable
+        final int[] linear;
+        final long seed;
+        // From the state file; zeros when it was missing or stale
+        final int cursor;
+        final int positionMs;
+        final boolean shuffle;
+        final RepeatMode repeat;
+        final boolean playing;
+
+        Snapshot(
+            long stamp,
+            SongList songs,
+            int[] order,
+            @Nullable int[] linear,
+            long seed,
+            int cursor,
+            int positionMs,
+            boolean shuffle,
+            RepeatMode repeat,
+            boolean playing
+        ) {
+            this.stamp = stamp;
+            this.songs = songs;
+            this.order = order;
+            this.linear = linear;
+            this.seed = seed;
+            this.cursor = cursor;
+            this.positionMs = positionMs;
+            this.shuffle = shuffle;
+            this.repeat = repeat;
+            this.playing = playing;
+        }
+    }
+
+    private final AtomicFile queueFile;
+    private final AtomicFile stateFile;
+
+    PlaybackStore(File dir) {
+        dir.mkdirs();
+        queueFile = new AtomicFile(new File(dir, "queue.bin"));
+        stateFile = new AtomicFile(new File(dir, "state.bin"));
+    }
+
+    /** Writes the queue and its order under {@code stamp}. Any thread. */
+    void saveQueue(
+        long stamp,
+        SongList songs,
+        int[] order,
+        @Nullable int[] linear,
+        long seed
+    ) {
+        int n = songs.size();
+        String[] uris = songs.documentUris;
+        byte[][] uriBytes = null;
+        int size = 4 + 8 + 4 + n * 16 + 1 + 4 + order.length * 4 + 1 + 8;
+        if (uris != null) {
+            uriBytes = new byte[n][];
+            for (int i = 0; i < n; i++) {
+                uriBytes[i] = uris[i].getBytes(StandardCharsets.UTF_8);
+                size += 4 + uriBytes[i].length;
+            }
+        }
+        if (linear != null) size += 4 + linear.length * 4;
+
+        ByteBuffer buf = allocate(size);
+        buf.putInt(QUEUE_MAGIC).putLong(stamp).putInt(n);
+        buf.asLongBuffer().put(songs.ids);
+        buf.position(buf.position() + n * 8);
+        buf.asLongBuffer().put(songs.versions);
+        buf.position(buf.position() + n * 8);
+        buf.put((byte) (uriBytes != null ? 1 : 0));
+        if (uriBytes != null) {
+            for (byte[] uri : uriBytes) buf.putInt(uri.length).put(uri);
+        }
+        putInts(buf, order);
+        buf.put((byte) (linear != null ? 1 : 0));
+        if (linear != null) putInts(buf, linear);
+        buf.putLong(seed);
+        write(queueFile, buf);
+    }
+
+    /** Writes position and modes for the queue saved under {@code stamp}. */
+    void saveState(
+        long stamp,
+        int cursor,
+        int positionMs,
+        boolean shuffle,
+        RepeatMode repeat,
+        boolean playing
+    ) {
+        ByteBuffer buf = allocate(4 + 8 + 4 + 4 + 3);
+        buf.putInt(STATE_MAGIC).putLong(stamp);
+        buf.putInt(cursor).putInt(positionMs);
+        buf.put((byte) (shuffle ? 1 : 0));
+        buf.put((byte) repeat.ordinal());
+        buf.put((byte) (playing ? 1 : 0));
+        write(stateFile, buf);
+    }
+
+    /** The last saved snapshot, or null if there is none or it is damaged. */
+    @Nullable
+    Snapshot load(SongPager pager) {
+        ByteBuffer q = read(queueFile, QUEUE_MAGIC);
+        if (q == null) return null;
+        try {
+            long stamp = q.getLong();
+            int n = q.getInt();
+            long[] ids = new long[n];
+            long[] versions = new long[n];
+            q.asLongBuffer().get(ids);
+            q.position(q.position() + n * 8);
+            q.asLongBuffer().get(versions);
+            q.position(q.position() + n * 8);
+            String[] uris = null;
+            if (q.get() != 0) {
+                uris = new String[n];
+                for (int i = 0; i < n; i++) {
+                    byte[] uri = new byte[q.getInt()];
+                    q.get(uri);
+                    uris[i] = new String(uri, StandardCharsets.UTF_8);
+                }
+            }
+            int[] order = getInts(q);
+            int[] linear = q.get() != 0 ? getInts(q) : null;
+            long seed = q.getLong();
+            SongList songs = new SongList(pager, ids, versions, uris);
+            if (order.length == 0 || !validOrder(order, n)) return null;
+
+            ByteBuffer s = read(stateFile, STATE_MAGIC);
+            if (s == null || s.getLong() != stamp) {
+                return new Snapshot(
+                    stamp,
+                    songs,
+                    order,
+                    linear,
+                    seed,
+                    0,
+                    0,
+                    linear != null,
+                    RepeatMode.OFF,
+                    false
+                );
+            }
+            int cursor = s.getInt();
+            int positionMs = s.getInt();
+            boolean shuffle = s.get() != 0;
+            int repeat = s.get();
+            boolean playing = s.get() != 0;
+            return new Snapshot(
+                stamp,
+                songs,
+                order,
+                linear,
+                seed,
+                cursor >= 0 && cursor < order.length ? cursor : 0,
+                Math.max(0, positionMs),
+                shuffle,
+                repeat >= 0 && repeat < RepeatMode.values().length
+                    ? RepeatMode.values()[repeat]
+                    : RepeatMode.OFF,
+                playing
+            );
+        } catch (BufferUnderflowException | NegativeArraySizeException e) {
+            Log.w(TAG, "Discarding malformed playback state", e);
+            return null;
+        }
+    }
+
+    private static boolean validOrder(int[] order, int n) {
+        for (int position : order) {
+            if (position < 0 || position >= n) return false;
+        }
+        return true;
+    }
+
+    private static ByteBuffer allocate(int size) {
+        // Room for the trailing CRC
+        return ByteBuffer.allocate(size + 8).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static void putInts(ByteBuffer buf, int[] values) {
+        buf.putInt(values.length);
+        buf.asIntBuffer().put(values);
+        buf.position(buf.position() + values.length * 4);
+    }
+
+    private static int[] getInts(ByteBuffer buf) {
+        int[] values = new int[buf.getInt()];
+        buf.asIntBuffer().get(values);
+        buf.position(buf.position() + values.length * 4);
+        return values;
+    }
+
+    private static void write(AtomicFile file, ByteBuffer buf) {
+        CRC32 crc = new CRC32();
+        crc.update(buf.array(), 0, buf.position());
+        buf.putLong(crc.getValue());
+        FileOutputStream out = null;
+        try {
+            out = file.startWrite();
+            out.write(buf.array(), 0, buf.position());
+            file.finishWrite(out);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not save playback state", e);
+            if (out != null) file.failWrite(out);
+        }
+    }
+
+    /** The file's content after its magic, or null when absent or damaged. */
+    @Nullable
+    private static ByteBuffer read(AtomicFile file, int magic) {
+        byte[] bytes;
+        try {
+            bytes = file.readFully();
+        } catch (IOException e) {
+            return null;
+        }
+        if (bytes.length < 12) return null;
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - 8);
+        ByteBuffer buf = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        if (buf.getLong(bytes.length - 8) != crc.getValue()) return null;
+        buf.limit(bytes.length - 8);
+        return buf.getInt() == magic ? buf : null;
+    }
+}
@@ -1,39 +1,60 @@
 package com.example.musicplayer;
 
 import android.animation.ObjectAnimator;
-import android.graphics.BitmapFactory;
-import android.media.MediaMetadataRetriever;
+import android.content.ComponentName;
+import android.content.Intent;
+import android.content.ServiceConnection;
 import android.net.Uri;
 import android.os.Bundle;
-import android.os.Handler;
+import android.os.IBinder;
+import android.os.SystemClock;
+import android.support.v4.media.session.PlaybackStateCompat;
+import android.view.Choreographer;
+import android.view.FrameMetrics;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
+import android.view.Window;
 import android.widget.ImageButton;
 import android.widget.ImageView;
 import android.widget.TextView;
 import android.widget.Toast;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+import com.example.musicplayer.core.RepeatMode;
 import com.google.android.material.appbar.MaterialToolbar;
+import com.google.android.material.bottomsheet.BottomSheetBehavior;
 import com.google.android.material.button.MaterialButton;
 import com.google.android.material.card.MaterialCardView;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 import com.google.android.material.slider.Slider;
-import java.util.ArrayList;
 
-public class PlayerActivity extends AppCompatActivity {
+public class PlayerActivity
+    extends AppCompatActivity
+    implements MusicService.Listener, HistoryStore.Listener {
 
     private MaterialToolbar toolbar;
     private ImageView imgAlbum;
     private TextView tvTitle, tvArtist, tvCurrentTime, tvTotalTime;
     private Slider seekBar;
     private FloatingActionButton btnPlay;
-    private MaterialButton btnNext, btnPrev;
+    private MaterialButton btnNext, btnPrev, btnShuffle, btnRepeat;
 
     private MaterialCardView albumArtCard;
 
-    private ArrayList<Uri> playlist;
+    private BottomSheetBehavior<View> queueSheet;
+    private RecyclerView queueRecyclerView;
+    private final QueueAdapter queueAdapter = new QueueAdapter();
+
+    @Nullable
+    private MenuItem favoriteItem;
+
+    @Nullable
+    private PlayQueue queue;
     private int index = 0;
-    private Handler handler = new Handler();
     private ObjectAnimator rotationAnim;
 
     private boolean isPlaying = false;
@@ -41,14 +62,78 @@ public class PlayerActivity extends AppCompatActivity {
     private int totalDuration = 0;
     private boolean isUserSeeking = false;
 
-    private final Runnable tick = new Runnable() {
+    @Nullable
+    private MusicService service;
+
+    // Song whose info is being shown; stale row callbacks are ignored
+    private long infoSongId;
+
+    // Set when this launch should hand its queue to the service
+    private boolean pendingStart = false;
+
+    private final ServiceConnection connection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            service = ((MusicService.LocalBinder) binder).getService();
+            service.addListener(PlayerActivity.this);
+            service.addQueueListener(queueAdapter);
+            queueAdapter.setService(service);
+            if (pendingStart) {
+                pendingStart = false;
+                if (
+                    queue == service.getQueue() &&
+                    service.getIndex() == index
+                ) {
+                    // Reopened for the current song, e.g. from the notification
+                    onPlaybackStateChanged(service.getPlaybackState());
+                } else {
+                    service.playQueue(queue, index);
+                }
+            } else {
+                syncWithService();
+            }
+            showModes();
+        }
+
         @Override
-        public void run() {
-            updateProgress();
-            handler.postDelayed(this, 1000);
+        public void onServiceDisconnected(ComponentName name) {
+            queueAdapter.setService(null);
+            service = null;
         }
     };
 
+    // Last state from the service; the position is extrapolated from it
+    @Nullable
+    private PlaybackStateCompat lastState;
+    private boolean resumed = false;
+    private boolean framesScheduled = false;
+
+    // When the last skip was asked for, until its audio starts; 0 if none
+    private long skipRequestedAt;
+
+    // One display refresh; read on the frame metrics thread
+    private volatile long frameIntervalNanos;
+
+    private final Window.OnFrameMetricsAvailableListener frameMetrics = (
+        window,
+        metrics,
+        dropCount
+    ) ->
+        Metrics.recordFrame(
+            metrics.getMetric(FrameMetrics.TOTAL_DURATION),
+            frameIntervalNanos
+        );
+
+    private final Choreographer.FrameCallback frameCallback =
+        new Choreographer.FrameCallback() {
+            @Override
+            public void doFrame(long frameTimeNanos) {
+                if (!framesScheduled) return;
+                updateProgress(frameTimeNanos);
+                Choreographer.getInstance().postFrameCallback(this);
+            }
+        };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -64,9 +149,27 @@ public class PlayerActivity extends AppCompatActivity {
         btnPlay = findViewById(R.id.btnPlay);
         btnNext = findViewById(R.id.btnNext);
         btnPrev = findViewById(R.id.btnPrev);
+        btnShuffle = findViewById(R.id.btnShuffle);
+        btnRepeat = findViewById(R.id.btnRepeat);
 
         albumArtCard = findViewById(R.id.albumArtCard);
 
+        // Up next sheet, hidden until opened from the toolbar
+        View sheet = findViewById(R.id.bottomSheetQueue);
+        queueSheet = BottomSheetBehavior.from(sheet);
+        queueSheet.setHideable(true);
+        queueSheet.setState(BottomSheetBehavior.STATE_HIDDEN);
+        sheet.setVisibility(View.VISIBLE);
+        queueRecyclerView = findViewById(R.id.queueRecyclerView);
+        queueRecyclerView.setLayoutManager(new LinearLayoutManager(this));
+        queueRecyclerView.setAdapter(queueAdapter);
+        queueAdapter
+            .createTouchHelper()
+            .attachToRecyclerView(queueRecyclerView);
+        findViewById(R.id.btnClearQueue).setOnClickListener(v -> {
+            if (service != null) service.clearUpcoming();
+        });
+
         // Setup Toolbar
         setSupportActionBar(toolbar);
         if (getSupportActionBar() != null) {
@@ -75,7 +178,9 @@ public class PlayerActivity extends AppCompatActivity {
         }
         toolbar.setNavigationOnClickListener(v -> onBackPressed());
 
-        playlist = getIntent().getParcelableArrayListExtra("playlist");
+        queue = QueueStore.get().find(
+            getIntent().getLongExtra("queue_id", 0)
+        );
         index = getIntent().getIntExtra("index", 0);
 
         rotationAnim = ObjectAnimator.ofFloat(
@@ -91,6 +196,8 @@ public class PlayerActivity extends AppCompatActivity {
         btnPlay.setOnClickListener(v -> togglePlay());
         btnNext.setOnClickListener(v -> playNext());
         btnPrev.setOnClickListener(v -> playPrev());
+        btnShuffle.setOnClickListener(v -> toggleShuffle());
+        btnRepeat.setOnClickListener(v -> cycleRepeat());
 
         seekBar.addOnChangeListener((slider, value, fromUser) -> {
             if (fromUser) {
@@ -101,96 +208,208 @@ public class PlayerActivity extends AppCompatActivity {
         // Initialize Slider valueFrom and valueTo
         seekBar.setValueFrom(0); // Minimum progress
         seekBar.setValueTo(100); // Default maximum, will be updated with song duration
+        seekBar.setLabelFormatter(value -> formatDuration((long) value));
 
         seekBar.addOnSliderTouchListener(
             new Slider.OnSliderTouchListener() {
                 @Override
                 public void onStartTrackingTouch(@NonNull Slider slider) {
                     isUserSeeking = true;
-                    handler.removeCallbacks(tick);
+                    stopFrames();
                 }
 
                 @Override
                 public void onStopTrackingTouch(@NonNull Slider slider) {
                     isUserSeeking = false;
                     currentPosition = (int) slider.getValue();
-                    // Send seek command to service
-                    android.content.Intent i = new android.content.Intent(
-                        PlayerActivity.this,
-                        MusicService.class
-                    ).setAction(MusicService.ACTION_SEEK);
-                    i.putExtra("position", (int) slider.getValue());
-                    if (
-                        android.os.Build.VERSION.SDK_INT >= 26
-                    ) startForegroundService(i);
-                    else startService(i);
-                    handler.post(tick);
+                    if (service != null) {
+                        service.seekTo(currentPosition);
+                    }
+                    scheduleFrames();
                 }
             }
         );
 
-        // initialize service with playlist and start playback
-        if (playlist != null && !playlist.isEmpty()) {
-            playIndex(index);
+        // Hand the queue to the service once bound; not again on rotation
+        if (savedInstanceState == null && queue != null && !queue.isEmpty()) {
+            pendingStart = true;
+            showIndex(index);
         }
+        HistoryStore.get(this).addListener(this);
+
+        // Started as well as bound, so playback outlives this screen
+        startService(new Intent(this, MusicService.class));
     }
 
-    private void updateSongInfo(int idx) {
-        if (
-            playlist == null ||
-            playlist.isEmpty() ||
-            idx < 0 ||
-            idx >= playlist.size()
-        ) return;
-
-        Uri uri = playlist.get(idx);
-        MediaMetadataRetriever mmr = new MediaMetadataRetriever();
-        try {
-            mmr.setDataSource(this, uri);
-            String title = mmr.extractMetadata(
-                MediaMetadataRetriever.METADATA_KEY_TITLE
-            );
-            String artist = mmr.extractMetadata(
-                MediaMetadataRetriever.METADATA_KEY_ARTIST
-            );
-            String durationStr = mmr.extractMetadata(
-                MediaMetadataRetriever.METADATA_KEY_DURATION
-            );
-            byte[] albumArt = mmr.getEmbeddedPicture();
-
-            tvTitle.setText(title != null ? title : "Unknown Title");
-            tvArtist.setText(artist != null ? artist : "Unknown Artist");
-
-            if (durationStr != null) {
-                long duration = Long.parseLong(durationStr);
-                totalDuration = (int) duration;
-                tvTotalTime.setText(formatDuration(duration));
-                seekBar.setValueTo(totalDuration); // Set max for Slider
-                seekBar.setValue(0); // Set progress for Slider
-                currentPosition = 0;
-                tvCurrentTime.setText("0:00");
-                seekBar.setLabelFormatter(value ->
-                    formatDuration((long) value)
-                );
-            }
+    @Override
+    protected void onStart() {
+        super.onStart();
+        bindService(
+            new Intent(this, MusicService.class),
+            connection,
+            BIND_AUTO_CREATE
+        );
+    }
 
-            if (albumArt != null) {
-                imgAlbum.setImageBitmap(
-                    BitmapFactory.decodeByteArray(albumArt, 0, albumArt.length)
-                );
-            } else {
-                imgAlbum.setImageResource(R.drawable.ic_music_placeholder);
+    @Override
+    protected void onStop() {
+        if (service != null) {
+            service.removeListener(this);
+            service.removeQueueListener(queueAdapter);
+            queueAdapter.setService(null);
+            service = null;
+        }
+        unbindService(connection);
+        // Nothing to animate while hidden; onStart resyncs with the service
+        pausePlay();
+        super.onStop();
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.player_menu, menu);
+        favoriteItem = menu.findItem(R.id.action_favorite);
+        onFavoritesChanged();
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(@NonNull MenuItem item) {
+        if (item.getItemId() == R.id.action_queue) {
+            toggleQueue();
+            return true;
+        } else if (item.getItemId() == R.id.action_favorite) {
+            if (queue != null && index < queue.size()) {
+                HistoryStore.get(this).toggleFavorite(queue.getSongId(index));
             }
-        } catch (Exception e) {
-            tvTitle.setText("Unknown Title");
-            tvArtist.setText("Unknown Artist");
-
-            imgAlbum.setImageResource(R.drawable.ic_music_placeholder);
-        } finally {
-            try {
-                mmr.release();
-            } catch (Exception ignored) {}
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    @Override
+    public void onBackPressed() {
+        if (queueSheet.getState() != BottomSheetBehavior.STATE_HIDDEN) {
+            queueSheet.setState(BottomSheetBehavior.STATE_HIDDEN);
+            return;
         }
+        super.onBackPressed();
+    }
+
+    @Override
+    public void onFavoritesChanged() {
+        if (favoriteItem == null) return;
+        boolean favorite =
+            queue != null &&
+            index < queue.size() &&
+            HistoryStore.get(this).isFavorite(queue.getSongId(index));
+        favoriteItem.setIcon(
+            favorite ? R.drawable.ic_favorite : R.drawable.ic_favorite_border
+        );
+    }
+
+    private void toggleQueue() {
+        if (queueSheet.getState() != BottomSheetBehavior.STATE_HIDDEN) {
+            queueSheet.setState(BottomSheetBehavior.STATE_HIDDEN);
+            return;
+        }
+        int cursor = queueAdapter.getCursor();
+        if (cursor >= 0) {
+            ((LinearLayoutManager) queueRecyclerView.getLayoutManager())
+                .scrollToPositionWithOffset(cursor, 0);
+        }
+        queueSheet.setState(BottomSheetBehavior.STATE_EXPANDED);
+    }
+
+    @Override
+    public void onTrackChanged(int idx) {
+        queueAdapter.onTrackChanged();
+        if (service != null && service.getQueue() != queue) {
+            // Another screen started a different queue meanwhile
+            queue = service.getQueue();
+            showIndex(idx);
+        } else if (idx != index) {
+            showIndex(idx);
+        }
+    }
+
+    @Override
+    public void onPlaybackStateChanged(PlaybackStateCompat state) {
+        lastState = state;
+        currentPosition = (int) state.getPosition();
+        if (service != null && service.getDuration() > 0) {
+            setDuration(service.getDuration());
+        }
+        if (!isUserSeeking && totalDuration > 0) {
+            seekBar.setValue(Math.min(currentPosition, totalDuration));
+            tvCurrentTime.setText(formatDuration(currentPosition));
+        }
+        int playback = state.getState();
+        if (
+            skipRequestedAt != 0 &&
+            playback == PlaybackStateCompat.STATE_PLAYING
+        ) {
+            Metrics.SKIP_TO_AUDIO_US.record(Metrics.micros(skipRequestedAt));
+            skipRequestedAt = 0;
+        }
+        if (
+            playback == PlaybackStateCompat.STATE_PLAYING ||
+            playback == PlaybackStateCompat.STATE_BUFFERING
+        ) {
+            startPlay();
+        } else {
+            pausePlay();
+        }
+    }
+
+    /** Catches up after being stopped, e.g. tracks changed meanwhile. */
+    private void syncWithService() {
+        if (service == null) return;
+        if (service.getQueue() != null) queue = service.getQueue();
+        showIndex(service.getIndex());
+        onPlaybackStateChanged(service.getPlaybackState());
+    }
+
+    /**
+     * Shows title, artist and art for {@code idx} from the library row.
+     * Asynchronous; a later call supersedes any request still in flight.
+     */
+    private void updateSongInfo(int idx) {
+        if (queue == null || idx < 0 || idx >= queue.size()) return;
+
+        long id = queue.getSongId(idx);
+        Uri uri = queue.getUri(idx);
+        infoSongId = id;
+        AlbumArtLoader.get(this).cancel(imgAlbum);
+        MusicLibrary.get(this)
+            .getPager()
+            .fetch(id, song -> {
+                if (isDestroyed() || infoSongId != id) return;
+                if (song == null) {
+                    // Gone from the library since the queue was made
+                    tvTitle.setText("Unknown Title");
+                    tvArtist.setText("Unknown Artist");
+                    AlbumArtLoader.get(this).load(uri, imgAlbum, ArtSize.PLAYER);
+                    return;
+                }
+                tvTitle.setText(
+                    song.getTitle() != null ? song.getTitle() : "Unknown Title"
+                );
+                tvArtist.setText(
+                    song.getArtist() != null
+                        ? song.getArtist()
+                        : "Unknown Artist"
+                );
+                if (song.getDuration() > 0) {
+                    setDuration((int) song.getDuration());
+                }
+                AlbumArtLoader.get(this).load(
+                    song,
+                    imgAlbum,
+                    ArtSize.PLAYER,
+                    true
+                );
+            });
     }
 
     private String formatDuration(long ms) {
@@ -200,62 +419,85 @@ public class PlayerActivity extends AppCompatActivity {
         return String.format("%d:%02d", minutes, seconds);
     }
 
-    private void playIndex(int idx) {
-        if (
-            playlist == null ||
-            playlist.isEmpty() ||
-            idx < 0 ||
-            idx >= playlist.size()
-        ) return;
+    /** Shows song {@code idx} and resets the progress display. */
+    private void showIndex(int idx) {
+        if (queue == null || idx < 0 || idx >= queue.size()) return;
 
         // Update index and song info
         index = idx;
         updateSongInfo(idx);
+        onFavoritesChanged();
 
         // Reset playback state for new song
-        isPlaying = false;
+        lastState = null;
         currentPosition = 0;
         seekBar.setValue(0); // Set progress for Slider
         tvCurrentTime.setText("0:00");
+    }
 
-        // Send command to service
-        android.content.Intent i = new android.content.Intent(
-            this,
-            MusicService.class
-        ).setAction(MusicService.ACTION_INIT);
-        i.putParcelableArrayListExtra("playlist", playlist);
-        i.putExtra("index", idx);
-        if (android.os.Build.VERSION.SDK_INT >= 26) startForegroundService(i);
-        else startService(i);
-
-        // Start playing the new song
-        startPlay();
+    private void setDuration(int duration) {
+        if (duration == totalDuration) return;
+        totalDuration = duration;
+        tvTotalTime.setText(formatDuration(duration));
+        if (seekBar.getValue() > duration) seekBar.setValue(0);
+        seekBar.setValueTo(duration); // Set max for Slider
     }
 
-    private void updateProgress() {
-        // Only update progress if user is not seeking
-        if (isPlaying && totalDuration > 0 && !isUserSeeking) {
-            currentPosition += 1000; // Add 1 second
-            if (currentPosition > totalDuration) {
-                currentPosition = totalDuration;
-            }
-            seekBar.setValue(currentPosition); // Set progress for Slider
-            tvCurrentTime.setText(formatDuration(currentPosition));
+    /**
+     * Moves the slider to where the service's clock says playback is at the
+     * time {@code frameTimeNanos} is shown.
+     */
+    private void updateProgress(long frameTimeNanos) {
+        if (lastState == null || totalDuration <= 0 || isUserSeeking) return;
+        // Frame times run on the uptime clock, playback states on elapsed
+        // realtime
+        long frameTime =
+            frameTimeNanos / 1_000_000 +
+            SystemClock.elapsedRealtime() -
+            SystemClock.uptimeMillis();
+        long position =
+            lastState.getPosition() +
+            (long) (
+                (frameTime - lastState.getLastPositionUpdateTime()) *
+                lastState.getPlaybackSpeed()
+            );
+        position = Math.max(0, Math.min(position, totalDuration));
+
+        int seconds = (int) (position / 1000);
+        if (seconds != currentPosition / 1000) {
+            tvCurrentTime.setText(formatDuration(position));
         }
+        currentPosition = (int) position;
+        seekBar.setValue(currentPosition); // Set progress for Slider
+    }
+
+    /** Follows the position every frame, only while visible and playing. */
+    private void scheduleFrames() {
+        if (framesScheduled || !resumed || !isPlaying || isUserSeeking) return;
+        framesScheduled = true;
+        Choreographer.getInstance().postFrameCallback(frameCallback);
+    }
+
+    private void stopFrames() {
+        framesScheduled = false;
+        Choreographer.getInstance().removeFrameCallback(frameCallback);
     }
 
     private void startPlay() {
+        if (isPlaying) return;
         isPlaying = true;
         btnPlay.setImageResource(R.drawable.ic_pause); // Use custom pause icon
-        rotationAnim.start();
-        handler.post(tick);
+        if (rotationAnim.isPaused()) rotationAnim.resume();
+        else rotationAnim.start();
+        scheduleFrames();
     }
 
     private void pausePlay() {
+        if (!isPlaying) return;
         isPlaying = false;
         btnPlay.setImageResource(R.drawable.ic_play); // Use custom play icon
         rotationAnim.pause();
-        handler.removeCallbacks(tick);
+        stopFrames();
     }
 
     private void togglePlay() {
@@ -265,40 +507,90 @@ public class PlayerActivity extends AppCompatActivity {
         } else {
             startPlay();
         }
-        // Then send command to service
-        android.content.Intent i = new android.content.Intent(
-            this,
-            MusicService.class
-        ).setAction(MusicService.ACTION_TOGGLE);
-        if (android.os.Build.VERSION.SDK_INT >= 26) startForegroundService(i);
-        else startService(i);
+        // Then tell the service directly
+        if (service != null) {
+            service.togglePlayPause();
+        }
     }
 
     private void playNext() {
-        if (playlist == null || playlist.isEmpty()) return;
-        int next = index + 1;
-        if (next >= playlist.size()) next = 0;
-        index = next;
-        playIndex(next);
+        // The service answers with onTrackChanged before preparing the track
+        if (service != null) {
+            skipRequestedAt = SystemClock.elapsedRealtimeNanos();
+            service.skipToNext();
+        }
     }
 
     private void playPrev() {
-        if (playlist == null || playlist.isEmpty()) return;
-        int prev = index - 1;
-        if (prev < 0) prev = playlist.size() - 1;
-        index = prev;
-        playIndex(prev);
+        if (service != null) {
+            skipRequestedAt = SystemClock.elapsedRealtimeNanos();
+            service.skipToPrevious();
+        }
+    }
+
+    private void toggleShuffle() {
+        if (service == null) return;
+        service.setShuffle(!service.getShuffle());
+        showModes();
+    }
+
+    /** Off, then repeat the queue, then repeat the track. */
+    private void cycleRepeat() {
+        if (service == null) return;
+        switch (service.getRepeatMode()) {
+            case OFF:
+                service.setRepeatMode(RepeatMode.ALL);
+                break;
+            case ALL:
+                service.setRepeatMode(RepeatMode.ONE);
+                break;
+            default:
+                service.setRepeatMode(RepeatMode.OFF);
+                break;
+        }
+        showModes();
+    }
+
+    private void showModes() {
+        if (service == null) return;
+        btnShuffle.setAlpha(service.getShuffle() ? 1f : 0.4f);
+        RepeatMode repeat = service.getRepeatMode();
+        btnRepeat.setAlpha(repeat == RepeatMode.OFF ? 0.4f : 1f);
+        btnRepeat.setIconResource(
+            repeat == RepeatMode.ONE
+                ? R.drawable.ic_repeat_one
+                : R.drawable.ic_repeat
+        );
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        resumed = true;
+        scheduleFrames();
+        frameIntervalNanos = (long) (
+            1e9 / getWindowManager().getDefaultDisplay().getRefreshRate()
+        );
+        getWindow().addOnFrameMetricsAvailableListener(
+            frameMetrics,
+            Metrics.frameHandler()
+        );
     }
 
     @Override
     protected void onPause() {
         super.onPause();
         // UI pause only; service continues if desired
+        resumed = false;
+        stopFrames();
+        getWindow().removeOnFrameMetricsAvailableListener(frameMetrics);
     }
 
     @Override
     protected void onDestroy() {
-        handler.removeCallbacks(tick);
+        HistoryStore.get(this).removeListener(this);
+        stopFrames();
+        AlbumArtLoader.get(this).cancel(imgAlbum);
         super.onDestroy();
     }
 }
@@ -0,0 +1,224 @@
+package com.example.musicplayer;
+
+import android.content.res.ColorStateList;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+import android.widget.TextView;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.ItemTouchHelper;
+import androidx.recyclerview.widget.RecyclerView;
+
+/**
+ * The service's play order for the queue sheet.
+ *
+ * Rows are read from the service one at a time as they are bound, and
+ * edits come back as single moves and removals, so the sheet never holds
+ * or copies the whole queue. Drag to reorder, swipe left to remove and
+ * swipe right to play next.
+ */
+public class QueueAdapter
+    extends RecyclerView.Adapter<QueueAdapter.QueueViewHolder>
+    implements MusicService.QueueListener {
+
+    @Nullable
+    private MusicService service;
+    private int cursor = -1;
+
+    public QueueAdapter() {
+        setHasStableIds(true);
+    }
+
+    public void setService(@Nullable MusicService service) {
+        this.service = service;
+        cursor = service != null ? service.getQueueCursor() : -1;
+        notifyDataSetChanged();
+    }
+
+    /** Moves the current-track mark after a skip. */
+    public void onTrackChanged() {
+        updateCursor();
+    }
+
+    public int getCursor() {
+        return cursor;
+    }
+
+    @Override
+    public void onQueueReset() {
+        cursor = service != null ? service.getQueueCursor() : -1;
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public void onQueueItemMoved(int from, int to) {
+        notifyItemMoved(from, to);
+        updateCursor();
+    }
+
+    @Override
+    public void onQueueItemsRemoved(int start, int count) {
+        notifyItemRangeRemoved(start, count);
+        updateCursor();
+    }
+
+    /** Drag, swipe-to-remove and swipe-to-play-next for the sheet's list. */
+    public ItemTouchHelper createTouchHelper() {
+        return new ItemTouchHelper(
+            new ItemTouchHelper.SimpleCallback(
+                ItemTouchHelper.UP | ItemTouchHelper.DOWN,
+                ItemTouchHelper.LEFT | ItemTouchHelper.RIGHT
+            ) {
+                @Override
+                public boolean onMove(
+                    @NonNull RecyclerView recyclerView,
+                    @NonNull RecyclerView.ViewHolder from,
+                    @NonNull RecyclerView.ViewHolder to
+                ) {
+                    if (service == null) return false;
+                    // Answered with onQueueItemMoved, which moves the row
+                    service.moveQueueItem(
+                        from.getBindingAdapterPosition(),
+                        to.getBindingAdapterPosition()
+                    );
+                    return true;
+                }
+
+                @Override
+                public void onSwiped(
+                    @NonNull RecyclerView.ViewHolder holder,
+                    int direction
+                ) {
+                    int position = holder.getBindingAdapterPosition();
+                    if (
+                        service == null ||
+                        position == RecyclerView.NO_POSITION
+                    ) {
+                        return;
+                    }
+                    if (direction == ItemTouchHelper.LEFT) {
+                        service.removeQueueItem(position);
+                    } else {
+                        // The row stays, so bring it back from the swipe
+                        notifyItemChanged(service.playQueueItemNext(position));
+                    }
+                }
+            }
+        );
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return service != null
+            ? service.getQueuePosition(position)
+            : RecyclerView.NO_ID;
+    }
+
+    @NonNull
+    @Override
+    public QueueViewHolder onCreateViewHolder(
+        @NonNull ViewGroup parent,
+        int viewType
+    ) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(
+            R.layout.item_song,
+            parent,
+            false
+        );
+        return new QueueViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull QueueViewHolder holder, int position) {
+        if (service == null) return;
+        holder.bind(service.getQueueSongId(position), position == cursor);
+    }
+
+    @Override
+    public void onViewRecycled(@NonNull QueueViewHolder holder) {
+        super.onViewRecycled(holder);
+        holder.songId = 0;
+        AlbumArtLoader.get(holder.itemView.getContext()).cancel(
+            holder.imgAlbumArt
+        );
+    }
+
+    @Override
+    public int getItemCount() {
+        return service != null ? service.getQueueLength() : 0;
+    }
+
+    private void updateCursor() {
+        int old = cursor;
+        cursor = service != null ? service.getQueueCursor() : -1;
+        if (old == cursor) return;
+        if (old >= 0 && old < getItemCount()) notifyItemChanged(old);
+        if (cursor >= 0) notifyItemChanged(cursor);
+    }
+
+    public class QueueViewHolder extends RecyclerView.ViewHolder {
+
+        private final ImageView imgAlbumArt;
+        private final TextView tvTitle;
+        private final TextView tvArtist;
+        private final TextView tvDuration;
+        private final ColorStateList titleColors;
+        // Song this row is showing; stale row callbacks are ignored
+        private long songId;
+
+        public QueueViewHolder(@NonNull View itemView) {
+            super(itemView);
+            imgAlbumArt = itemView.findViewById(R.id.imgAlbumArt);
+            tvTitle = itemView.findViewById(R.id.tvTitle);
+            tvArtist = itemView.findViewById(R.id.tvArtist);
+            tvDuration = itemView.findViewById(R.id.tvDuration);
+            titleColors = tvTitle.getTextColors();
+
+            itemView.setOnClickListener(v -> {
+                int position = getBindingAdapterPosition();
+                if (service != null && position != RecyclerView.NO_POSITION) {
+                    service.skipToQueueItem(position);
+                }
+            });
+        }
+
+        void bind(long id, boolean current) {
+            if (current) {
+                tvTitle.setTextColor(
+                    ContextCompat.getColor(
+                        itemView.getContext(),
+                        R.color.primary_color
+                    )
+                );
+            } else {
+                tvTitle.setTextColor(titleColors);
+            }
+            if (id == songId) return;
+            songId = id;
+            tvTitle.setText("");
+            tvArtist.setText("");
+            tvDuration.setText("");
+            imgAlbumArt.setImageResource(R.drawable.ic_music_placeholder);
+            MusicLibrary.get(itemView.getContext())
+                .getPager()
+                .fetch(id, song -> {
+                    if (songId != id) return;
+                    if (song == null) {
+                        tvTitle.setText("Unknown Title");
+                        return;
+                    }
+                    tvTitle.setText(song.getTitle());
+                    tvArtist.setText(song.getArtist());
+                    tvDuration.setText(song.getFormattedDuration());
+                    AlbumArtLoader.get(itemView.getContext()).load(
+                        song,
+                        imgAlbumArt,
+                        ArtSize.LIST
+                    );
+                });
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.musicplayer;
+
+import androidx.annotation.Nullable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process-wide home of play queues, so screens, the service and pending
+ * intents pass a queue id and an index instead of parcelling every uri.
+ *
+ * Queues are immutable and every {@link #publish} hands out a new id. The
+ * queue {@link MusicService} is playing stays resolvable; beyond that only a
+ * few recent versions are kept, enough for a launch in flight. After
+ * process death nothing resolves and callers fall back to the service.
+ */
+public final class QueueStore {
+
+    private static final int MAX_RECENT = 4;
+
+    private static final QueueStore instance = new QueueStore();
+
+    private final Map<Long, PlayQueue> recent = new LinkedHashMap<>(
+        MAX_RECENT + 1,
+        0.75f,
+        true
+    ) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, PlayQueue> e) {
+            return size() > MAX_RECENT;
+        }
+    };
+
+    private long nextId = 1;
+
+    @Nullable
+    private PlayQueue current;
+
+    public static QueueStore get() {
+        return instance;
+    }
+
+    private QueueStore() {}
+
+    /** Stores {@code songs} as a new queue version and returns it. */
+    public synchronized PlayQueue publish(SongList songs) {
+        PlayQueue queue = new PlayQueue(nextId++, songs);
+        recent.put(queue.getId(), queue);
+        return queue;
+    }
+
+    @Nullable
+    public synchronized PlayQueue find(long id) {
+        if (current != null && current.getId() == id) return current;
+        return recent.get(id);
+    }
+
+    /** The queue being played, pinned by the service while it plays it. */
+    @Nullable
+    public synchronized PlayQueue getCurrent() {
+        return current;
+    }
+
+    synchronized void setCurrent(@Nullable PlayQueue queue) {
+        current = queue;
+    }
+}
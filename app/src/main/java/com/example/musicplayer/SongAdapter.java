@@ -1,7 +1,7 @@
 package com.example.musicplayer;
 
-import android.graphics.BitmapFactory;
-import android.media.MediaMetadataRetriever;
+import android.os.Handler;
+import android.os.Looper;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -9,21 +9,77 @@ import android.widget.ImageView;
 import android.widget.TextView;
 import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.RecyclerView;
-import java.util.List;
+import com.example.musicplayer.core.SongTable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class SongAdapter
-    extends RecyclerView.Adapter<SongAdapter.SongViewHolder> {
+    extends RecyclerView.Adapter<SongAdapter.SongViewHolder>
+    implements SongPager.Listener {
 
     public interface OnSongClickListener {
         void onSongClick(int position);
     }
 
-    private final List<SongItem> songList;
+    private static final ExecutorService DIFF_EXECUTOR =
+        Executors.newSingleThreadExecutor(r -> new Thread(r, "song-diff"));
+
+    private SongList songs;
     private final OnSongClickListener listener;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Bumped per submit so a slow diff never lands over a newer list
+    private volatile int diffGeneration;
 
-    public SongAdapter(List<SongItem> songList, OnSongClickListener listener) {
-        this.songList = songList;
+    public SongAdapter(SongList songs, OnSongClickListener listener) {
+        this.songs = songs;
         this.listener = listener;
+        setHasStableIds(true);
+    }
+
+    public SongList getSongs() {
+        return songs;
+    }
+
+    /**
+     * Replaces the list, dispatching only the rows that were inserted,
+     * removed, moved or changed. The diff runs in the background.
+     */
+    public void submitSongs(SongList newSongs) {
+        SongList oldSongs = songs;
+        int generation = ++diffGeneration;
+        if (oldSongs == newSongs) return;
+        if (oldSongs.isEmpty() || newSongs.isEmpty()) {
+            songs = newSongs;
+            notifyDataSetChanged();
+            return;
+        }
+
+        DIFF_EXECUTOR.execute(() -> {
+            // Superseded while queued
+            if (generation != diffGeneration) return;
+            SongListDiff diff = SongListDiff.compute(oldSongs, newSongs);
+            mainHandler.post(() -> {
+                if (generation != diffGeneration) return;
+                songs = newSongs;
+                if (diff != null) {
+                    diff.dispatchUpdatesTo(this);
+                } else {
+                    notifyDataSetChanged();
+                }
+            });
+        });
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return songs.getId(position);
+    }
+
+    @Override
+    public void onRowsLoaded(SongList list, int from, int count) {
+        if (list == songs) {
+            notifyItemRangeChanged(from, count);
+        }
     }
 
     @NonNull
@@ -42,13 +98,29 @@ public class SongAdapter
 
     @Override
     public void onBindViewHolder(@NonNull SongViewHolder holder, int position) {
-        SongItem song = songList.get(position);
-        holder.bind(song, position);
+        long start = Metrics.begin("SongAdapter.bind");
+        try {
+            if (songs.read(position, holder.row)) {
+                holder.bind(holder.row, position);
+            } else {
+                holder.bindPlaceholder();
+            }
+        } finally {
+            Metrics.end(Metrics.BIND_US, start);
+        }
+    }
+
+    @Override
+    public void onViewRecycled(@NonNull SongViewHolder holder) {
+        super.onViewRecycled(holder);
+        AlbumArtLoader.get(holder.itemView.getContext()).cancel(
+            holder.imgAlbumArt
+        );
     }
 
     @Override
     public int getItemCount() {
-        return songList.size();
+        return songs.size();
     }
 
     public class SongViewHolder extends RecyclerView.ViewHolder {
@@ -57,6 +129,8 @@ public class SongAdapter
         private TextView tvTitle;
         private TextView tvArtist;
         private TextView tvDuration;
+        // Refilled on every bind instead of holding a row object per song
+        private final SongTable.Row row = new SongTable.Row();
 
         public SongViewHolder(@NonNull View itemView) {
             super(itemView);
@@ -66,7 +140,7 @@ public class SongAdapter
             tvDuration = itemView.findViewById(R.id.tvDuration);
         }
 
-        public void bind(SongItem song, int position) {
+        public void bind(SongTable.Row song, int position) {
             tvTitle.setText(song.getTitle());
             tvArtist.setText(song.getArtist());
             tvDuration.setText(song.getFormattedDuration());
@@ -74,10 +148,27 @@ public class SongAdapter
             // Load album art
             loadAlbumArt(song);
 
+            bindClick();
+        }
+
+        /** Row whose page is still being read; refreshed once it arrives. */
+        public void bindPlaceholder() {
+            tvTitle.setText("");
+            tvArtist.setText("");
+            tvDuration.setText("");
+            AlbumArtLoader.get(itemView.getContext()).cancel(imgAlbumArt);
+            imgAlbumArt.setImageResource(R.drawable.ic_music_placeholder);
+
+            bindClick();
+        }
+
+        private void bindClick() {
             // Set click listener
             itemView.setOnClickListener(v -> {
-                if (listener != null) {
-                    listener.onSongClick(position);
+                // Diffs move rows without rebinding them
+                int current = getBindingAdapterPosition();
+                if (listener != null && current != RecyclerView.NO_POSITION) {
+                    listener.onSongClick(current);
                 }
             });
 
@@ -86,31 +177,12 @@ public class SongAdapter
             itemView.setFocusable(true);
         }
 
-        private void loadAlbumArt(SongItem song) {
-            try {
-                MediaMetadataRetriever retriever = new MediaMetadataRetriever();
-                retriever.setDataSource(itemView.getContext(), song.getUri());
-                byte[] albumArt = retriever.getEmbeddedPicture();
-
-                if (albumArt != null) {
-                    imgAlbumArt.setImageBitmap(
-                        BitmapFactory.decodeByteArray(
-                            albumArt,
-                            0,
-                            albumArt.length
-                        )
-                    );
-                } else {
-                    imgAlbumArt.setImageResource(
-                        R.drawable.ic_music_placeholder
-                    );
-                }
-
-                retriever.release();
-            } catch (Exception e) {
-                // If we can't load album art, use placeholder
-                imgAlbumArt.setImageResource(R.drawable.ic_music_placeholder);
-            }
+        private void loadAlbumArt(SongTable.Row song) {
+            AlbumArtLoader.get(itemView.getContext()).load(
+                song,
+                imgAlbumArt,
+                ArtSize.LIST
+            );
         }
     }
 }
@@ -1,13 +1,22 @@
 package com.example.musicplayer;
 
 import android.net.Uri;
+import java.util.Objects;
 
+/**
+ * A song as a scan finds it, on its way into {@link LibraryDatabase}. Lists
+ * read rows back through a {@link com.example.musicplayer.core.SongTable}.
+ */
 public class SongItem {
 
+    private long id;
+    private long albumId;
     private String title;
     private String artist;
     private String album;
     private long duration;
+    private long dateAdded;
+    private long dateModified;
     private Uri uri;
     private String path;
 
@@ -31,6 +40,22 @@ public class SongItem {
         this.path = path;
     }
 
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public long getAlbumId() {
+        return albumId;
+    }
+
+    public void setAlbumId(long albumId) {
+        this.albumId = albumId;
+    }
+
     public String getTitle() {
         return title;
     }
@@ -63,6 +88,23 @@ public class SongItem {
         this.duration = duration;
     }
 
+    public long getDateAdded() {
+        return dateAdded;
+    }
+
+    public void setDateAdded(long dateAdded) {
+        this.dateAdded = dateAdded;
+    }
+
+    /** Source file modification time, in seconds as MediaStore reports it. */
+    public long getDateModified() {
+        return dateModified;
+    }
+
+    public void setDateModified(long dateModified) {
+        this.dateModified = dateModified;
+    }
+
     public Uri getUri() {
         return uri;
     }
@@ -89,11 +131,40 @@ public class SongItem {
         return String.format("%d:%02d", minutes, seconds);
     }
 
+    /** Same song and same displayed data; {@link #getId()} is the identity. */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof SongItem)) return false;
+        SongItem other = (SongItem) o;
+        return (
+            id == other.id &&
+            albumId == other.albumId &&
+            duration == other.duration &&
+            dateAdded == other.dateAdded &&
+            dateModified == other.dateModified &&
+            Objects.equals(title, other.title) &&
+            Objects.equals(artist, other.artist) &&
+            Objects.equals(album, other.album) &&
+            Objects.equals(uri, other.uri) &&
+            Objects.equals(path, other.path)
+        );
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(id);
+    }
+
     @Override
     public String toString() {
         return (
             "SongItem{" +
-            "title='" +
+            "id=" +
+            id +
+            ", albumId=" +
+            albumId +
+            ", title='" +
             title +
             '\'' +
             ", artist='" +
@@ -0,0 +1,101 @@
+package com.example.musicplayer;
+
+import android.net.Uri;
+import androidx.annotation.Nullable;
+import com.example.musicplayer.core.LongIntMap;
+import com.example.musicplayer.core.SongTable;
+import java.util.Arrays;
+
+/**
+ * An ordered, immutable list of songs backed by ids. Rows are materialized
+ * on demand through the owning {@link SongPager}.
+ */
+public final class SongList {
+
+    private final SongPager pager;
+    final long[] ids;
+    // Source modification time per row, tells changed rows apart in diffs
+    final long[] versions;
+    // Only set for folder libraries, whose ids are not MediaStore ids
+    @Nullable
+    final String[] documentUris;
+
+    SongList(
+        SongPager pager,
+        long[] ids,
+        long[] versions,
+        @Nullable String[] documentUris
+    ) {
+        this.pager = pager;
+        this.ids = ids;
+        this.versions = versions;
+        this.documentUris = documentUris;
+    }
+
+    static SongList empty(SongPager pager) {
+        return new SongList(pager, new long[0], new long[0], null);
+    }
+
+    /** The rows at {@code positions}, in that order. */
+    SongList subset(int[] positions) {
+        long[] subIds = new long[positions.length];
+        long[] subVersions = new long[positions.length];
+        String[] subUris = documentUris != null
+            ? new String[positions.length]
+            : null;
+        for (int i = 0; i < positions.length; i++) {
+            int p = positions[i];
+            subIds[i] = ids[p];
+            subVersions[i] = versions[p];
+            if (subUris != null) subUris[i] = documentUris[p];
+        }
+        return new SongList(pager, subIds, subVersions, subUris);
+    }
+
+    /**
+     * The rows with the {@code wanted} ids, in that order. Ids that are not
+     * in this list are skipped.
+     */
+    SongList select(long[] wanted) {
+        LongIntMap positions = new LongIntMap(ids.length);
+        for (int i = 0; i < ids.length; i++) positions.put(ids[i], i);
+        int[] found = new int[wanted.length];
+        int count = 0;
+        for (long id : wanted) {
+            int position = positions.get(id);
+            if (position >= 0) found[count++] = position;
+        }
+        return subset(Arrays.copyOf(found, count));
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    public boolean isEmpty() {
+        return ids.length == 0;
+    }
+
+    public long getId(int position) {
+        return ids[position];
+    }
+
+    public long getVersion(int position) {
+        return versions[position];
+    }
+
+    /**
+     * Copies the row at {@code position} into {@code row}; false while its
+     * page is loading.
+     */
+    public boolean read(int position, SongTable.Row row) {
+        return pager.read(this, position, row);
+    }
+
+    public Uri getUri(int position) {
+        return LibraryDatabase.songUri(
+            ids[position],
+            documentUris != null ? documentUris[position] : null
+        );
+    }
+}
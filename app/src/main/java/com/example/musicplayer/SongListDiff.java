@@ -0,0 +1,172 @@
+package com.example.musicplayer;
+
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListUpdateCallback;
+import androidx.recyclerview.widget.RecyclerView;
+import com.example.musicplayer.core.LongIntMap;
+
+/**
+ * Minimal update events between two {@link SongList}s.
+ *
+ * Songs are matched by id and count as changed when their version differs.
+ * The common prefix and suffix are skipped in O(n) before DiffUtil sees the
+ * lists, so a rescan that touches a few rows only diffs the window around
+ * them. DiffUtil costs about O((n + m) * d) for a window of n and m rows and
+ * d edits, more with move detection, and a re-sort makes d close to n. So
+ * d is estimated in O(n) first, and a diff that would cost too much yields
+ * null; the caller then falls back to a full rebind, which stable ids keep
+ * cheap.
+ */
+final class SongListDiff {
+
+    // Beyond these the diff could block the diff thread for seconds
+    private static final int MAX_EDITS = 1_000;
+    private static final long MAX_COST = 8_000_000;
+
+    private final int offset;
+    private final DiffUtil.DiffResult result;
+
+    private SongListDiff(int offset, DiffUtil.DiffResult result) {
+        this.offset = offset;
+        this.result = result;
+    }
+
+    /** Computes the diff; call off the main thread. */
+    @Nullable
+    static SongListDiff compute(SongList oldList, SongList newList) {
+        int oldSize = oldList.size();
+        int newSize = newList.size();
+
+        int prefix = 0;
+        int max = Math.min(oldSize, newSize);
+        while (prefix < max && same(oldList, prefix, newList, prefix)) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (
+            suffix < max - prefix &&
+            same(oldList, oldSize - 1 - suffix, newList, newSize - 1 - suffix)
+        ) {
+            suffix++;
+        }
+
+        int oldWindow = oldSize - prefix - suffix;
+        int newWindow = newSize - prefix - suffix;
+        int edits = estimateEdits(
+            oldList,
+            newList,
+            prefix,
+            oldWindow,
+            newWindow
+        );
+        if (
+            edits > MAX_EDITS ||
+            (long) (oldWindow + newWindow) * edits > MAX_COST
+        ) {
+            return null;
+        }
+
+        final int start = prefix;
+        DiffUtil.DiffResult result = DiffUtil.calculateDiff(
+            new DiffUtil.Callback() {
+                @Override
+                public int getOldListSize() {
+                    return oldWindow;
+                }
+
+                @Override
+                public int getNewListSize() {
+                    return newWindow;
+                }
+
+                @Override
+                public boolean areItemsTheSame(int oldPos, int newPos) {
+                    return (
+                        oldList.getId(start + oldPos) ==
+                        newList.getId(start + newPos)
+                    );
+                }
+
+                @Override
+                public boolean areContentsTheSame(int oldPos, int newPos) {
+                    return (
+                        oldList.getVersion(start + oldPos) ==
+                        newList.getVersion(start + newPos)
+                    );
+                }
+            },
+            true
+        );
+        return new SongListDiff(start, result);
+    }
+
+    void dispatchUpdatesTo(RecyclerView.Adapter<?> adapter) {
+        result.dispatchUpdatesTo(
+            new ListUpdateCallback() {
+                @Override
+                public void onInserted(int position, int count) {
+                    adapter.notifyItemRangeInserted(offset + position, count);
+                }
+
+                @Override
+                public void onRemoved(int position, int count) {
+                    adapter.notifyItemRangeRemoved(offset + position, count);
+                }
+
+                @Override
+                public void onMoved(int fromPosition, int toPosition) {
+                    adapter.notifyItemMoved(
+                        offset + fromPosition,
+                        offset + toPosition
+                    );
+                }
+
+                @Override
+                public void onChanged(int position, int count, Object payload) {
+                    adapter.notifyItemRangeChanged(
+                        offset + position,
+                        count,
+                        payload
+                    );
+                }
+            }
+        );
+    }
+
+    /**
+     * Roughly how many edits turn the old window into the new one: songs
+     * only in one of them, plus two for every place where the songs in
+     * both step back in the old order, as a moved block does.
+     */
+    private static int estimateEdits(
+        SongList oldList,
+        SongList newList,
+        int start,
+        int oldWindow,
+        int newWindow
+    ) {
+        LongIntMap oldPositions = new LongIntMap(oldWindow);
+        for (int i = 0; i < oldWindow; i++) {
+            oldPositions.put(oldList.getId(start + i), i);
+        }
+        int edits = 0;
+        int common = 0;
+        int last = -1;
+        for (int i = 0; i < newWindow; i++) {
+            int p = oldPositions.get(newList.getId(start + i));
+            if (p < 0) {
+                edits++;
+                continue;
+            }
+            common++;
+            if (p < last) edits += 2;
+            last = p;
+        }
+        return edits + oldWindow - common;
+    }
+
+    private static boolean same(SongList a, int i, SongList b, int j) {
+        return a.getId(i) == b.getId(j) && a.getVersion(i) == b.getVersion(j);
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.musicplayer;
+
+import android.os.Handler;
+import android.os.Looper;
+import androidx.annotation.Nullable;
+import com.example.musicplayer.core.SongTable;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Reads library rows from {@link LibraryDatabase} a page at a time.
+ *
+ * Lists only hold song ids; the rows themselves live in a {@link SongTable},
+ * an LRU window of a few pages shared by every list, so memory does not
+ * grow with the library.
+ * A missing row is loaded together with the rest of its page in the
+ * background and announced through {@link Listener}.
+ */
+public final class SongPager {
+
+    static final int PAGE_SIZE = 64;
+    private static final int MAX_PAGES = 12;
+
+    public interface Listener {
+        /** Rows {@code [from, from + count)} of {@code list} are now cached. */
+        void onRowsLoaded(SongList list, int from, int count);
+    }
+
+    public interface RowCallback {
+        /** Called on the main thread; null if the song is gone. */
+        void onRowLoaded(@Nullable SongTable.Row song);
+    }
+
+    private final LibraryDatabase database;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(
+        r -> new Thread(r, "song-pager")
+    );
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final SongTable rows = new SongTable(PAGE_SIZE * MAX_PAGES);
+    // "list identity + page" pairs currently being read, main thread only
+    private final Set<String> pending = new HashSet<>();
+
+    @Nullable
+    private Listener listener;
+
+    SongPager(LibraryDatabase database) {
+        this.database = database;
+    }
+
+    public void setListener(@Nullable Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Reads the ids in display order plus the first page of rows, so the
+     * first screen can bind as soon as the list is published. Call off the
+     * main thread.
+     */
+    SongList query(@Nullable String source) {
+        LibraryDatabase.SortedIds sorted = database.loadSorted(source);
+        SongList list = new SongList(
+            this,
+            sorted.ids,
+            sorted.modified,
+            sorted.uris
+        );
+        database.loadRows(list.ids, 0, Math.min(PAGE_SIZE, list.size()), rows);
+        return list;
+    }
+
+    /** Forgets every cached row. */
+    void invalidate() {
+        rows.clear();
+    }
+
+    /**
+     * Refreshes cached rows a scan changed, so visible rows keep their data
+     * instead of falling back to placeholders. Call on any thread.
+     */
+    void update(Collection<SongItem> upserts, Collection<Long> deletedIds) {
+        for (SongItem song : upserts) {
+            if (!rows.contains(song.getId())) continue;
+            rows.put(
+                song.getId(),
+                song.getAlbumId(),
+                song.getTitle(),
+                song.getArtist(),
+                song.getAlbum(),
+                song.getDuration(),
+                song.getDateModified(),
+                // Folder songs have negative ids and a document uri
+                song.getId() < 0 ? song.getUri().toString() : null
+            );
+        }
+        for (Long id : deletedIds) rows.remove(id);
+    }
+
+    /**
+     * Hands over a copy of the row for {@code id}, which the callback may
+     * keep: synchronously when it is cached, otherwise after reading it in
+     * the background. Main thread only.
+     */
+    public void fetch(long id, RowCallback callback) {
+        SongTable.Row song = new SongTable.Row();
+        if (rows.read(id, song)) {
+            callback.onRowLoaded(song);
+            return;
+        }
+        executor.execute(() -> {
+            database.loadRows(new long[] { id }, 0, 1, rows);
+            boolean found = rows.read(id, song);
+            mainHandler.post(() -> callback.onRowLoaded(found ? song : null));
+        });
+    }
+
+    /**
+     * Copies the row into {@code row}, or schedules its page and returns
+     * false.
+     */
+    boolean read(SongList list, int position, SongTable.Row row) {
+        boolean cached = rows.read(list.ids[position], row);
+        int page = position / PAGE_SIZE;
+        if (!cached) {
+            loadPage(list, page);
+        } else if (position % PAGE_SIZE >= PAGE_SIZE * 3 / 4) {
+            // Close to the end of this page, start on the next one
+            loadPage(list, page + 1);
+        }
+        return cached;
+    }
+
+    private void loadPage(SongList list, int page) {
+        int from = page * PAGE_SIZE;
+        if (from >= list.size()) return;
+        int to = Math.min(from + PAGE_SIZE, list.size());
+
+        // Skip the read if the whole page is still in the window
+        boolean cached = true;
+        for (int i = from; i < to && cached; i++) {
+            cached = rows.contains(list.ids[i]);
+        }
+        if (cached) return;
+
+        String key = System.identityHashCode(list) + ":" + page;
+        if (!pending.add(key)) return;
+
+        executor.execute(() -> {
+            database.loadRows(list.ids, from, to, rows);
+            mainHandler.post(() -> {
+                pending.remove(key);
+                if (listener != null) {
+                    listener.onRowsLoaded(list, from, to - from);
+                }
+            });
+        });
+    }
+}
@@ -0,0 +1,21 @@
+plugins {
+    `java-library`
+    alias(libs.plugins.jmh)
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+dependencies {
+    testImplementation(libs.junit)
+}
+
+jmh {
+    jmhVersion = libs.versions.jmh
+    warmupIterations = 2
+    iterations = 3
+    fork = 1
+    resultFormat = "JSON"
+}
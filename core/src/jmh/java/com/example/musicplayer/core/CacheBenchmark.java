@@ -0,0 +1,91 @@
+package com.example.musicplayer.core;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Row caches while scrolling: hits inside the cached window, and misses
+ * that load a row and evict the oldest. The generic object cache is the
+ * baseline for the columnar {@link SongTable} the song lists use.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CacheBenchmark {
+
+    // Same window as SongPager: 12 pages of 64 rows
+    private static final int CAPACITY = 768;
+
+    @Param({ "1000", "10000", "100000" })
+    public int size;
+
+    private LibraryFixture library;
+    private long[] ids;
+    private LongLruCache<Object> cache;
+    private final Object row = new Object();
+    private SongTable table;
+    private final SongTable.Row view = new SongTable.Row();
+    private int hit;
+    private int miss;
+
+    @Setup
+    public void setUp() {
+        library = new LibraryFixture(size);
+        ids = library.ids;
+        cache = new LongLruCache<>(CAPACITY);
+        table = new SongTable(CAPACITY);
+        for (int i = 0; i < CAPACITY && i < size; i++) {
+            cache.put(ids[i], row);
+            putRow(i);
+        }
+    }
+
+    @Benchmark
+    public Object hit() {
+        hit = hit + 1 < Math.min(CAPACITY, size) ? hit + 1 : 0;
+        return cache.get(ids[hit]);
+    }
+
+    @Benchmark
+    public Object missAndLoad() {
+        miss = miss + 1 < size ? miss + 1 : 0;
+        long id = ids[miss];
+        Object cached = cache.get(id);
+        if (cached == null) cache.put(id, row);
+        return cached;
+    }
+
+    @Benchmark
+    public boolean tableHit() {
+        hit = hit + 1 < Math.min(CAPACITY, size) ? hit + 1 : 0;
+        return table.read(ids[hit], view);
+    }
+
+    @Benchmark
+    public boolean tableMissAndLoad() {
+        miss = miss + 1 < size ? miss + 1 : 0;
+        boolean cached = table.read(ids[miss], view);
+        if (!cached) putRow(miss);
+        return cached;
+    }
+
+    private void putRow(int i) {
+        table.put(
+            ids[i],
+            i / 12,
+            library.titles[i],
+            library.artists[i],
+            library.albums[i],
+            library.durations[i],
+            library.dateAdded[i],
+            null
+        );
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.musicplayer.core;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Building the in-memory indexes after a library scan. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class IngestBenchmark {
+
+    @Param({ "1000", "10000", "100000" })
+    public int size;
+
+    private LibraryFixture library;
+
+    @Setup
+    public void setUp() {
+        library = new LibraryFixture(size);
+    }
+
+    @Benchmark
+    public SearchIndex searchIndex() {
+        return library.searchIndex();
+    }
+
+    @Benchmark
+    public SortKeys sortKeys() {
+        return library.sortKeys();
+    }
+
+    @Benchmark
+    public LongIntMap positions() {
+        LongIntMap positions = new LongIntMap(size);
+        for (int i = 0; i < size; i++) positions.put(library.ids[i], i);
+        return positions;
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.musicplayer.core;
+
+import java.util.Random;
+
+/**
+ * A synthetic library shaped like a real one: many songs per album, many
+ * albums per artist, titles drawn from a small vocabulary so words repeat.
+ * The same size always yields the same library.
+ */
+final class LibraryFixture {
+
+    private static final String[] WORDS = {
+        "love", "night", "light", "heart", "fire", "blue", "dream", "rain",
+        "summer", "city", "river", "gold", "road", "home", "wild", "echo",
+        "shadow", "ocean", "silver", "storm", "paper", "glass", "dance",
+        "midnight", "sugar", "stone", "ghost", "neon", "velvet", "winter",
+        "cafe", "naive", "se\u00f1or", "\u00fcber", "d\u00e9j\u00e0",
+        "gar\u00e7on",
+    };
+
+    final long[] ids;
+    final String[] titles;
+    final String[] artists;
+    final String[] albums;
+    final long[] durations;
+    final long[] dateAdded;
+
+    LibraryFixture(int size) {
+        Random random = new Random(size);
+        ids = new long[size];
+        titles = new String[size];
+        artists = new String[size];
+        albums = new String[size];
+        durations = new long[size];
+        dateAdded = new long[size];
+        int albumCount = Math.max(1, size / 12);
+        int artistCount = Math.max(1, albumCount / 3);
+        for (int i = 0; i < size; i++) {
+            // MediaStore ids are sparse and roughly increasing
+            ids[i] = 1000L + i * 3L + random.nextInt(3);
+            titles[i] = phrase(random, 1 + random.nextInt(4));
+            int album = random.nextInt(albumCount);
+            albums[i] = phrase(new Random(album), 2) + " " + album;
+            artists[i] = "Artist " + album % artistCount;
+            durations[i] = 60_000 + random.nextInt(420_000);
+            dateAdded[i] = 1_500_000_000L + random.nextInt(200_000_000);
+        }
+    }
+
+    SearchIndex searchIndex() {
+        SearchIndex index = new SearchIndex();
+        for (int i = 0; i < ids.length; i++) {
+            index.put(ids[i], titles[i], artists[i], albums[i]);
+        }
+        index.commit();
+        return index;
+    }
+
+    SortKeys sortKeys() {
+        SortKeys.Builder builder = new SortKeys.Builder(ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            builder.add(
+                ids[i],
+                titles[i],
+                artists[i],
+                albums[i],
+                durations[i],
+                dateAdded[i]
+            );
+        }
+        return builder.build();
+    }
+
+    private static String phrase(Random random, int words) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) sb.append(' ');
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        sb.setCharAt(0, Character.toUpperCase(sb.charAt(0)));
+        return sb.toString();
+    }
+}
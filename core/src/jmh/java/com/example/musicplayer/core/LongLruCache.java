@@ -0,0 +1,33 @@
+package com.example.musicplayer.core;
+
+/**
+ * A least-recently-used object cache keyed by primitive {@code long}s, the
+ * baseline {@link CacheBenchmark} holds {@link SongTable} against.
+ *
+ * Values sit in the fixed slots of an {@link LruSlots}, so neither a hit
+ * nor a miss allocates or boxes. Key 0 is reserved, as in
+ * {@link LongIntMap}. Methods are synchronized, like
+ * {@code android.util.LruCache}.
+ */
+final class LongLruCache<V> {
+
+    private final LruSlots slots;
+    private final Object[] values;
+
+    LongLruCache(int maxSize) {
+        slots = new LruSlots(maxSize);
+        values = new Object[maxSize];
+    }
+
+    /** The value for {@code key}, now most recently used, or null. */
+    @SuppressWarnings("unchecked")
+    synchronized V get(long key) {
+        int slot = slots.touch(key);
+        return slot < 0 ? null : (V) values[slot];
+    }
+
+    /** Stores {@code value}, evicting the least recently used if full. */
+    synchronized void put(long key, V value) {
+        values[slots.acquire(key)] = value;
+    }
+}
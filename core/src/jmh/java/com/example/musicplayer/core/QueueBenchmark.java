@@ -0,0 +1,58 @@
+package com.example.musicplayer.core;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Queue edits as made from the player and the "Up next" sheet. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class QueueBenchmark {
+
+    @Param({ "1000", "10000", "100000" })
+    public int size;
+
+    private QueueEngine engine;
+    private long seed;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        engine = new QueueEngine(size, size / 2);
+        engine.setRepeat(RepeatMode.ALL);
+    }
+
+    @Benchmark
+    public int next() {
+        return engine.next(false);
+    }
+
+    @Benchmark
+    public boolean toggleShuffle() {
+        engine.setShuffle(!engine.isShuffled(), seed++);
+        return engine.isShuffled();
+    }
+
+    /** Dragging a row just below the current one, as the sheet does. */
+    @Benchmark
+    public int moveNearCursor() {
+        int cursor = engine.getCursor();
+        int from = Math.min(engine.size() - 1, cursor + 5);
+        engine.move(from, Math.min(engine.size() - 1, cursor + 1));
+        return engine.getCursor();
+    }
+
+    /** "Play next" on a row far from the cursor. */
+    @Benchmark
+    public int playNextFar() {
+        int cursor = engine.getCursor();
+        return engine.playNext((cursor + engine.size() / 2) % engine.size());
+    }
+}
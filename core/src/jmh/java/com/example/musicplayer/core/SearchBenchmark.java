@@ -0,0 +1,53 @@
+package com.example.musicplayer.core;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Queries as typed into the search field, one keystroke at a time. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SearchBenchmark {
+
+    @Param({ "1000", "10000", "100000" })
+    public int size;
+
+    private long[] ids;
+    private SearchIndex index;
+
+    @Setup
+    public void setUp() {
+        LibraryFixture library = new LibraryFixture(size);
+        ids = library.ids;
+        index = library.searchIndex();
+    }
+
+    /** A one-letter prefix matching a large share of the library. */
+    @Benchmark
+    public int[] broadPrefix() {
+        return index.search("s", ids);
+    }
+
+    @Benchmark
+    public int[] twoWords() {
+        return index.search("night ri", ids);
+    }
+
+    /** Folded accents, as typed without them. */
+    @Benchmark
+    public int[] folded() {
+        return index.search("senor", ids);
+    }
+
+    @Benchmark
+    public int[] noMatch() {
+        return index.search("zzz", ids);
+    }
+}
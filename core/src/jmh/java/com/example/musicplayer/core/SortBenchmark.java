@@ -0,0 +1,39 @@
+package com.example.musicplayer.core;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Re-sorting the song list when the user picks another order. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SortBenchmark {
+
+    @Param({ "1000", "10000", "100000" })
+    public int size;
+
+    @Param({ "TITLE", "ARTIST", "DATE_ADDED" })
+    public SortMode mode;
+
+    private long[] ids;
+    private SortKeys keys;
+
+    @Setup
+    public void setUp() {
+        LibraryFixture library = new LibraryFixture(size);
+        ids = library.ids;
+        keys = library.sortKeys();
+    }
+
+    @Benchmark
+    public int[] order() {
+        return keys.order(ids, mode);
+    }
+}
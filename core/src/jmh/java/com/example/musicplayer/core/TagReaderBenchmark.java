@@ -0,0 +1,90 @@
+package com.example.musicplayer.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Reading tags from a corpus of every supported format, one file per
+ * operation. The baseline reads each file whole through the same kind of
+ * channel, standing in for extractors that parse the complete file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TagReaderBenchmark {
+
+    private static final int FILES = 70;
+
+    private Path dir;
+    private Path[] corpus;
+    private final TagReader reader = new TagReader();
+    private final Tags tags = new Tags();
+    private final ByteBuffer whole = ByteBuffer.allocate(1 << 20);
+
+    @Setup
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("tag-corpus");
+        corpus = TagFixtures.writeCorpus(dir, FILES);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files
+                .sorted(Comparator.reverseOrder())
+                .forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FILES)
+    public long tagReader() throws IOException {
+        long total = 0;
+        for (Path file : corpus) {
+            try (FileChannel channel = open(file)) {
+                reader.read(channel, tags);
+            }
+            total += tags.getDurationMs();
+        }
+        return total;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FILES)
+    public long wholeFile() throws IOException {
+        long total = 0;
+        for (Path file : corpus) {
+            try (FileChannel channel = open(file)) {
+                long position = 0;
+                int n;
+                do {
+                    whole.clear();
+                    n = channel.read(whole, position);
+                    position += Math.max(n, 0);
+                } while (n > 0);
+                total += position;
+            }
+        }
+        return total;
+    }
+
+    private static FileChannel open(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.READ);
+    }
+}
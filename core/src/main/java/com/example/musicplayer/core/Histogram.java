@@ -0,0 +1,117 @@
+package com.example.musicplayer.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of non-negative {@code long} samples, such as
+ * latencies in microseconds.
+ *
+ * Values below 16 get a bucket each; above that every power of two is split
+ * into 16 buckets, so a reported percentile is within 1/16 of the true
+ * value. Recording is a few atomic adds and never allocates, so any thread,
+ * including the UI thread, may record while another takes a
+ * {@link Snapshot}. A snapshot taken during recording may miss samples that
+ * are in flight.
+ */
+public final class Histogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int BUCKETS = SUB + (63 - SUB_BITS) * SUB;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /** Adds one sample; negative values count as 0. */
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts.incrementAndGet(bucket(value));
+        sum.add(value);
+        long seen = max.get();
+        while (value > seen && !max.compareAndSet(seen, value)) {
+            seen = max.get();
+        }
+    }
+
+    /** Drops all samples; samples recorded meanwhile may survive in part. */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+        sum.reset();
+        max.set(0);
+    }
+
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+        return new Snapshot(copy, count, sum.sum(), max.get());
+    }
+
+    static int bucket(long value) {
+        if (value < SUB) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) - SUB;
+        return SUB + (exponent - SUB_BITS) * SUB + sub;
+    }
+
+    /** The largest value that falls into {@code bucket}. */
+    static long highestIn(int bucket) {
+        if (bucket < SUB) return bucket;
+        int shift = (bucket - SUB) / SUB;
+        long lowest = (long) (SUB + (bucket - SUB) % SUB) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /** The samples of a {@link Histogram} at one point in time. */
+    public static final class Snapshot {
+
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * The value {@code percent} of the samples are at or below, rounded
+         * up to its bucket; 0 without samples.
+         */
+        public long getPercentile(double percent) {
+            if (count == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(percent / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return Math.min(highestIn(i), max);
+            }
+            return max;
+        }
+    }
+}
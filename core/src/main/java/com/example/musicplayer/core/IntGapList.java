@@ -0,0 +1,119 @@
+package com.example.musicplayer.core;
+
+import java.util.Arrays;
+
+/**
+ * A list of ints in one array with a movable gap. Inserting or removing at
+ * the gap is O(1) and elsewhere costs the distance the gap has to travel,
+ * so edits clustered around one spot, like the queue around the playing
+ * track, never shift the whole array.
+ */
+public final class IntGapList {
+
+    private int[] data;
+    private int gapStart;
+    private int gapEnd;
+
+    public IntGapList(int capacity) {
+        data = new int[Math.max(capacity, 8)];
+        gapStart = 0;
+        gapEnd = data.length;
+    }
+
+    /** A list holding {@code values}, which it takes ownership of. */
+    public static IntGapList wrap(int[] values) {
+        IntGapList list = new IntGapList(0);
+        list.data = Arrays.copyOf(values, values.length + 8);
+        list.gapStart = values.length;
+        list.gapEnd = list.data.length;
+        return list;
+    }
+
+    public int size() {
+        return data.length - (gapEnd - gapStart);
+    }
+
+    public int get(int index) {
+        checkIndex(index, size());
+        return index < gapStart ? data[index] : data[index + gapEnd - gapStart];
+    }
+
+    public void set(int index, int value) {
+        checkIndex(index, size());
+        if (index < gapStart) data[index] = value;
+        else data[index + gapEnd - gapStart] = value;
+    }
+
+    public void insert(int index, int value) {
+        checkIndex(index, size() + 1);
+        if (gapStart == gapEnd) grow();
+        moveGap(index);
+        data[gapStart++] = value;
+    }
+
+    public int remove(int index) {
+        checkIndex(index, size());
+        moveGap(index);
+        return data[gapEnd++];
+    }
+
+    /** Moves the element at {@code from} so it ends up at {@code to}. */
+    public void move(int from, int to) {
+        if (from == to) return;
+        insert(to, remove(from));
+    }
+
+    /** Drops everything from {@code size} on. */
+    public void truncate(int size) {
+        checkIndex(size, size() + 1);
+        moveGap(size);
+        gapEnd = data.length;
+    }
+
+    /** Position of the first {@code value}, or -1. */
+    public int indexOf(int value) {
+        for (int i = 0; i < gapStart; i++) {
+            if (data[i] == value) return i;
+        }
+        for (int i = gapEnd; i < data.length; i++) {
+            if (data[i] == value) return i - (gapEnd - gapStart);
+        }
+        return -1;
+    }
+
+    public int[] toArray() {
+        int[] out = new int[size()];
+        System.arraycopy(data, 0, out, 0, gapStart);
+        System.arraycopy(data, gapEnd, out, gapStart, data.length - gapEnd);
+        return out;
+    }
+
+    private void moveGap(int index) {
+        if (index < gapStart) {
+            int count = gapStart - index;
+            System.arraycopy(data, index, data, gapEnd - count, count);
+            gapStart -= count;
+            gapEnd -= count;
+        } else if (index > gapStart) {
+            int count = index - gapStart;
+            System.arraycopy(data, gapEnd, data, gapStart, count);
+            gapStart += count;
+            gapEnd += count;
+        }
+    }
+
+    private void grow() {
+        int tail = data.length - gapEnd;
+        int[] grown = new int[data.length * 2];
+        System.arraycopy(data, 0, grown, 0, gapStart);
+        System.arraycopy(data, gapEnd, grown, grown.length - tail, tail);
+        gapEnd = grown.length - tail;
+        data = grown;
+    }
+
+    private static void checkIndex(int index, int bound) {
+        if (index < 0 || index >= bound) {
+            throw new IndexOutOfBoundsException(index + " of " + bound);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.musicplayer.core;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing map from song ids to non-negative {@code int} values,
+ * without boxing. Key 0 is reserved; no song has id 0. Not thread-safe.
+ */
+public final class LongIntMap {
+
+    private static final long EMPTY = 0;
+
+    private long[] keys;
+    private int[] values;
+    private int size;
+
+    public LongIntMap(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(4, expected * 2 - 1)) << 1;
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** The value for {@code key}, or -1; always -1 for the reserved key. */
+    public int get(long key) {
+        if (key == EMPTY) return -1;
+        int mask = keys.length - 1;
+        for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+            long k = keys[i];
+            if (k == key) return values[i];
+            if (k == EMPTY) return -1;
+        }
+    }
+
+    public void put(long key, int value) {
+        if (key == EMPTY) throw new IllegalArgumentException("Reserved key");
+        if ((size + 1) * 2 > keys.length) grow();
+        int mask = keys.length - 1;
+        int i = slot(key, mask);
+        while (keys[i] != EMPTY && keys[i] != key) i = (i + 1) & mask;
+        if (keys[i] == EMPTY) size++;
+        keys[i] = key;
+        values[i] = value;
+    }
+
+    /** Removes {@code key}; returns its value or -1. */
+    public int remove(long key) {
+        if (key == EMPTY) return -1;
+        int mask = keys.length - 1;
+        int i = slot(key, mask);
+        while (keys[i] != key) {
+            if (keys[i] == EMPTY) return -1;
+            i = (i + 1) & mask;
+        }
+        int removed = values[i];
+        size--;
+        // Shift later entries of the probe run back into the hole
+        int hole = i;
+        for (int j = (i + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask) {
+            int home = slot(keys[j], mask);
+            boolean movable = hole <= j
+                ? home <= hole || home > j
+                : home <= hole && home > j;
+            if (movable) {
+                keys[hole] = keys[j];
+                values[hole] = values[j];
+                hole = j;
+            }
+        }
+        keys[hole] = EMPTY;
+        return removed;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) put(oldKeys[i], oldValues[i]);
+        }
+    }
+
+    private static int slot(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.musicplayer.core;
+
+/**
+ * Fixed slots {@code [0, capacity)} handed out to {@code long} keys in
+ * least-recently-used order. Owners keep their values in arrays indexed by
+ * slot. A {@link LongIntMap} finds a key's slot and the recency list is
+ * threaded through two int arrays, so no operation allocates or boxes.
+ * Key 0 is reserved. Not thread-safe.
+ */
+final class LruSlots {
+
+    private final int capacity;
+    private final LongIntMap slots;
+    private final long[] keys;
+    // Recency list, most recent at head; -1 ends it
+    private final int[] prev;
+    private final int[] next;
+    private int head = -1;
+    private int tail = -1;
+    // Unused slots, chained through next
+    private int free;
+    private int size;
+
+    LruSlots(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity <= 0");
+        }
+        this.capacity = capacity;
+        slots = new LongIntMap(capacity);
+        keys = new long[capacity];
+        prev = new int[capacity];
+        next = new int[capacity];
+        resetFree();
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /** The slot of {@code key}, or -1. Does not change recency. */
+    int peek(long key) {
+        return slots.get(key);
+    }
+
+    /** The slot of {@code key}, now most recently used, or -1. */
+    int touch(long key) {
+        int slot = slots.get(key);
+        if (slot >= 0) {
+            unlink(slot);
+            linkFirst(slot);
+        }
+        return slot;
+    }
+
+    /**
+     * The slot of {@code key}, now most recently used. An absent key takes
+     * a free slot, or the least recently used one when all are taken; the
+     * caller then overwrites whatever that slot held.
+     */
+    int acquire(long key) {
+        int slot = touch(key);
+        if (slot >= 0) return slot;
+        if (free < 0) release(keys[tail]);
+        slot = free;
+        free = next[slot];
+        keys[slot] = key;
+        slots.put(key, slot);
+        linkFirst(slot);
+        size++;
+        return slot;
+    }
+
+    /** Frees the slot of {@code key}; returns it, or -1. */
+    int release(long key) {
+        int slot = slots.remove(key);
+        if (slot < 0) return -1;
+        unlink(slot);
+        next[slot] = free;
+        free = slot;
+        size--;
+        return slot;
+    }
+
+    void clear() {
+        slots.clear();
+        head = -1;
+        tail = -1;
+        size = 0;
+        resetFree();
+    }
+
+    private void linkFirst(int slot) {
+        prev[slot] = -1;
+        next[slot] = head;
+        if (head >= 0) prev[head] = slot;
+        head = slot;
+        if (tail < 0) tail = slot;
+    }
+
+    private void unlink(int slot) {
+        int p = prev[slot];
+        int n = next[slot];
+        if (p >= 0) next[p] = n;
+        else head = n;
+        if (n >= 0) prev[n] = p;
+        else tail = p;
+    }
+
+    private void resetFree() {
+        for (int i = 0; i < capacity; i++) {
+            next[i] = i + 1 < capacity ? i + 1 : -1;
+        }
+        free = 0;
+    }
+}
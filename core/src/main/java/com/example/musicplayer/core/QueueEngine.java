@@ -0,0 +1,263 @@
+package com.example.musicplayer.core;
+
+import java.util.Random;
+
+/**
+ * Play order over the positions of a play queue, with shuffle and
+ * repeat.
+ *
+ * The order is a list of queue positions and a cursor into it, so moving
+ * to the next or previous track is O(1) however long the queue is.
+ * Shuffling permutes the positions in place with Fisher-Yates from a seed,
+ * keeping the current track first; the same seed and start give the same
+ * order. While shuffled the natural order is kept alongside, so turning
+ * shuffle off returns to it at the track that is playing.
+ *
+ * Edits are made where the user looks at the queue, around the current
+ * track, which is where the gap of the underlying {@link IntGapList} sits.
+ * Removals apply to both orders; moves only to the one being played.
+ */
+public final class QueueEngine {
+
+    private IntGapList order;
+    // Natural order while shuffled, otherwise null
+    private IntGapList linear;
+    private int cursor;
+    private long seed;
+    private RepeatMode repeat = RepeatMode.OFF;
+
+    /** Natural order over {@code size} positions, starting at {@code start}. */
+    public QueueEngine(int size, int start) {
+        int[] positions = new int[size];
+        for (int i = 0; i < size; i++) positions[i] = i;
+        order = IntGapList.wrap(positions);
+        cursor = size == 0 ? 0 : Math.max(0, Math.min(start, size - 1));
+    }
+
+    private QueueEngine() {}
+
+    /**
+     * Rebuilds an engine from what {@link #getOrder()} and friends returned;
+     * {@code linear} is null unless it was shuffled.
+     */
+    public static QueueEngine restore(
+        int[] order,
+        int[] linear,
+        int cursor,
+        long seed,
+        RepeatMode repeat
+    ) {
+        QueueEngine engine = new QueueEngine();
+        engine.order = IntGapList.wrap(order);
+        engine.linear = linear != null ? IntGapList.wrap(linear) : null;
+        engine.cursor = Math.max(0, Math.min(cursor, order.length - 1));
+        engine.seed = seed;
+        engine.repeat = repeat;
+        return engine;
+    }
+
+    /**
+     * A copy of {@code positions} with {@code first} up front and the rest
+     * shuffled by {@code seed}.
+     */
+    public static int[] shuffled(int[] positions, int first, long seed) {
+        int[] out = positions.clone();
+        for (int i = 0; i < out.length; i++) {
+            if (out[i] == first) {
+                out[i] = out[0];
+                out[0] = first;
+                break;
+            }
+        }
+        Random random = new Random(seed);
+        for (int i = out.length - 1; i > 1; i--) {
+            int j = 1 + random.nextInt(i);
+            int t = out[i];
+            out[i] = out[j];
+            out[j] = t;
+        }
+        return out;
+    }
+
+    public int size() {
+        return order.size();
+    }
+
+    public boolean isEmpty() {
+        return order.size() == 0;
+    }
+
+    /** The queue position being played. */
+    public int current() {
+        return order.get(cursor);
+    }
+
+    /** Where the current track sits in the play order. */
+    public int getCursor() {
+        return cursor;
+    }
+
+    /** The queue position played {@code i}-th. */
+    public int positionAt(int i) {
+        return order.get(i);
+    }
+
+    public boolean isShuffled() {
+        return linear != null;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public RepeatMode getRepeat() {
+        return repeat;
+    }
+
+    public void setRepeat(RepeatMode repeat) {
+        this.repeat = repeat;
+    }
+
+    /**
+     * Moves the current track to the front and shuffles all others by
+     * {@code seed}, or goes back to natural order.
+     */
+    public void setShuffle(boolean shuffle, long seed) {
+        if (isEmpty() || shuffle == isShuffled()) return;
+        int playing = current();
+        if (shuffle) {
+            this.seed = seed;
+            linear = order;
+            order = IntGapList.wrap(shuffled(linear.toArray(), playing, seed));
+            cursor = 0;
+        } else {
+            order = linear;
+            linear = null;
+            cursor = Math.max(0, order.indexOf(playing));
+        }
+    }
+
+    /**
+     * The queue position to play after the current one without moving to
+     * it, or -1 at the end. {@code auto} is true when the track ran out, as
+     * opposed to the user skipping; only then does repeat-one hold on.
+     */
+    public int peekNext(boolean auto) {
+        int i = nextCursor(auto);
+        return i < 0 ? -1 : order.get(i);
+    }
+
+    /** Moves to what {@link #peekNext} returns and returns it. */
+    public int next(boolean auto) {
+        int i = nextCursor(auto);
+        if (i < 0) return -1;
+        cursor = i;
+        return order.get(i);
+    }
+
+    /** Moves back one track, wrapping to the end. */
+    public int previous() {
+        if (isEmpty()) return -1;
+        cursor = cursor > 0 ? cursor - 1 : order.size() - 1;
+        return order.get(cursor);
+    }
+
+    /** Moves to the {@code i}-th track of the play order. */
+    public int moveTo(int i) {
+        cursor = i;
+        return order.get(i);
+    }
+
+    /** Moves to queue position {@code position} wherever it is in the order. */
+    public void moveToPosition(int position) {
+        int i = order.indexOf(position);
+        if (i >= 0) cursor = i;
+    }
+
+    /**
+     * Moves the {@code i}-th track to play right after the current one and
+     * returns where it ended up.
+     */
+    public int playNext(int i) {
+        if (i == cursor) return i;
+        int to = i < cursor ? cursor : cursor + 1;
+        move(i, to);
+        return to;
+    }
+
+    /** Moves the {@code from}-th track of the play order to {@code to}. */
+    public void move(int from, int to) {
+        order.move(from, to);
+        if (from == cursor) {
+            cursor = to;
+        } else if (from < cursor && to >= cursor) {
+            cursor--;
+        } else if (from > cursor && to <= cursor) {
+            cursor++;
+        }
+    }
+
+    /**
+     * Removes the {@code i}-th track of the play order. Returns true when
+     * that was the current track; the cursor then points at the one that
+     * followed it, or wraps to the start.
+     */
+    public boolean remove(int i) {
+        boolean wasCurrent = i == cursor;
+        int position = order.remove(i);
+        if (linear != null) {
+            int j = linear.indexOf(position);
+            if (j >= 0) linear.remove(j);
+        }
+        if (i < cursor) cursor--;
+        if (cursor >= order.size()) cursor = 0;
+        return wasCurrent && order.size() > 0;
+    }
+
+    /** Removes every track after the current one; returns how many. */
+    public int clearUpcoming() {
+        int start = cursor + 1;
+        int count = order.size() - start;
+        if (count <= 0) return 0;
+        if (linear != null) {
+            boolean[] removed = new boolean[maxPosition() + 1];
+            for (int i = start; i < order.size(); i++) {
+                removed[order.get(i)] = true;
+            }
+            int[] kept = new int[linear.size() - count];
+            int k = 0;
+            for (int i = 0; i < linear.size(); i++) {
+                int position = linear.get(i);
+                if (!removed[position]) kept[k++] = position;
+            }
+            linear = IntGapList.wrap(kept);
+        }
+        order.truncate(start);
+        return count;
+    }
+
+    /** The play order; with {@link #getLinear()} enough for {@link #restore}. */
+    public int[] getOrder() {
+        return order.toArray();
+    }
+
+    /** The natural order while shuffled, otherwise null. */
+    public int[] getLinear() {
+        return linear != null ? linear.toArray() : null;
+    }
+
+    private int maxPosition() {
+        int max = 0;
+        for (int i = 0; i < order.size(); i++) {
+            max = Math.max(max, order.get(i));
+        }
+        return max;
+    }
+
+    private int nextCursor(boolean auto) {
+        if (isEmpty()) return -1;
+        if (auto && repeat == RepeatMode.ONE) return cursor;
+        if (cursor + 1 < order.size()) return cursor + 1;
+        return !auto || repeat != RepeatMode.OFF ? 0 : -1;
+    }
+}
@@ -0,0 +1,8 @@
+package com.example.musicplayer.core;
+
+/** What happens when a track or the whole queue ends. */
+public enum RepeatMode {
+    OFF,
+    ALL,
+    ONE,
+}
@@ -0,0 +1,263 @@
+package com.example.musicplayer.core;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Type-ahead search over song titles, artists and albums.
+ *
+ * Text is folded to lower case without diacritics and split into words.
+ * Every distinct word is stored once together with a primitive posting
+ * array of the documents containing it. A query word matches every stored
+ * word it is a prefix of; those form one range of the words in sorted
+ * order, found by binary search. A song matches when each query word does.
+ *
+ * Songs are put and removed one at a time as scans report them. Removed
+ * documents stay in the postings until they make up a quarter of the index
+ * and are squeezed out by {@link #commit()}. All methods are synchronized so
+ * scans and queries may run on different threads.
+ */
+public final class SearchIndex {
+
+    private static final int MIN_COMPACT = 1024;
+
+    // Word -> token id; words are stored once here and in tokens
+    private final Map<String, Integer> tokenIds = new HashMap<>();
+    private String[] tokens = new String[256];
+    private int[][] postings = new int[256][];
+    private int[] postingSizes = new int[256];
+    private int tokenCount;
+    // Token ids in lexicographic order of their words, rebuilt by commit()
+    private int[] sorted = new int[0];
+    private boolean unsorted;
+
+    // Document -> song id, 0 once removed
+    private long[] docIds = new long[1024];
+    private int docCount;
+    private int removedCount;
+    private final LongIntMap docsById = new LongIntMap(1024);
+
+    /** Indexes {@code id}, replacing what was indexed for it before. */
+    public synchronized void put(
+        long id,
+        String title,
+        String artist,
+        String album
+    ) {
+        removeDoc(id);
+        if (docCount == docIds.length) {
+            docIds = Arrays.copyOf(docIds, docCount * 2);
+        }
+        int doc = docCount++;
+        docIds[doc] = id;
+        docsById.put(id, doc);
+        addText(doc, title);
+        addText(doc, artist);
+        addText(doc, album);
+    }
+
+    public synchronized void remove(long id) {
+        removeDoc(id);
+    }
+
+    /** Makes puts visible to prefix queries; call after a batch of changes. */
+    public synchronized void commit() {
+        if (removedCount >= MIN_COMPACT && removedCount * 4 > docCount) {
+            compact();
+        }
+        if (!unsorted) return;
+        String[] words = Arrays.copyOf(tokens, tokenCount);
+        Arrays.sort(words);
+        sorted = new int[tokenCount];
+        for (int i = 0; i < tokenCount; i++) {
+            sorted[i] = tokenIds.get(words[i]);
+        }
+        unsorted = false;
+    }
+
+    public synchronized int size() {
+        return docsById.size();
+    }
+
+    /** Distinct words still held, including those of removed songs. */
+    synchronized int wordCount() {
+        return tokenCount;
+    }
+
+    /**
+     * Positions in {@code ids} of the songs matching every word of
+     * {@code query}, in order. A query without words matches nothing.
+     */
+    public synchronized int[] search(String query, long[] ids) {
+        List<String> words = new ArrayList<>();
+        tokenize(query, words);
+        if (words.isEmpty()) return new int[0];
+
+        long[] matched = null;
+        for (String word : words) {
+            long[] docs = new long[(docCount + 63) >>> 6];
+            for (
+                int k = lowerBound(word);
+                k < sorted.length && tokens[sorted[k]].startsWith(word);
+                k++
+            ) {
+                int token = sorted[k];
+                int[] posting = postings[token];
+                for (int i = 0; i < postingSizes[token]; i++) {
+                    int doc = posting[i];
+                    docs[doc >>> 6] |= 1L << doc;
+                }
+            }
+            if (matched == null) {
+                matched = docs;
+            } else {
+                for (int i = 0; i < matched.length; i++) matched[i] &= docs[i];
+            }
+        }
+
+        int[] positions = new int[16];
+        int count = 0;
+        for (int i = 0; i < ids.length; i++) {
+            int doc = docsById.get(ids[i]);
+            if (doc < 0 || (matched[doc >>> 6] & (1L << doc)) == 0) continue;
+            if (count == positions.length) {
+                positions = Arrays.copyOf(positions, count * 2);
+            }
+            positions[count++] = i;
+        }
+        return Arrays.copyOf(positions, count);
+    }
+
+    /** Lower-cases {@code text}, drops diacritics and splits it into words. */
+    public static void tokenize(String text, List<String> out) {
+        if (text == null) return;
+        String folded = fold(text);
+        int start = -1;
+        for (int i = 0; i <= folded.length(); i++) {
+            boolean inWord =
+                i < folded.length() &&
+                Character.isLetterOrDigit(folded.charAt(i));
+            if (inWord && start < 0) {
+                start = i;
+            } else if (!inWord && start >= 0) {
+                out.add(folded.substring(start, i));
+                start = -1;
+            }
+        }
+    }
+
+    public static String fold(String text) {
+        boolean ascii = true;
+        for (int i = 0; i < text.length() && ascii; i++) {
+            ascii = text.charAt(i) < 0x80;
+        }
+        if (ascii) return text.toLowerCase(Locale.ROOT);
+
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        StringBuilder sb = new StringBuilder(decomposed.length());
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                sb.append(c);
+            }
+        }
+        return sb.toString().toLowerCase(Locale.ROOT);
+    }
+
+    private void addText(int doc, String text) {
+        List<String> words = new ArrayList<>();
+        tokenize(text, words);
+        for (String word : words) {
+            Integer token = tokenIds.get(word);
+            if (token == null) token = newToken(word);
+            int size = postingSizes[token];
+            int[] posting = postings[token];
+            // Documents are added in order, so a repeat is the last entry
+            if (size > 0 && posting[size - 1] == doc) continue;
+            if (size == posting.length) {
+                posting = postings[token] = Arrays.copyOf(posting, size * 2);
+            }
+            posting[size] = doc;
+            postingSizes[token] = size + 1;
+        }
+    }
+
+    private int newToken(String word) {
+        if (tokenCount == tokens.length) {
+            int capacity = tokenCount * 2;
+            tokens = Arrays.copyOf(tokens, capacity);
+            postings = Arrays.copyOf(postings, capacity);
+            postingSizes = Arrays.copyOf(postingSizes, capacity);
+        }
+        int token = tokenCount++;
+        tokens[token] = word;
+        postings[token] = new int[2];
+        postingSizes[token] = 0;
+        tokenIds.put(word, token);
+        unsorted = true;
+        return token;
+    }
+
+    private void removeDoc(long id) {
+        int doc = docsById.remove(id);
+        if (doc < 0) return;
+        docIds[doc] = 0;
+        removedCount++;
+    }
+
+    /** Renumbers live documents densely and drops words left without any. */
+    private void compact() {
+        int[] remap = new int[docCount];
+        int live = 0;
+        for (int doc = 0; doc < docCount; doc++) {
+            if (docIds[doc] == 0) {
+                remap[doc] = -1;
+                continue;
+            }
+            remap[doc] = live;
+            docIds[live] = docIds[doc];
+            docsById.put(docIds[live], live);
+            live++;
+        }
+        docCount = live;
+        removedCount = 0;
+
+        int kept = 0;
+        tokenIds.clear();
+        for (int token = 0; token < tokenCount; token++) {
+            int[] posting = postings[token];
+            int size = 0;
+            for (int i = 0; i < postingSizes[token]; i++) {
+                int doc = remap[posting[i]];
+                if (doc >= 0) posting[size++] = doc;
+            }
+            if (size == 0) continue;
+            tokens[kept] = tokens[token];
+            postings[kept] = posting;
+            postingSizes[kept] = size;
+            tokenIds.put(tokens[kept], kept);
+            kept++;
+        }
+        Arrays.fill(tokens, kept, tokenCount, null);
+        Arrays.fill(postings, kept, tokenCount, null);
+        Arrays.fill(postingSizes, kept, tokenCount, 0);
+        tokenCount = kept;
+        unsorted = true;
+    }
+
+    private int lowerBound(String word) {
+        int lo = 0;
+        int hi = sorted.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (tokens[sorted[mid]].compareTo(word) < 0) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+}
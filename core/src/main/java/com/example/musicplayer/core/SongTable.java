@@ -0,0 +1,210 @@
+package com.example.musicplayer.core;
+
+import java.util.Arrays;
+
+/**
+ * A window of library rows stored column by column.
+ *
+ * Each cached song takes one slot of a set of parallel arrays instead of
+ * being an object of its own: ids and times are primitives, artists and
+ * albums are references into a shared {@link StringPool}, and content uris
+ * are not stored at all but built from the id when needed. The least
+ * recently used row makes room for a new one once all slots are taken, and
+ * a replaced, evicted or removed row releases its pooled strings.
+ *
+ * Rows are read through a {@link Row}, a view that callers allocate once
+ * and refill, so binding a list row creates no objects. Methods are
+ * synchronized; loaders fill the table while the UI reads it.
+ */
+public final class SongTable {
+
+    /** One row's values, copied out of the table by {@link #read}. */
+    public static final class Row {
+
+        private long id;
+        private long albumId;
+        private String title;
+        private String artist;
+        private String album;
+        private long duration;
+        private long dateModified;
+        private String documentUri;
+
+        public Row() {}
+
+        /** Fills in a row that is not read from a table. */
+        public void set(
+            long id,
+            long albumId,
+            String title,
+            String artist,
+            String album,
+            long duration,
+            long dateModified,
+            String documentUri
+        ) {
+            this.id = id;
+            this.albumId = albumId;
+            this.title = title;
+            this.artist = artist;
+            this.album = album;
+            this.duration = duration;
+            this.dateModified = dateModified;
+            this.documentUri = documentUri;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public long getAlbumId() {
+            return albumId;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public String getArtist() {
+            return artist;
+        }
+
+        public String getAlbum() {
+            return album;
+        }
+
+        public long getDuration() {
+            return duration;
+        }
+
+        /** Source file modification time, in seconds. */
+        public long getDateModified() {
+            return dateModified;
+        }
+
+        /** The document uri of a song from a picked folder, else null. */
+        public String getDocumentUri() {
+            return documentUri;
+        }
+
+        public String getFormattedDuration() {
+            if (duration <= 0) return "0:00";
+
+            long seconds = duration / 1000;
+            return String.format("%d:%02d", seconds / 60, seconds % 60);
+        }
+    }
+
+    private final LruSlots slots;
+    private final StringPool pool = new StringPool();
+    private final long[] albumIds;
+    private final int[] durations;
+    private final long[] modified;
+    private final String[] titles;
+    private final int[] artists;
+    private final int[] albums;
+    // Only set for folder songs, whose uri cannot be derived from the id
+    private final String[] documentUris;
+
+    public SongTable(int capacity) {
+        slots = new LruSlots(capacity);
+        albumIds = new long[capacity];
+        durations = new int[capacity];
+        modified = new long[capacity];
+        titles = new String[capacity];
+        artists = new int[capacity];
+        albums = new int[capacity];
+        documentUris = new String[capacity];
+        Arrays.fill(artists, -1);
+        Arrays.fill(albums, -1);
+    }
+
+    /** Stores the row for {@code id}, replacing any cached one. */
+    public synchronized void put(
+        long id,
+        long albumId,
+        String title,
+        String artist,
+        String album,
+        long duration,
+        long dateModified,
+        String documentUri
+    ) {
+        int slot = slots.acquire(id);
+        int artistRef = pool.intern(artist != null ? artist : "");
+        int albumRef = pool.intern(album != null ? album : "");
+        // The slot may still hold an evicted or replaced row
+        releaseStrings(slot);
+        albumIds[slot] = albumId;
+        durations[slot] = (int) Math.min(duration, Integer.MAX_VALUE);
+        modified[slot] = dateModified;
+        titles[slot] = title;
+        artists[slot] = artistRef;
+        albums[slot] = albumRef;
+        documentUris[slot] = documentUri;
+    }
+
+    /**
+     * Copies the row for {@code id} into {@code row} and marks it recently
+     * used. Returns false, leaving {@code row} alone, if it is not cached.
+     */
+    public synchronized boolean read(long id, Row row) {
+        int slot = slots.touch(id);
+        if (slot < 0) return false;
+        row.set(
+            id,
+            albumIds[slot],
+            titles[slot],
+            pool.get(artists[slot]),
+            pool.get(albums[slot]),
+            durations[slot],
+            modified[slot],
+            documentUris[slot]
+        );
+        return true;
+    }
+
+    /** Whether {@code id} is cached; does not count as a use. */
+    public synchronized boolean contains(long id) {
+        return slots.peek(id) >= 0;
+    }
+
+    public synchronized void remove(long id) {
+        int slot = slots.release(id);
+        if (slot < 0) return;
+        releaseStrings(slot);
+        titles[slot] = null;
+        documentUris[slot] = null;
+    }
+
+    /** Drops every row, and with them the pooled artists and albums. */
+    public synchronized void clear() {
+        slots.clear();
+        pool.clear();
+        Arrays.fill(artists, -1);
+        Arrays.fill(albums, -1);
+        Arrays.fill(titles, null);
+        Arrays.fill(documentUris, null);
+    }
+
+    public synchronized int size() {
+        return slots.size();
+    }
+
+    public int capacity() {
+        return slots.capacity();
+    }
+
+    /** Distinct artists and albums held by the cached rows. */
+    synchronized int pooledStrings() {
+        return pool.size();
+    }
+
+    private void releaseStrings(int slot) {
+        if (artists[slot] < 0) return;
+        pool.release(artists[slot]);
+        pool.release(albums[slot]);
+        artists[slot] = -1;
+        albums[slot] = -1;
+    }
+}
@@ -0,0 +1,202 @@
+package com.example.musicplayer.core;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Precomputed sort keys for the songs of one library snapshot.
+ *
+ * Titles, artists and albums go through a locale-aware {@link Collator}
+ * once, when the snapshot is built; each song then only keeps its rank per
+ * field, with equal text sharing a rank. Re-sorting packs a song's ranks
+ * and its position into one {@code long} and sorts those primitives, so
+ * changing the order never compares strings.
+ */
+public final class SortKeys {
+
+    // Ranks, secondary ranks and positions each get 21 bits of a sort word
+    private static final int BITS = 21;
+    private static final long MASK = (1L << BITS) - 1;
+
+    private final LongIntMap positions;
+    private final int[] titleRank;
+    private final int[] artistRank;
+    private final int[] albumRank;
+    private final int[] durationRank;
+    private final int[] addedRank;
+
+    private SortKeys(
+        LongIntMap positions,
+        int[] titleRank,
+        int[] artistRank,
+        int[] albumRank,
+        int[] durationRank,
+        int[] addedRank
+    ) {
+        this.positions = positions;
+        this.titleRank = titleRank;
+        this.artistRank = artistRank;
+        this.albumRank = albumRank;
+        this.durationRank = durationRank;
+        this.addedRank = addedRank;
+    }
+
+    /**
+     * The positions of {@code ids} in {@code mode} order. Songs unknown to
+     * this snapshot go last, in their current order.
+     */
+    public int[] order(long[] ids, SortMode mode) {
+        long[] words = new long[ids.length];
+        int known = 0;
+        int[] unknown = new int[0];
+        int unknownCount = 0;
+        for (int i = 0; i < ids.length; i++) {
+            int p = positions.get(ids[i]);
+            if (p < 0) {
+                if (unknownCount == unknown.length) {
+                    unknown = Arrays.copyOf(unknown, Math.max(4, unknownCount * 2));
+                }
+                unknown[unknownCount++] = i;
+                continue;
+            }
+            words[known++] = pack(primary(mode, p), secondary(mode, p), i);
+        }
+        Arrays.sort(words, 0, known);
+
+        int[] order = new int[ids.length];
+        for (int i = 0; i < known; i++) order[i] = (int) (words[i] & MASK);
+        System.arraycopy(unknown, 0, order, known, unknownCount);
+        return order;
+    }
+
+    private int primary(SortMode mode, int p) {
+        switch (mode) {
+            case ARTIST:
+                return artistRank[p];
+            case ALBUM:
+                return albumRank[p];
+            case DURATION:
+                return durationRank[p];
+            case DATE_ADDED:
+                // Newest first
+                return (int) MASK - addedRank[p];
+            case TITLE:
+            default:
+                return titleRank[p];
+        }
+    }
+
+    private int secondary(SortMode mode, int p) {
+        switch (mode) {
+            case ARTIST:
+                return albumRank[p];
+            case TITLE:
+                return artistRank[p];
+            default:
+                return titleRank[p];
+        }
+    }
+
+    private static long pack(int primary, int secondary, int position) {
+        return ((long) primary << (2 * BITS)) |
+            ((long) secondary << BITS) |
+            position;
+    }
+
+    /** Collects one row per song, then ranks every field. */
+    public static final class Builder {
+
+        private final Collator collator = Collator.getInstance();
+        private final long[] ids;
+        private final String[] titles;
+        private final String[] artists;
+        private final String[] albums;
+        private final long[] durations;
+        private final long[] added;
+        private int count;
+
+        public Builder(int expected) {
+            if (expected > MASK) {
+                throw new IllegalArgumentException("Too many songs: " + expected);
+            }
+            // Letters decide first; accents, then case, only break ties
+            collator.setStrength(Collator.TERTIARY);
+            ids = new long[expected];
+            titles = new String[expected];
+            artists = new String[expected];
+            albums = new String[expected];
+            durations = new long[expected];
+            added = new long[expected];
+        }
+
+        public void add(
+            long id,
+            String title,
+            String artist,
+            String album,
+            long duration,
+            long dateAdded
+        ) {
+            if (count == ids.length) return;
+            ids[count] = id;
+            titles[count] = title != null ? title : "";
+            artists[count] = artist != null ? artist : "";
+            albums[count] = album != null ? album : "";
+            durations[count] = duration;
+            added[count] = dateAdded;
+            count++;
+        }
+
+        public SortKeys build() {
+            LongIntMap positions = new LongIntMap(count);
+            for (int i = 0; i < count; i++) positions.put(ids[i], i);
+            return new SortKeys(
+                positions,
+                rankText(titles),
+                rankText(artists),
+                rankText(albums),
+                rankNumbers(durations),
+                rankNumbers(added)
+            );
+        }
+
+        private int[] rankText(String[] values) {
+            CollationKey[] keys = new CollationKey[count];
+            Integer[] order = new Integer[count];
+            for (int i = 0; i < count; i++) {
+                keys[i] = collator.getCollationKey(values[i]);
+                order[i] = i;
+            }
+            Arrays.sort(order, Comparator.comparing(i -> keys[i]));
+            int[] ranks = new int[count];
+            int rank = 0;
+            for (int k = 0; k < count; k++) {
+                if (k > 0 && keys[order[k]].compareTo(keys[order[k - 1]]) != 0) {
+                    rank++;
+                }
+                ranks[order[k]] = rank;
+            }
+            return ranks;
+        }
+
+        private int[] rankNumbers(long[] values) {
+            long[] sorted = Arrays.copyOf(values, count);
+            Arrays.sort(sorted);
+            int[] ranks = new int[count];
+            for (int i = 0; i < count; i++) {
+                // Index of the first equal value, so ties share a rank
+                int lo = 0;
+                int hi = count;
+                while (lo < hi) {
+                    int mid = (lo + hi) >>> 1;
+                    if (sorted[mid] < values[i]) lo = mid + 1;
+                    else hi = mid;
+                }
+                ranks[i] = lo;
+            }
+            return ranks;
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package com.example.musicplayer.core;
+
+/** Orders the song list can be shown in. */
+public enum SortMode {
+    TITLE,
+    ARTIST,
+    ALBUM,
+    DURATION,
+    DATE_ADDED,
+}
@@ -0,0 +1,79 @@
+package com.example.musicplayer.core;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Dictionary encoding for strings that repeat across many songs, such as
+ * artists and albums: each distinct string is stored once and referred to
+ * by an {@code int}.
+ *
+ * References are counted; every {@link #intern} is matched by one
+ * {@link #release}, and a string nobody refers to any more is dropped and
+ * its reference reused. Not thread-safe.
+ */
+public final class StringPool {
+
+    private final Map<String, Integer> refs = new HashMap<>();
+    private String[] strings = new String[64];
+    private int[] counts = new int[64];
+    // Released references, reused before the arrays grow
+    private int[] free = new int[64];
+    private int freeCount;
+    private int end;
+
+    /** The reference for {@code s}, adding it on first sight. */
+    public int intern(String s) {
+        Integer ref = refs.get(s);
+        if (ref != null) {
+            counts[ref]++;
+            return ref;
+        }
+        int added;
+        if (freeCount > 0) {
+            added = free[--freeCount];
+        } else {
+            if (end == strings.length) {
+                strings = Arrays.copyOf(strings, end * 2);
+                counts = Arrays.copyOf(counts, end * 2);
+            }
+            added = end++;
+        }
+        strings[added] = s;
+        counts[added] = 1;
+        refs.put(s, added);
+        return added;
+    }
+
+    /** Gives up one use of {@code ref}, dropping its string after the last. */
+    public void release(int ref) {
+        if (counts[ref] <= 0) {
+            throw new IllegalStateException("ref " + ref + " is not in use");
+        }
+        if (--counts[ref] > 0) return;
+        refs.remove(strings[ref]);
+        strings[ref] = null;
+        if (freeCount == free.length) {
+            free = Arrays.copyOf(free, freeCount * 2);
+        }
+        free[freeCount++] = ref;
+    }
+
+    public String get(int ref) {
+        return strings[ref];
+    }
+
+    /** The number of distinct strings in use. */
+    public int size() {
+        return refs.size();
+    }
+
+    public void clear() {
+        refs.clear();
+        Arrays.fill(strings, 0, end, null);
+        Arrays.fill(counts, 0, end, 0);
+        freeCount = 0;
+        end = 0;
+    }
+}
@@ -0,0 +1,886 @@
+package com.example.musicplayer.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads title, artist, album, track number, duration and the position of
+ * the embedded picture from MP3 (ID3v2, ID3v1), FLAC, Ogg Vorbis, Opus and
+ * MP4/M4A files.
+ *
+ * Only headers are read: tag frames, metadata blocks and boxes are walked
+ * by their sizes, and audio data and pictures are skipped. Reads go through
+ * one buffer that is reused across files, a few KB at a time, so reading a
+ * file's tags costs a handful of small positional reads and allocates
+ * little beyond the strings it returns. Not thread-safe; use one reader per
+ * thread.
+ */
+public final class TagReader {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Bytes fetched when a parser asks for less, so neighbouring headers
+    // come in with one read
+    private static final int READ_AHEAD = 8 * 1024;
+    private static final int PACKET_SIZE = 16 * 1024;
+    // How far past the ID3v2 tag the first MPEG frame may start
+    private static final int MAX_SYNC_SCAN = 4 * 1024;
+
+    private static final int FRONT_COVER = 3;
+
+    private static final int TIT2 = fourCc("TIT2");
+    private static final int TPE1 = fourCc("TPE1");
+    private static final int TALB = fourCc("TALB");
+    private static final int TRCK = fourCc("TRCK");
+    private static final int TLEN = fourCc("TLEN");
+    private static final int APIC = fourCc("APIC");
+    private static final int TT2 = fourCc("\0TT2");
+    private static final int TP1 = fourCc("\0TP1");
+    private static final int TAL = fourCc("\0TAL");
+    private static final int TRK = fourCc("\0TRK");
+    private static final int TLE = fourCc("\0TLE");
+    private static final int PIC = fourCc("\0PIC");
+
+    private static final int MOOV = fourCc("moov");
+    private static final int MVHD = fourCc("mvhd");
+    private static final int UDTA = fourCc("udta");
+    private static final int META = fourCc("meta");
+    private static final int HDLR = fourCc("hdlr");
+    private static final int ILST = fourCc("ilst");
+    private static final int DATA = fourCc("data");
+    private static final int NAM = 0xa9000000 | fourCc("\0nam");
+    private static final int ART = 0xa9000000 | fourCc("\0ART");
+    private static final int ALB = 0xa9000000 | fourCc("\0alb");
+    private static final int TRKN = fourCc("trkn");
+    private static final int COVR = fourCc("covr");
+
+    // Kilobits per second by [table][index - 1]: MPEG-1 layers I, II and
+    // III, then MPEG-2/2.5 layer I, then layers II and III
+    private static final int[][] BITRATES = {
+        { 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448 },
+        { 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384 },
+        { 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320 },
+        { 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256 },
+        { 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160 },
+    };
+    private static final int[] SAMPLE_RATES = { 44100, 48000, 32000 };
+
+    private final byte[] buf = new byte[BUFFER_SIZE];
+    private final ByteBuffer window = ByteBuffer.wrap(buf);
+    // File range currently held in buf
+    private long windowStart;
+    private int windowLength;
+    // One Ogg packet, put together from its page segments
+    private final byte[] packet = new byte[PACKET_SIZE];
+    private int packetLength;
+
+    private FileChannel channel;
+    private long fileSize;
+
+    // Box header read by box(): total size and header length
+    private long boxSize;
+    private int boxHeader;
+    private int boxType;
+
+    /**
+     * Fills {@code tags} from {@code channel}, reading at absolute
+     * positions; the channel's own position is left alone. Returns false if
+     * the format is not recognised.
+     */
+    public boolean read(FileChannel channel, Tags tags) throws IOException {
+        tags.clear();
+        this.channel = channel;
+        fileSize = channel.size();
+        windowStart = 0;
+        windowLength = 0;
+        try {
+            boolean known = readFormat(tags);
+            // A cut-off file may promise a picture it does not hold
+            if (tags.artworkOffset + tags.artworkLength > fileSize) {
+                tags.clearArtwork();
+            }
+            return known;
+        } finally {
+            this.channel = null;
+        }
+    }
+
+    private boolean readFormat(Tags tags) throws IOException {
+        if (!ensure(0, 12)) return false;
+        long start = 0;
+        if (matches(0, "ID3")) start = readId3v2(tags);
+        if (ensure(start, 12)) {
+            if (matches(start, "fLaC")) {
+                readFlac(start + 4, tags);
+                return true;
+            }
+            if (start == 0 && matches(0, "OggS")) return readOgg(tags);
+            if (start == 0 && matches(4, "ftyp")) {
+                readMp4(tags);
+                return true;
+            }
+        }
+        boolean mpeg = readMpeg(start, tags);
+        if (mpeg) readId3v1(tags);
+        return mpeg || start > 0;
+    }
+
+    // ID3v2 and MPEG audio
+
+    /** Reads the ID3v2 tag at the start of the file; returns its end. */
+    private long readId3v2(Tags tags) throws IOException {
+        int major = u8(3);
+        int flags = u8(5);
+        long tagEnd = 10 + syncsafe(6);
+        // A v2.4 footer repeats the header after the tag
+        long end = tagEnd + ((flags & 0x10) != 0 ? 10 : 0);
+        if (major < 2 || major > 4) return end;
+
+        boolean unsynchronised = (flags & 0x80) != 0;
+        long pos = 10;
+        if ((flags & 0x40) != 0 && major > 2) {
+            if (!ensure(pos, 4)) return end;
+            pos += major == 4 ? syncsafe(pos) : 4 + be32u(pos);
+        }
+        int headerSize = major == 2 ? 6 : 10;
+        while (pos + headerSize <= tagEnd && ensure(pos, headerSize)) {
+            // Padding
+            if (u8(pos) == 0) break;
+            int id;
+            long size;
+            int frameFlags = 0;
+            if (major == 2) {
+                id = be24(pos);
+                size = be24(pos + 3);
+            } else {
+                id = be32(pos);
+                size = major == 4 ? syncsafe(pos + 4) : be32u(pos + 4);
+                frameFlags = be16(pos + 8);
+            }
+            long data = pos + headerSize;
+            pos = data + size;
+            if (size <= 0 || pos > tagEnd) break;
+            readId3Frame(
+                major,
+                id,
+                data,
+                size,
+                frameFlags,
+                unsynchronised,
+                tags
+            );
+        }
+        return end;
+    }
+
+    private void readId3Frame(
+        int major,
+        int id,
+        long data,
+        long size,
+        int flags,
+        boolean unsynchronised,
+        Tags tags
+    ) throws IOException {
+        if (major == 3) {
+            // Compressed or encrypted
+            if ((flags & 0xc0) != 0) return;
+            // Group id
+            if ((flags & 0x20) != 0) {
+                data++;
+                size--;
+            }
+        } else if (major == 4) {
+            if ((flags & 0x0c) != 0) return;
+            if ((flags & 0x40) != 0) {
+                data++;
+                size--;
+            }
+            // Data length indicator
+            if ((flags & 0x01) != 0) {
+                data += 4;
+                size -= 4;
+            }
+            unsynchronised |= (flags & 0x02) != 0;
+        }
+        if (size <= 1) return;
+
+        if (id == APIC || id == PIC) {
+            // Unsynchronised pictures differ from their bytes on disk
+            if (!unsynchronised) readId3Picture(id == PIC, data, size, tags);
+            return;
+        }
+        boolean title = id == TIT2 || id == TT2;
+        boolean artist = id == TPE1 || id == TP1;
+        boolean album = id == TALB || id == TAL;
+        boolean track = id == TRCK || id == TRK;
+        boolean length = id == TLEN || id == TLE;
+        if (!title && !artist && !album && !track && !length) return;
+
+        int n = (int) Math.min(size, BUFFER_SIZE);
+        if (!ensure(data, n)) return;
+        String text = id3Text(u8(data), at(data) + 1, n - 1);
+        if (text == null) return;
+        if (title && tags.title == null) tags.title = text;
+        else if (artist && tags.artist == null) tags.artist = text;
+        else if (album && tags.album == null) tags.album = text;
+        else if (track) tags.trackNumber = leadingInt(text);
+        else if (length) tags.durationMs = leadingInt(text);
+    }
+
+    private void readId3Picture(
+        boolean v22,
+        long data,
+        long size,
+        Tags tags
+    ) throws IOException {
+        int n = (int) Math.min(size, 1024);
+        if (!ensure(data, n)) return;
+        int start = at(data);
+        int end = start + n;
+        int encoding = buf[start] & 0xff;
+        int i = start + 1;
+        String mime;
+        if (v22) {
+            if (i + 3 > end) return;
+            mime = imageMime(new String(buf, i, 3, StandardCharsets.US_ASCII));
+            i += 3;
+        } else {
+            int nul = terminator(i, end, 1);
+            if (nul >= end) return;
+            mime = new String(buf, i, nul - i, StandardCharsets.ISO_8859_1);
+            i = nul + 1;
+        }
+        if (i >= end) return;
+        int type = buf[i++] & 0xff;
+        // Description
+        int unit = encoding == 1 || encoding == 2 ? 2 : 1;
+        int nul = terminator(i, end, unit);
+        if (nul >= end) return;
+        i = nul + unit;
+        long offset = data + (i - start);
+        tags.setArtwork(offset, size - (i - start), mime, type);
+    }
+
+    /** A text frame's first value, or null if empty. */
+    private String id3Text(int encoding, int off, int len) {
+        Charset charset;
+        int unit = 1;
+        switch (encoding) {
+            case 1:
+                // Byte order mark decides
+                charset = StandardCharsets.UTF_16;
+                unit = 2;
+                break;
+            case 2:
+                charset = StandardCharsets.UTF_16BE;
+                unit = 2;
+                break;
+            case 3:
+                charset = StandardCharsets.UTF_8;
+                break;
+            default:
+                charset = StandardCharsets.ISO_8859_1;
+        }
+        if (len <= 0) return null;
+        int end = terminator(off, off + len, unit);
+        return nonEmpty(new String(buf, off, end - off, charset));
+    }
+
+    private void readId3v1(Tags tags) throws IOException {
+        long pos = fileSize - 128;
+        if (pos < 0 || !ensure(pos, 128) || !matches(pos, "TAG")) return;
+        int i = at(pos);
+        if (tags.title == null) tags.title = latin1(i + 3, 30);
+        if (tags.artist == null) tags.artist = latin1(i + 33, 30);
+        if (tags.album == null) tags.album = latin1(i + 63, 30);
+        // ID3v1.1 keeps the track in the comment's last byte
+        if (tags.trackNumber == 0 && buf[i + 125] == 0) {
+            tags.trackNumber = buf[i + 126] & 0xff;
+        }
+    }
+
+    /**
+     * Finds the first MPEG audio frame at or shortly after {@code start}
+     * and works out the duration from its Xing, Info or VBRI header, or
+     * from the bitrate. Returns false if there is no frame.
+     */
+    private boolean readMpeg(long start, Tags tags) throws IOException {
+        long frame = findFrame(start);
+        if (frame < 0) return false;
+        if (tags.durationMs > 0) return true;
+
+        int header = be32(frame);
+        int version = (header >>> 19) & 3;
+        int layer = (header >>> 17) & 3;
+        int sampleRate = sampleRate(header);
+        int samples = layer == 3
+            ? 384
+            : layer == 2 || version == 3 ? 1152 : 576;
+
+        long frames = 0;
+        if (layer == 1) {
+            boolean mono = ((header >>> 6) & 3) == 3;
+            int side = version == 3 ? (mono ? 17 : 32) : (mono ? 9 : 17);
+            long xing = frame + 4 + side;
+            if (
+                ensure(xing, 12) &&
+                (matches(xing, "Xing") || matches(xing, "Info")) &&
+                (be32(xing + 4) & 1) != 0
+            ) {
+                frames = be32u(xing + 8);
+            }
+        }
+        long vbri = frame + 4 + 32;
+        if (frames == 0 && ensure(vbri, 18) && matches(vbri, "VBRI")) {
+            frames = be32u(vbri + 14);
+        }
+        if (frames > 0) {
+            tags.durationMs = frames * samples * 1000 / sampleRate;
+            return true;
+        }
+
+        int kbps = bitrate(header);
+        long end = fileSize;
+        if (end >= 128 && ensure(end - 128, 3) && matches(end - 128, "TAG")) {
+            end -= 128;
+        }
+        // Bits over kilobits per second is milliseconds
+        tags.durationMs = (end - frame) * 8 / kbps;
+        return true;
+    }
+
+    private long findFrame(long start) throws IOException {
+        int n = Math.min(MAX_SYNC_SCAN + 4, available(start));
+        if (n < 4 || !ensure(start, n)) return -1;
+        for (long pos = start; pos <= start + n - 4; pos++) {
+            if (u8(pos) != 0xff) continue;
+            int header = be32(pos);
+            if (!isFrameHeader(header)) continue;
+            // A second frame right after rules out a chance match
+            long next = pos + frameLength(header);
+            if (next + 4 > fileSize) return pos;
+            if (ensure(next, 4)) {
+                int following = be32(next);
+                if (
+                    isFrameHeader(following) &&
+                    (following & 0xfffe0c00) == (header & 0xfffe0c00)
+                ) {
+                    return pos;
+                }
+            }
+            // The check may have moved the window
+            ensure(start, n);
+        }
+        return -1;
+    }
+
+    private static boolean isFrameHeader(int header) {
+        return (
+            (header & 0xffe00000) == 0xffe00000 &&
+            ((header >>> 19) & 3) != 1 &&
+            ((header >>> 17) & 3) != 0 &&
+            ((header >>> 12) & 15) != 0 &&
+            ((header >>> 12) & 15) != 15 &&
+            ((header >>> 10) & 3) != 3
+        );
+    }
+
+    private static int sampleRate(int header) {
+        int version = (header >>> 19) & 3;
+        int rate = SAMPLE_RATES[(header >>> 10) & 3];
+        return version == 3 ? rate : version == 2 ? rate / 2 : rate / 4;
+    }
+
+    private static int bitrate(int header) {
+        int version = (header >>> 19) & 3;
+        int layer = (header >>> 17) & 3;
+        int table = version == 3 ? 3 - layer : layer == 3 ? 3 : 4;
+        return BITRATES[table][((header >>> 12) & 15) - 1];
+    }
+
+    private static int frameLength(int header) {
+        int version = (header >>> 19) & 3;
+        int layer = (header >>> 17) & 3;
+        int padding = (header >>> 9) & 1;
+        int bits = bitrate(header) * 1000;
+        int rate = sampleRate(header);
+        if (layer == 3) return (12 * bits / rate + padding) * 4;
+        int factor = layer == 1 && version != 3 ? 72 : 144;
+        return factor * bits / rate + padding;
+    }
+
+    // FLAC
+
+    private void readFlac(long pos, Tags tags) throws IOException {
+        boolean last = false;
+        while (!last && ensure(pos, 4)) {
+            int header = be32(pos);
+            last = header < 0;
+            int type = (header >>> 24) & 0x7f;
+            int length = header & 0xffffff;
+            long data = pos + 4;
+            if (type == 0 && ensure(data, 18)) {
+                // STREAMINFO: 20-bit sample rate, 36-bit sample count
+                int sampleRate = be24(data + 10) >>> 4;
+                long samples = ((long) (u8(data + 13) & 0x0f) << 32) |
+                    be32u(data + 14);
+                if (sampleRate > 0) {
+                    tags.durationMs = samples * 1000 / sampleRate;
+                }
+            } else if (type == 4 && ensure(data, 8)) {
+                int n = Math.min(length, available(data));
+                ensure(data, n);
+                readVorbisComment(buf, at(data), at(data) + n, tags);
+            } else if (type == 6) {
+                readFlacPicture(data, length, tags);
+            }
+            pos = data + length;
+        }
+    }
+
+    private void readFlacPicture(long data, int length, Tags tags)
+        throws IOException {
+        int n = Math.min(length, 1024);
+        if (!ensure(data, n)) return;
+        int start = at(data);
+        int end = start + n;
+        int type = be32(data);
+        int mimeLength = be32(data + 4);
+        if (mimeLength < 0 || start + 8 + mimeLength + 4 > end) return;
+        String mime = new String(
+            buf,
+            start + 8,
+            mimeLength,
+            StandardCharsets.US_ASCII
+        );
+        long descAt = data + 8 + mimeLength;
+        int descLength = be32(descAt);
+        long sizeAt = descAt + 4 + descLength + 16;
+        if (descLength < 0 || descLength > n || at(sizeAt) + 4 > end) return;
+        long size = be32u(sizeAt);
+        if (sizeAt + 4 + size > data + length) return;
+        tags.setArtwork(sizeAt + 4, size, mime, type);
+    }
+
+    /** Parses a Vorbis comment block in {@code b[off, end)}. */
+    private static void readVorbisComment(
+        byte[] b,
+        int off,
+        int end,
+        Tags tags
+    ) {
+        if (off + 4 > end) return;
+        int i = off + 4 + le32(b, off);
+        if (i < off || i + 4 > end) return;
+        int count = le32(b, i);
+        i += 4;
+        for (int c = 0; c < count && i + 4 <= end; c++) {
+            int length = le32(b, i);
+            i += 4;
+            // The rest of a truncated block is unreadable
+            if (length < 0 || i + length > end) return;
+            int eq = i;
+            while (eq < i + length && b[eq] != '=') eq++;
+            int valueAt = eq + 1;
+            int valueLength = i + length - valueAt;
+            if (valueLength > 0) {
+                if (tags.title == null && key(b, i, eq, "TITLE")) {
+                    tags.title = utf8(b, valueAt, valueLength);
+                } else if (tags.artist == null && key(b, i, eq, "ARTIST")) {
+                    tags.artist = utf8(b, valueAt, valueLength);
+                } else if (tags.album == null && key(b, i, eq, "ALBUM")) {
+                    tags.album = utf8(b, valueAt, valueLength);
+                } else if (
+                    tags.trackNumber == 0 && key(b, i, eq, "TRACKNUMBER")
+                ) {
+                    tags.trackNumber = leadingInt(
+                        utf8(b, valueAt, valueLength)
+                    );
+                }
+            }
+            i += length;
+        }
+    }
+
+    private static boolean key(byte[] b, int from, int to, String name) {
+        if (to - from != name.length()) return false;
+        for (int i = 0; i < name.length(); i++) {
+            int c = b[from + i];
+            if (c >= 'a' && c <= 'z') c -= 'a' - 'A';
+            if (c != name.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    // Ogg Vorbis and Opus
+
+    private boolean readOgg(Tags tags) throws IOException {
+        long pos = 0;
+        int serial = 0;
+        int packets = 0;
+        int sampleRate = 0;
+        int preSkip = 0;
+        boolean opus = false;
+        packetLength = 0;
+        // Identification and comment headers are the first two packets
+        while (packets < 2 && ensure(pos, 27) && matches(pos, "OggS")) {
+            int segments = u8(pos + 26);
+            if (!ensure(pos, 27 + segments)) return packets > 0;
+            int pageSerial = le32(buf, at(pos) + 14);
+            if (pos == 0) serial = pageSerial;
+            long body = pos + 27 + segments;
+            long bodyLength = 0;
+            for (int s = 0; s < segments; s++) {
+                bodyLength += u8(pos + 27 + s);
+            }
+            long next = body + bodyLength;
+            if (pageSerial != serial) {
+                pos = next;
+                continue;
+            }
+            long segmentAt = body;
+            for (int s = 0; s < segments && packets < 2; s++) {
+                ensure(pos, 27 + segments);
+                int lacing = u8(pos + 27 + s);
+                int n = Math.min(lacing, PACKET_SIZE - packetLength);
+                if (n > 0 && ensure(segmentAt, n)) {
+                    System.arraycopy(
+                        buf,
+                        at(segmentAt),
+                        packet,
+                        packetLength,
+                        n
+                    );
+                    packetLength += n;
+                }
+                segmentAt += lacing;
+                // A full packet buffer is parsed as it is
+                boolean done = lacing < 255 || packetLength == PACKET_SIZE;
+                if (!done) continue;
+                if (packets == 0) {
+                    if (startsWith(packet, packetLength, "\u0001vorbis")) {
+                        sampleRate = le32(packet, 12);
+                    } else if (startsWith(packet, packetLength, "OpusHead")) {
+                        opus = true;
+                        sampleRate = 48000;
+                        preSkip = (packet[10] & 0xff) |
+                            (packet[11] & 0xff) << 8;
+                    } else {
+                        return false;
+                    }
+                } else {
+                    int skip = opus ? 8 : 7;
+                    readVorbisComment(packet, skip, packetLength, tags);
+                }
+                packets++;
+                packetLength = 0;
+                // Skip the rest of a packet cut short
+                while (lacing == 255 && ++s < segments) {
+                    ensure(pos, 27 + segments);
+                    lacing = u8(pos + 27 + s);
+                    segmentAt += lacing;
+                }
+            }
+            pos = next;
+        }
+        if (packets == 0) return false;
+        if (sampleRate > 0) readOggDuration(serial, sampleRate, preSkip, tags);
+        return true;
+    }
+
+    /** Duration from the granule position of the stream's last page. */
+    private void readOggDuration(
+        int serial,
+        int sampleRate,
+        int preSkip,
+        Tags tags
+    ) throws IOException {
+        long tail = Math.max(0, fileSize - BUFFER_SIZE);
+        if (!ensure(tail, (int) (fileSize - tail))) return;
+        for (long pos = fileSize - 27; pos >= tail; pos--) {
+            if (u8(pos) != 'O' || !matches(pos, "OggS")) continue;
+            if (le32(buf, at(pos) + 14) != serial) continue;
+            long granule = le64(buf, at(pos) + 6);
+            if (granule < 0) continue;
+            long samples = Math.max(0, granule - preSkip);
+            tags.durationMs = samples * 1000 / sampleRate;
+            return;
+        }
+    }
+
+    // MP4
+
+    private void readMp4(Tags tags) throws IOException {
+        long pos = 0;
+        while (box(pos, fileSize)) {
+            if (boxType == MOOV) {
+                readMoov(pos + boxHeader, pos + boxSize, tags);
+                return;
+            }
+            pos += boxSize;
+        }
+    }
+
+    private void readMoov(long pos, long end, Tags tags) throws IOException {
+        while (box(pos, end)) {
+            long data = pos + boxHeader;
+            long next = pos + boxSize;
+            if (boxType == MVHD && ensure(data, 32)) {
+                boolean v1 = u8(data) == 1;
+                long timescale = be32u(data + (v1 ? 20 : 12));
+                long duration = v1 ? be64(data + 24) : be32u(data + 16);
+                if (timescale > 0) {
+                    tags.durationMs = duration * 1000 / timescale;
+                }
+            } else if (boxType == UDTA) {
+                readUdta(data, next, tags);
+            }
+            pos = next;
+        }
+    }
+
+    private void readUdta(long pos, long end, Tags tags) throws IOException {
+        while (box(pos, end)) {
+            long data = pos + boxHeader;
+            long next = pos + boxSize;
+            if (boxType == META && ensure(data, 8)) {
+                // iTunes writes meta as a full box, QuickTime does not
+                if (be32(data + 4) != HDLR) data += 4;
+                long child = data;
+                while (box(child, next)) {
+                    if (boxType == ILST) {
+                        readIlst(child + boxHeader, child + boxSize, tags);
+                    }
+                    child += boxSize;
+                }
+            }
+            pos = next;
+        }
+    }
+
+    private void readIlst(long pos, long end, Tags tags) throws IOException {
+        while (box(pos, end)) {
+            int item = boxType;
+            long value = pos + boxHeader;
+            long next = pos + boxSize;
+            // The value is the item's data box: type, locale, payload
+            if (box(value, next) && boxType == DATA) {
+                long data = value + 8;
+                long payload = data + 8;
+                long size = boxSize - 16;
+                if (size > 0 && ensure(data, 4)) {
+                    int type = be32(data) & 0xffffff;
+                    readIlstItem(item, type, payload, size, tags);
+                }
+            }
+            pos = next;
+        }
+    }
+
+    private void readIlstItem(
+        int item,
+        int type,
+        long payload,
+        long size,
+        Tags tags
+    ) throws IOException {
+        if (item == COVR) {
+            if (!ensure(payload, 4)) return;
+            String mime = type == 13 ? "image/jpeg" : type == 14
+                ? "image/png"
+                : sniffImage(at(payload));
+            tags.setArtwork(payload, size, mime, FRONT_COVER);
+            return;
+        }
+        if (item == TRKN) {
+            if (size >= 4 && ensure(payload, 4)) {
+                tags.trackNumber = be16(payload + 2);
+            }
+            return;
+        }
+        if (item != NAM && item != ART && item != ALB) return;
+        int n = (int) Math.min(size, BUFFER_SIZE);
+        if (!ensure(payload, n)) return;
+        String text = utf8(buf, at(payload), n);
+        if (item == NAM && tags.title == null) tags.title = text;
+        else if (item == ART && tags.artist == null) tags.artist = text;
+        else if (item == ALB && tags.album == null) tags.album = text;
+    }
+
+    /**
+     * Reads the box header at {@code pos} into {@link #boxSize},
+     * {@link #boxHeader} and {@link #boxType}; false if no whole box fits
+     * before {@code end}.
+     */
+    private boolean box(long pos, long end) throws IOException {
+        if (pos + 8 > end || !ensure(pos, 8)) return false;
+        boxSize = be32u(pos);
+        boxType = be32(pos + 4);
+        boxHeader = 8;
+        if (boxSize == 1) {
+            if (!ensure(pos, 16)) return false;
+            boxSize = be64(pos + 8);
+            boxHeader = 16;
+        } else if (boxSize == 0) {
+            boxSize = end - pos;
+        }
+        return boxSize >= boxHeader && pos + boxSize <= end;
+    }
+
+    // Buffer access
+
+    /**
+     * Makes {@code [position, position + length)} available in the buffer,
+     * reading from the file unless it is already there. False if the file
+     * ends first or the range does not fit.
+     */
+    private boolean ensure(long position, int length) throws IOException {
+        if (
+            position >= windowStart &&
+            position + length <= windowStart + windowLength
+        ) {
+            return true;
+        }
+        if (position < 0 || length > BUFFER_SIZE || position >= fileSize) {
+            return false;
+        }
+        window.clear();
+        window.limit(Math.min(BUFFER_SIZE, Math.max(length, READ_AHEAD)));
+        windowStart = position;
+        while (window.hasRemaining()) {
+            int n = channel.read(window, position + window.position());
+            if (n <= 0) break;
+        }
+        windowLength = window.position();
+        return length <= windowLength;
+    }
+
+    /** Bytes from {@code position} to the end of the file, capped. */
+    private int available(long position) {
+        return (int) Math.max(0, Math.min(BUFFER_SIZE, fileSize - position));
+    }
+
+    private int at(long position) {
+        return (int) (position - windowStart);
+    }
+
+    private boolean matches(long position, String magic) {
+        int i = at(position);
+        if (i < 0 || i + magic.length() > windowLength) return false;
+        for (int k = 0; k < magic.length(); k++) {
+            if (buf[i + k] != (byte) magic.charAt(k)) return false;
+        }
+        return true;
+    }
+
+    private int u8(long position) {
+        return buf[at(position)] & 0xff;
+    }
+
+    private int be16(long position) {
+        int i = at(position);
+        return (buf[i] & 0xff) << 8 | (buf[i + 1] & 0xff);
+    }
+
+    private int be24(long position) {
+        int i = at(position);
+        return (buf[i] & 0xff) << 16 | (buf[i + 1] & 0xff) << 8 |
+            (buf[i + 2] & 0xff);
+    }
+
+    private int be32(long position) {
+        int i = at(position);
+        return (buf[i] & 0xff) << 24 | (buf[i + 1] & 0xff) << 16 |
+            (buf[i + 2] & 0xff) << 8 | (buf[i + 3] & 0xff);
+    }
+
+    private long be32u(long position) {
+        return be32(position) & 0xffffffffL;
+    }
+
+    private long be64(long position) {
+        return be32u(position) << 32 | be32u(position + 4);
+    }
+
+    private int syncsafe(long position) {
+        int i = at(position);
+        return (buf[i] & 0x7f) << 21 | (buf[i + 1] & 0x7f) << 14 |
+            (buf[i + 2] & 0x7f) << 7 | (buf[i + 3] & 0x7f);
+    }
+
+    private static int le32(byte[] b, int i) {
+        return (b[i] & 0xff) | (b[i + 1] & 0xff) << 8 |
+            (b[i + 2] & 0xff) << 16 | (b[i + 3] & 0xff) << 24;
+    }
+
+    private static long le64(byte[] b, int i) {
+        return (le32(b, i) & 0xffffffffL) | (long) le32(b, i + 4) << 32;
+    }
+
+    /** First {@code unit}-wide zero in {@code buf[from, to)}, else to. */
+    private int terminator(int from, int to, int unit) {
+        int i = from;
+        for (; i + unit <= to; i += unit) {
+            if (buf[i] == 0 && (unit == 1 || buf[i + 1] == 0)) return i;
+        }
+        return to - (to - from) % unit;
+    }
+
+    private String latin1(int off, int len) {
+        int end = terminator(off, off + len, 1);
+        return nonEmpty(
+            new String(buf, off, end - off, StandardCharsets.ISO_8859_1)
+        );
+    }
+
+    private String sniffImage(int i) {
+        if ((buf[i] & 0xff) == 0xff && (buf[i + 1] & 0xff) == 0xd8) {
+            return "image/jpeg";
+        }
+        if ((buf[i] & 0xff) == 0x89 && buf[i + 1] == 'P') return "image/png";
+        return null;
+    }
+
+    private static String utf8(byte[] b, int off, int len) {
+        return nonEmpty(new String(b, off, len, StandardCharsets.UTF_8));
+    }
+
+    private static String nonEmpty(String s) {
+        s = s.trim();
+        return s.isEmpty() ? null : s;
+    }
+
+    private static String imageMime(String format) {
+        if (format.equalsIgnoreCase("JPG")) return "image/jpeg";
+        if (format.equalsIgnoreCase("PNG")) return "image/png";
+        return null;
+    }
+
+    private static boolean startsWith(byte[] b, int length, String magic) {
+        if (length < magic.length()) return false;
+        for (int k = 0; k < magic.length(); k++) {
+            if (b[k] != (byte) magic.charAt(k)) return false;
+        }
+        return true;
+    }
+
+    /** The number a value like "7" or "07/12" starts with, else 0. */
+    private static int leadingInt(String s) {
+        if (s == null) return 0;
+        int value = 0;
+        for (int i = 0; i < s.length() && i < 9; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') break;
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static int fourCc(String s) {
+        return (s.charAt(0) & 0xff) << 24 | (s.charAt(1) & 0xff) << 16 |
+            (s.charAt(2) & 0xff) << 8 | (s.charAt(3) & 0xff);
+    }
+}
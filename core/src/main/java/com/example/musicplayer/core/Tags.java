@@ -0,0 +1,87 @@
+package com.example.musicplayer.core;
+
+/**
+ * What {@link TagReader} found in one audio file. Text fields are null and
+ * numbers 0 when the file does not say.
+ */
+public final class Tags {
+
+    String title;
+    String artist;
+    String album;
+    int trackNumber;
+    long durationMs;
+    long artworkOffset = -1;
+    int artworkLength;
+    String artworkMime;
+    // Picture type of the chosen artwork; 3 is the front cover
+    int artworkType = -1;
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getArtist() {
+        return artist;
+    }
+
+    public String getAlbum() {
+        return album;
+    }
+
+    public int getTrackNumber() {
+        return trackNumber;
+    }
+
+    public long getDurationMs() {
+        return durationMs;
+    }
+
+    /**
+     * Whether the embedded picture is stored as is, so it can be read
+     * straight from the file at {@link #getArtworkOffset()}.
+     */
+    public boolean hasArtwork() {
+        return artworkOffset >= 0;
+    }
+
+    /** File offset of the encoded picture, or -1. */
+    public long getArtworkOffset() {
+        return artworkOffset;
+    }
+
+    public int getArtworkLength() {
+        return artworkLength;
+    }
+
+    /** The picture's MIME type, if the file gives one. */
+    public String getArtworkMime() {
+        return artworkMime;
+    }
+
+    void clear() {
+        title = null;
+        artist = null;
+        album = null;
+        trackNumber = 0;
+        durationMs = 0;
+        clearArtwork();
+    }
+
+    void clearArtwork() {
+        artworkOffset = -1;
+        artworkLength = 0;
+        artworkMime = null;
+        artworkType = -1;
+    }
+
+    void setArtwork(long offset, long length, String mime, int type) {
+        // Keep the first picture unless a front cover comes later
+        if (artworkOffset >= 0 && (artworkType == 3 || type != 3)) return;
+        if (length <= 0 || length > Integer.MAX_VALUE) return;
+        artworkOffset = offset;
+        artworkLength = (int) length;
+        artworkMime = mime;
+        artworkType = type;
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.musicplayer.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+public class HistogramTest {
+
+    @Test
+    public void bucketsCoverEveryValue() {
+        long[] values = { 0, 1, 15, 16, 17, 31, 32, 33, 1000, Long.MAX_VALUE };
+        for (long value : values) {
+            int bucket = Histogram.bucket(value);
+            assertTrue(value + "", value <= Histogram.highestIn(bucket));
+            if (bucket > 0) {
+                assertTrue(value + "", value > Histogram.highestIn(bucket - 1));
+            }
+        }
+    }
+
+    @Test
+    public void percentilesAreWithinOneSixteenth() {
+        Histogram histogram = new Histogram();
+        Random random = new Random(3);
+        List<Long> values = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            long value = (long) Math.exp(random.nextDouble() * 16);
+            values.add(value);
+            histogram.record(value);
+        }
+        values.sort(null);
+
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(10_000, snapshot.getCount());
+        assertEquals(values.get(9_999).longValue(), snapshot.getMax());
+        for (double percent : new double[] { 50, 90, 99, 99.9 }) {
+            int rank = (int) Math.ceil(percent / 100 * 10_000);
+            long exact = values.get(rank - 1);
+            long reported = snapshot.getPercentile(percent);
+            assertTrue(percent + "", reported >= exact);
+            assertTrue(percent + "", reported <= exact + exact / 16 + 1);
+        }
+    }
+
+    @Test
+    public void concurrentRecordsAreAllCounted() throws InterruptedException {
+        Histogram histogram = new Histogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 1; i <= 100_000; i++) histogram.record(i);
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(400_000, snapshot.getCount());
+        assertEquals(4 * 100_000L * 100_001 / 2, snapshot.getSum());
+        assertEquals(100_000, snapshot.getMax());
+    }
+
+    @Test
+    public void resetAndEmpty() {
+        Histogram histogram = new Histogram();
+        histogram.record(-5);
+        histogram.record(40);
+        assertEquals(0, histogram.snapshot().getPercentile(50));
+        histogram.reset();
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getPercentile(99));
+        assertEquals(0, snapshot.getMean(), 0);
+    }
+}
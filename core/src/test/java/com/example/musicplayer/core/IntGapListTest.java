@@ -0,0 +1,96 @@
+package com.example.musicplayer.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+public class IntGapListTest {
+
+    private static int[] toArray(List<Integer> list) {
+        return list.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    @Test
+    public void insertAndRemoveOnBothSidesOfTheGap() {
+        IntGapList list = new IntGapList(0);
+        for (int i = 0; i < 20; i++) list.insert(list.size(), i);
+        // Gap at the end; jump it to the front, then back to the middle
+        list.insert(0, -1);
+        list.insert(21, 100);
+        list.insert(10, 50);
+        assertEquals(23, list.size());
+        assertEquals(-1, list.get(0));
+        assertEquals(50, list.get(10));
+        assertEquals(100, list.get(22));
+
+        assertEquals(-1, list.remove(0));
+        assertEquals(100, list.remove(21));
+        assertEquals(50, list.remove(9));
+        int[] expected = new int[20];
+        for (int i = 0; i < 20; i++) expected[i] = i;
+        assertArrayEquals(expected, list.toArray());
+    }
+
+    @Test
+    public void wrapGrowsPastItsSlack() {
+        IntGapList list = IntGapList.wrap(new int[] { 1, 2, 3 });
+        for (int i = 0; i < 40; i++) list.insert(1, 10 + i);
+        assertEquals(43, list.size());
+        assertEquals(1, list.get(0));
+        assertEquals(49, list.get(1));
+        assertEquals(10, list.get(40));
+        assertEquals(3, list.get(42));
+    }
+
+    @Test
+    public void moveTruncateAndIndexOf() {
+        IntGapList list = IntGapList.wrap(new int[] { 0, 1, 2, 3, 4, 5 });
+        list.move(0, 5);
+        list.move(4, 1);
+        assertArrayEquals(new int[] { 1, 5, 2, 3, 4, 0 }, list.toArray());
+        assertEquals(3, list.indexOf(3));
+        list.set(3, 9);
+        assertEquals(-1, list.indexOf(3));
+        list.truncate(2);
+        assertArrayEquals(new int[] { 1, 5 }, list.toArray());
+        list.insert(2, 7);
+        assertArrayEquals(new int[] { 1, 5, 7 }, list.toArray());
+        list.truncate(0);
+        assertEquals(0, list.size());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void getPastTheEndThrows() {
+        IntGapList list = IntGapList.wrap(new int[] { 1, 2 });
+        list.get(2);
+    }
+
+    @Test
+    public void matchesArrayListUnderRandomEdits() {
+        Random random = new Random(11);
+        IntGapList list = new IntGapList(4);
+        List<Integer> model = new ArrayList<>();
+        for (int op = 0; op < 2_000; op++) {
+            int size = model.size();
+            int kind = random.nextInt(4);
+            if (kind < 2 || size == 0) {
+                int at = random.nextInt(size + 1);
+                list.insert(at, op);
+                model.add(at, op);
+            } else if (kind == 2) {
+                int at = random.nextInt(size);
+                assertEquals(model.remove(at).intValue(), list.remove(at));
+            } else {
+                int from = random.nextInt(size);
+                int to = random.nextInt(size);
+                list.move(from, to);
+                model.add(to, model.remove(from));
+            }
+        }
+        assertArrayEquals(toArray(model), list.toArray());
+    }
+}
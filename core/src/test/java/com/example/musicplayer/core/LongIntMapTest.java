@@ -0,0 +1,72 @@
+package com.example.musicplayer.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+
+public class LongIntMapTest {
+
+    @Test
+    public void putGetAndOverwrite() {
+        LongIntMap map = new LongIntMap(2);
+        for (long key = 1; key <= 1000; key++) map.put(key * 31, (int) key);
+        map.put(31, 7);
+        assertEquals(1000, map.size());
+        assertEquals(7, map.get(31));
+        assertEquals(500, map.get(500 * 31));
+        assertEquals(-1, map.get(32));
+        assertEquals(-1, map.get(-31));
+    }
+
+    @Test
+    public void reservedKeyIsNeverFound() {
+        LongIntMap map = new LongIntMap(4);
+        assertEquals(-1, map.get(0));
+        assertEquals(-1, map.remove(0));
+        map.put(5, 1);
+        assertEquals(-1, map.get(0));
+        assertEquals(1, map.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void reservedKeyCannotBePut() {
+        new LongIntMap(4).put(0, 1);
+    }
+
+    @Test
+    public void removeShiftsProbeRunsBack() {
+        // Eight slots and up to three keys: runs are long and wrap around
+        Random random = new Random(5);
+        LongIntMap map = new LongIntMap(3);
+        Map<Long, Integer> model = new HashMap<>();
+        for (int op = 0; op < 5_000; op++) {
+            long key = 1 + random.nextInt(24);
+            if (model.size() < 3 && random.nextBoolean()) {
+                map.put(key, op);
+                model.put(key, op);
+            } else {
+                Integer expected = model.remove(key);
+                assertEquals(expected != null ? expected : -1, map.remove(key));
+            }
+            assertEquals(model.size(), map.size());
+            for (long k = 1; k <= 24; k++) {
+                Integer expected = model.get(k);
+                assertEquals(expected != null ? expected : -1, map.get(k));
+            }
+        }
+    }
+
+    @Test
+    public void clearDropsEverything() {
+        LongIntMap map = new LongIntMap(16);
+        for (long key = 1; key <= 16; key++) map.put(key, 1);
+        map.clear();
+        assertEquals(0, map.size());
+        assertEquals(-1, map.get(3));
+        map.put(3, 4);
+        assertEquals(4, map.get(3));
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.musicplayer.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.Test;
+
+public class LruSlotsTest {
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        LruSlots slots = new LruSlots(3);
+        int a = slots.acquire(1);
+        int b = slots.acquire(2);
+        slots.acquire(3);
+        // Touching 1 makes 2 the eldest
+        assertEquals(a, slots.touch(1));
+        assertEquals(b, slots.acquire(4));
+        assertEquals(-1, slots.peek(2));
+        assertEquals(a, slots.peek(1));
+        assertEquals(3, slots.size());
+    }
+
+    @Test
+    public void peekDoesNotRefresh() {
+        LruSlots slots = new LruSlots(2);
+        int a = slots.acquire(1);
+        slots.acquire(2);
+        slots.peek(1);
+        assertEquals(a, slots.acquire(3));
+        assertEquals(-1, slots.peek(1));
+    }
+
+    @Test
+    public void reacquiringAKeyEvictsNothing() {
+        LruSlots slots = new LruSlots(2);
+        int a = slots.acquire(1);
+        int b = slots.acquire(2);
+        assertEquals(a, slots.acquire(1));
+        assertEquals(2, slots.size());
+        // 1 was refreshed, so 2 goes
+        assertEquals(b, slots.acquire(3));
+        assertEquals(a, slots.peek(1));
+    }
+
+    @Test
+    public void singleSlot() {
+        LruSlots slots = new LruSlots(1);
+        assertEquals(0, slots.acquire(1));
+        assertEquals(0, slots.acquire(2));
+        assertEquals(-1, slots.peek(1));
+        assertEquals(1, slots.size());
+    }
+
+    @Test
+    public void releasedSlotsAreReusedFirst() {
+        LruSlots slots = new LruSlots(3);
+        slots.acquire(1);
+        int b = slots.acquire(2);
+        slots.acquire(3);
+        assertEquals(b, slots.release(2));
+        assertEquals(-1, slots.release(2));
+        assertEquals(b, slots.acquire(4));
+        assertNotEquals(-1, slots.peek(1));
+
+        slots.clear();
+        assertEquals(0, slots.size());
+        assertEquals(-1, slots.peek(1));
+        slots.acquire(5);
+        slots.acquire(6);
+        slots.acquire(7);
+        assertEquals(3, slots.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroCapacityIsRejected() {
+        new LruSlots(0);
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.musicplayer.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import org.junit.Test;
+
+public class QueueEngineTest {
+
+    private static int[] range(int size) {
+        int[] positions = new int[size];
+        for (int i = 0; i < size; i++) positions[i] = i;
+        return positions;
+    }
+
+    @Test
+    public void shuffleAndUnshuffleRoundTrip() {
+        QueueEngine engine = new QueueEngine(50, 7);
+        engine.setShuffle(true, 42);
+        assertTrue(engine.isShuffled());
+        assertEquals(7, engine.current());
+        assertEquals(0, engine.getCursor());
+        assertArrayEquals(
+            QueueEngine.shuffled(range(50), 7, 42),
+            engine.getOrder()
+        );
+        int[] sorted = engine.getOrder();
+        Arrays.sort(sorted);
+        assertArrayEquals(range(50), sorted);
+
+        engine.next(false);
+        engine.next(false);
+        int playing = engine.current();
+        engine.setShuffle(false, 0);
+        assertFalse(engine.isShuffled());
+        assertNull(engine.getLinear());
+        assertArrayEquals(range(50), engine.getOrder());
+        assertEquals(playing, engine.current());
+        assertEquals(playing, engine.getCursor());
+    }
+
+    @Test
+    public void sameSeedGivesSameOrder() {
+        QueueEngine a = new QueueEngine(30, 3);
+        QueueEngine b = new QueueEngine(30, 3);
+        a.setShuffle(true, 9);
+        b.setShuffle(true, 9);
+        assertArrayEquals(a.getOrder(), b.getOrder());
+        assertEquals(9, a.getSeed());
+
+        QueueEngine c = new QueueEngine(30, 3);
+        c.setShuffle(true, 10);
+        assertFalse(Arrays.equals(a.getOrder(), c.getOrder()));
+    }
+
+    @Test
+    public void restoreKeepsShuffledState() {
+        QueueEngine engine = new QueueEngine(20, 4);
+        engine.setShuffle(true, 5);
+        engine.moveTo(6);
+        QueueEngine restored = QueueEngine.restore(
+            engine.getOrder(),
+            engine.getLinear(),
+            engine.getCursor(),
+            engine.getSeed(),
+            RepeatMode.ALL
+        );
+        assertEquals(engine.current(), restored.current());
+        assertArrayEquals(engine.getOrder(), restored.getOrder());
+        restored.setShuffle(false, 0);
+        assertArrayEquals(range(20), restored.getOrder());
+        assertEquals(engine.current(), restored.current());
+    }
+
+    @Test
+    public void removeWhileShuffledUpdatesBothOrders() {
+        QueueEngine engine = new QueueEngine(10, 0);
+        engine.setShuffle(true, 1);
+        int removed = engine.positionAt(3);
+        assertFalse(engine.remove(3));
+        assertEquals(9, engine.size());
+        engine.setShuffle(false, 0);
+        int[] expected = new int[9];
+        for (int i = 0, k = 0; i < 10; i++) if (i != removed) expected[k++] = i;
+        assertArrayEquals(expected, engine.getOrder());
+    }
+
+    @Test
+    public void removingCurrentMovesToFollowingTrack() {
+        QueueEngine engine = new QueueEngine(3, 2);
+        assertTrue(engine.remove(2));
+        assertEquals(0, engine.current());
+        assertTrue(engine.remove(0));
+        assertEquals(1, engine.current());
+        assertFalse(engine.remove(0));
+        assertTrue(engine.isEmpty());
+    }
+
+    @Test
+    public void repeatModesAtTheEnd() {
+        QueueEngine engine = new QueueEngine(3, 2);
+        assertEquals(-1, engine.peekNext(true));
+        // Skipping by hand always wraps
+        assertEquals(0, engine.peekNext(false));
+        engine.setRepeat(RepeatMode.ALL);
+        assertEquals(0, engine.peekNext(true));
+        engine.setRepeat(RepeatMode.ONE);
+        assertEquals(2, engine.peekNext(true));
+        assertEquals(0, engine.next(false));
+        assertEquals(2, engine.previous());
+    }
+
+    @Test
+    public void playNextAndClearUpcoming() {
+        QueueEngine engine = new QueueEngine(6, 1);
+        assertEquals(2, engine.playNext(4));
+        assertArrayEquals(new int[] { 0, 1, 4, 2, 3, 5 }, engine.getOrder());
+        assertEquals(1, engine.playNext(0));
+        assertEquals(0, engine.getCursor());
+        assertArrayEquals(new int[] { 1, 0, 4, 2, 3, 5 }, engine.getOrder());
+        assertEquals(5, engine.clearUpcoming());
+        assertArrayEquals(new int[] { 1 }, engine.getOrder());
+    }
+
+    @Test
+    public void clearUpcomingWhileShuffledKeepsEarlierTracks() {
+        QueueEngine engine = new QueueEngine(8, 0);
+        engine.setShuffle(true, 2);
+        engine.moveTo(3);
+        int[] played = Arrays.copyOf(engine.getOrder(), 4);
+        assertEquals(4, engine.clearUpcoming());
+        engine.setShuffle(false, 0);
+        Arrays.sort(played);
+        assertArrayEquals(played, engine.getOrder());
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.musicplayer.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class SearchIndexTest {
+
+    private static final long[] IDS = { 1, 2, 3 };
+
+    private static SearchIndex sample() {
+        SearchIndex index = new SearchIndex();
+        index.put(1, "Caf\u00e9 del Mar", "Energy 52", "Caf\u00e9 del Mar");
+        index.put(2, "Blue Monday", "New Order", "Power, Corruption & Lies");
+        index.put(3, "Monday Morning", "Fleetwood Mac", "Rumours");
+        index.commit();
+        return index;
+    }
+
+    @Test
+    public void everyWordMustMatchAPrefix() {
+        SearchIndex index = sample();
+        assertArrayEquals(new int[] { 1, 2 }, index.search("mon", IDS));
+        assertArrayEquals(new int[] { 1 }, index.search("MON blu", IDS));
+        assertArrayEquals(new int[] { 0 }, index.search("cafe", IDS));
+        assertArrayEquals(new int[0], index.search("monday zzz", IDS));
+        assertArrayEquals(new int[0], index.search("  ", IDS));
+    }
+
+    @Test
+    public void resultsFollowTheGivenIds() {
+        SearchIndex index = sample();
+        long[] ids = { 3, 7, 2 };
+        assertArrayEquals(new int[] { 0, 2 }, index.search("monday", ids));
+    }
+
+    @Test
+    public void putReplacesAndRemoveDrops() {
+        SearchIndex index = sample();
+        index.put(2, "Blue Tuesday", "New Order", "");
+        index.remove(3);
+        index.commit();
+        assertEquals(2, index.size());
+        assertArrayEquals(new int[0], index.search("monday", IDS));
+        assertArrayEquals(new int[] { 1 }, index.search("tue", IDS));
+    }
+
+    @Test
+    public void compactionDropsRemovedSongsAndTheirWords() {
+        SearchIndex index = new SearchIndex();
+        long[] ids = new long[2000];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i + 1;
+            index.put(ids[i], "song" + i, "artist", "album");
+        }
+        index.commit();
+        assertEquals(2002, index.wordCount());
+
+        for (int i = 0; i < 1500; i++) index.remove(ids[i]);
+        index.commit();
+        assertEquals(500, index.size());
+        assertEquals(502, index.wordCount());
+
+        int[] found = index.search("artist", ids);
+        assertEquals(500, found.length);
+        assertEquals(1500, found[0]);
+        assertArrayEquals(new int[0], index.search("song10", ids));
+        assertArrayEquals(new int[] { 1999 }, index.search("song1999", ids));
+
+        index.put(ids[0], "fresh", "artist", "album");
+        index.put(ids[1999], "replaced", "artist", "album");
+        index.commit();
+        assertArrayEquals(new int[] { 0 }, index.search("fresh", ids));
+        assertArrayEquals(new int[0], index.search("song1999", ids));
+        assertEquals(501, index.search("art", ids).length);
+    }
+
+    @Test
+    public void foldDropsCaseAndAccents() {
+        assertEquals(
+            "creme brulee",
+            SearchIndex.fold("Cr\u00e8me Br\u00fbl\u00e9e")
+        );
+        assertEquals("abc", SearchIndex.fold("ABC"));
+    }
+}
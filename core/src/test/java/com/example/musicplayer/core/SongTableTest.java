@@ -0,0 +1,87 @@
+package com.example.musicplayer.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SongTableTest {
+
+    private static void put(SongTable table, long id, String artist) {
+        table.put(id, 1, "t" + id, artist, "album " + artist, 1000, 5, null);
+    }
+
+    @Test
+    public void readsBackWhatWasPut() {
+        SongTable table = new SongTable(4);
+        table.put(7, 3, "Title", null, "Album", 5_000_000_000L, 99, "doc");
+        SongTable.Row row = new SongTable.Row();
+        assertTrue(table.read(7, row));
+        assertEquals(7, row.getId());
+        assertEquals(3, row.getAlbumId());
+        assertEquals("Title", row.getTitle());
+        assertEquals("", row.getArtist());
+        assertEquals("Album", row.getAlbum());
+        assertEquals(Integer.MAX_VALUE, row.getDuration());
+        assertEquals(99, row.getDateModified());
+        assertEquals("doc", row.getDocumentUri());
+    }
+
+    @Test
+    public void evictsLeastRecentlyRead() {
+        SongTable table = new SongTable(3);
+        put(table, 1, "a");
+        put(table, 2, "b");
+        put(table, 3, "c");
+        SongTable.Row row = new SongTable.Row();
+        assertTrue(table.read(1, row));
+        // contains() does not count as a use, so 2 stays the eldest
+        assertTrue(table.contains(2));
+        put(table, 4, "d");
+        assertFalse(table.contains(2));
+        assertTrue(table.contains(1));
+        assertEquals(3, table.size());
+
+        table.clear();
+        assertEquals(0, table.size());
+        assertEquals(0, table.pooledStrings());
+        assertFalse(table.read(1, row));
+    }
+
+    @Test
+    public void pooledStringsFollowTheRows() {
+        SongTable table = new SongTable(4);
+        for (long id = 1; id <= 1000; id++) put(table, id, "artist " + id);
+        assertEquals(4, table.size());
+        assertEquals(8, table.pooledStrings());
+
+        put(table, 1000, "other");
+        assertEquals(8, table.pooledStrings());
+        table.remove(1000);
+        table.remove(999);
+        assertEquals(4, table.pooledStrings());
+
+        SongTable.Row row = new SongTable.Row();
+        assertTrue(table.read(998, row));
+        assertEquals("artist 998", row.getArtist());
+        assertEquals("album artist 998", row.getAlbum());
+        assertFalse(table.read(999, row));
+    }
+
+    @Test
+    public void sharedStringsSurviveUntilTheLastRow() {
+        SongTable table = new SongTable(8);
+        put(table, 1, "same");
+        put(table, 2, "same");
+        assertEquals(2, table.pooledStrings());
+        table.remove(1);
+        assertEquals(2, table.pooledStrings());
+        table.remove(2);
+        assertEquals(0, table.pooledStrings());
+        put(table, 3, "again");
+        SongTable.Row row = new SongTable.Row();
+        assertTrue(table.read(3, row));
+        assertEquals("again", row.getArtist());
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.musicplayer.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Locale;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class SortKeysTest {
+
+    private static Locale saved;
+
+    @BeforeClass
+    public static void useEnglish() {
+        saved = Locale.getDefault();
+        Locale.setDefault(Locale.ENGLISH);
+    }
+
+    @AfterClass
+    public static void restoreLocale() {
+        Locale.setDefault(saved);
+    }
+
+    private static String[] inTitleOrder(long[] ids, String[] titles) {
+        SortKeys.Builder builder = new SortKeys.Builder(titles.length);
+        for (int i = 0; i < titles.length; i++) {
+            builder.add(ids[i], titles[i], "", "", 0, 0);
+        }
+        int[] order = builder.build().order(ids, SortMode.TITLE);
+        String[] out = new String[order.length];
+        for (int i = 0; i < order.length; i++) out[i] = titles[order[i]];
+        return out;
+    }
+
+    @Test
+    public void lettersComeBeforeCaseAndAccents() {
+        String cote = "c\u00f4te";
+        String[] titles = { "cotes", "Zebra", cote, "b", "cote", "Apple" };
+        long[] ids = { 1, 2, 3, 4, 5, 6 };
+        assertArrayEquals(
+            new String[] { "Apple", "b", "cote", cote, "cotes", "Zebra" },
+            inTitleOrder(ids, titles)
+        );
+    }
+
+    @Test
+    public void tiesFallBackToTheSecondaryFieldThenPosition() {
+        SortKeys.Builder builder = new SortKeys.Builder(4);
+        builder.add(1, "Same", "B", "x", 300, 10);
+        builder.add(2, "Same", "A", "y", 100, 30);
+        builder.add(3, "Same", "A", "x", 200, 20);
+        builder.add(4, "Other", "A", "x", 200, 40);
+        SortKeys keys = builder.build();
+        long[] ids = { 1, 2, 3, 4 };
+
+        assertArrayEquals(
+            new int[] { 3, 1, 2, 0 },
+            keys.order(ids, SortMode.TITLE)
+        );
+        assertArrayEquals(
+            new int[] { 2, 3, 1, 0 },
+            keys.order(ids, SortMode.ARTIST)
+        );
+        assertArrayEquals(
+            new int[] { 1, 3, 2, 0 },
+            keys.order(ids, SortMode.DURATION)
+        );
+        // Newest first
+        assertArrayEquals(
+            new int[] { 3, 1, 2, 0 },
+            keys.order(ids, SortMode.DATE_ADDED)
+        );
+    }
+
+    @Test
+    public void unknownSongsGoLastInTheirOrder() {
+        SortKeys.Builder builder = new SortKeys.Builder(2);
+        builder.add(1, "b", "", "", 0, 0);
+        builder.add(2, "a", "", "", 0, 0);
+        SortKeys keys = builder.build();
+        int[] order = keys.order(new long[] { 9, 1, 8, 2 }, SortMode.TITLE);
+        assertArrayEquals(new int[] { 3, 1, 0, 2 }, order);
+        assertEquals(0, keys.order(new long[0], SortMode.ALBUM).length);
+    }
+}
@@ -0,0 +1,416 @@
+package com.example.musicplayer.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Builds small but well-formed audio files in each format
+ * {@link TagReader} knows, with known tags, a known picture and filler
+ * standing in for audio.
+ */
+final class TagFixtures {
+
+    static final String TITLE = "Se\u00f1orita \u00e9t\u00e9";
+    static final String ARTIST = "The Artist";
+    static final String ALBUM = "Greatest Hits";
+    static final String PLAIN_TITLE = "Plain Title";
+    static final int TRACK = 7;
+
+    // 128 kbps, 44.1 kHz, stereo MPEG-1 layer III
+    private static final int MPEG_HEADER = 0xfffb9000;
+    private static final int MPEG_FRAME = 417;
+
+    private TagFixtures() {}
+
+    static byte[] picture(int size) {
+        byte[] picture = new byte[size];
+        new Random(size).nextBytes(picture);
+        picture[0] = (byte) 0xff;
+        picture[1] = (byte) 0xd8;
+        return picture;
+    }
+
+    /** ID3v2.3 with a UTF-16 title, a front cover and a Xing header. */
+    static byte[] mp3Id3v23(byte[] picture, int frames) {
+        Bytes frameData = new Bytes();
+        id3Frame(frameData, "TIT2", utf16Text(TITLE), false);
+        id3Frame(frameData, "TPE1", latin1Text(ARTIST), false);
+        id3Frame(frameData, "TALB", latin1Text(ALBUM), false);
+        id3Frame(frameData, "TRCK", latin1Text(TRACK + "/12"), false);
+        Bytes apic = new Bytes();
+        apic.u8(0).ascii("image/jpeg").u8(0).u8(3).ascii("cover").u8(0);
+        apic.bytes(picture);
+        id3Frame(frameData, "APIC", apic.toArray(), false);
+        frameData.zeros(256);
+
+        Bytes file = new Bytes();
+        file.ascii("ID3").u8(3).u8(0).u8(0);
+        file.syncsafe(frameData.size()).bytes(frameData.toArray());
+        mpegFrames(file, frames, true);
+        return file.toArray();
+    }
+
+    /** ID3v2.4 with UTF-8 text, syncsafe frame sizes and a TLEN frame. */
+    static byte[] mp3Id3v24(long lengthMs) {
+        Bytes frameData = new Bytes();
+        id3Frame(frameData, "TIT2", utf8Text(TITLE), true);
+        id3Frame(frameData, "TPE1", utf8Text(ARTIST), true);
+        id3Frame(frameData, "TALB", utf8Text(ALBUM), true);
+        byte[] length = latin1Text(Long.toString(lengthMs));
+        id3Frame(frameData, "TLEN", length, true);
+
+        Bytes file = new Bytes();
+        file.ascii("ID3").u8(4).u8(0).u8(0);
+        file.syncsafe(frameData.size()).bytes(frameData.toArray());
+        mpegFrames(file, 20, false);
+        return file.toArray();
+    }
+
+    /** ID3v2.2 with three-letter frames and a PNG picture. */
+    static byte[] mp3Id3v22(byte[] picture) {
+        Bytes frameData = new Bytes();
+        id3v22Frame(frameData, "TT2", latin1Text(PLAIN_TITLE));
+        id3v22Frame(frameData, "TP1", latin1Text(ARTIST));
+        id3v22Frame(frameData, "TAL", latin1Text(ALBUM));
+        Bytes pic = new Bytes();
+        pic.u8(0).ascii("PNG").u8(3).u8(0).bytes(picture);
+        id3v22Frame(frameData, "PIC", pic.toArray());
+
+        Bytes file = new Bytes();
+        file.ascii("ID3").u8(2).u8(0).u8(0);
+        file.syncsafe(frameData.size()).bytes(frameData.toArray());
+        mpegFrames(file, 20, false);
+        return file.toArray();
+    }
+
+    /** No ID3v2 tag: constant bitrate frames and an ID3v1.1 tag. */
+    static byte[] mp3Id3v1(int frames) {
+        Bytes file = new Bytes();
+        mpegFrames(file, frames, false);
+        file.ascii("TAG");
+        file.padded(PLAIN_TITLE, 30).padded(ARTIST, 30).padded(ALBUM, 30);
+        file.ascii("1999").zeros(28).u8(0).u8(TRACK).u8(12);
+        return file.toArray();
+    }
+
+    static byte[] flac(byte[] picture, int sampleRate, long samples) {
+        Bytes file = new Bytes();
+        file.ascii("fLaC");
+        byte[] streamInfo = streamInfo(sampleRate, samples);
+        file.u8(0).u24(streamInfo.length).bytes(streamInfo);
+
+        byte[] comment = vorbisComment(
+            "TITLE=" + TITLE,
+            "artist=" + ARTIST,
+            "ALBUM=" + ALBUM,
+            "TRACKNUMBER=" + TRACK
+        );
+        file.u8(4).u24(comment.length).bytes(comment);
+
+        Bytes block = new Bytes();
+        block.u32(3).u32(10).ascii("image/jpeg").u32(0);
+        block.u32(500).u32(500).u32(24).u32(0);
+        block.u32(picture.length).bytes(picture);
+        file.u8(0x80 | 6).u24(block.size()).bytes(block.toArray());
+        file.zeros(20_000);
+        return file.toArray();
+    }
+
+    static byte[] oggVorbis(int sampleRate, long samples) {
+        Bytes id = new Bytes();
+        id.u8(1).ascii("vorbis").le32(0).u8(2).le32(sampleRate);
+        id.le32(0).le32(128_000).le32(0).u8(0xb8).u8(1);
+        Bytes comment = new Bytes();
+        comment.u8(3).ascii("vorbis");
+        // Long enough to span several lacing values
+        comment.bytes(
+            vorbisComment(
+                "COMMENT=" + repeat('x', 700),
+                "TITLE=" + TITLE,
+                "ARTIST=" + ARTIST,
+                "ALBUM=" + ALBUM,
+                "TRACKNUMBER=" + TRACK + "/12"
+            )
+        );
+        comment.u8(1);
+        return ogg(id.toArray(), comment.toArray(), samples);
+    }
+
+    static byte[] opus(long samples, int preSkip) {
+        Bytes head = new Bytes();
+        head.ascii("OpusHead").u8(1).u8(2);
+        head.u8(preSkip & 0xff).u8(preSkip >>> 8);
+        head.le32(44100).u8(0).u8(0).u8(0);
+        Bytes tags = new Bytes();
+        tags.ascii("OpusTags");
+        tags.bytes(vorbisComment("TITLE=" + TITLE, "ARTIST=" + ARTIST));
+        return ogg(head.toArray(), tags.toArray(), samples + preSkip);
+    }
+
+    /** An M4A with the movie box after the media data, as some muxers do. */
+    static byte[] m4a(byte[] picture, long timescale, long duration) {
+        Bytes file = new Bytes();
+        box(file, "ftyp", new Bytes().ascii("M4A ").u32(0).ascii("isom"));
+        box(file, "mdat", new Bytes().zeros(30_000));
+
+        Bytes mvhd = new Bytes();
+        mvhd.u32(0).u32(0).u32(0).u32((int) timescale).u32((int) duration);
+        mvhd.zeros(80);
+
+        Bytes ilst = new Bytes();
+        ilstItem(ilst, "\u00a9nam", 1, utf8(TITLE));
+        ilstItem(ilst, "\u00a9ART", 1, utf8(ARTIST));
+        ilstItem(ilst, "\u00a9alb", 1, utf8(ALBUM));
+        ilstItem(
+            ilst,
+            "trkn",
+            0,
+            new Bytes().u16(0).u16(TRACK).u16(12).u16(0).toArray()
+        );
+        ilstItem(ilst, "covr", 13, picture);
+
+        Bytes hdlr = new Bytes();
+        hdlr.u32(0).u32(0).ascii("mdir").ascii("appl").zeros(9);
+        Bytes meta = new Bytes().u32(0);
+        box(meta, "hdlr", hdlr);
+        box(meta, "ilst", ilst);
+        Bytes udta = new Bytes();
+        box(udta, "meta", meta);
+
+        Bytes moov = new Bytes();
+        box(moov, "mvhd", mvhd);
+        box(moov, "trak", new Bytes().zeros(4_000));
+        box(moov, "udta", udta);
+        box(file, "moov", moov);
+        return file.toArray();
+    }
+
+    // Each corpus file plays for about this long; 400 MPEG frames
+    static final long CORPUS_DURATION_MS = 10_448;
+    private static final int CORPUS_FRAMES = 400;
+
+    /**
+     * Writes {@code count} files cycling through the formats into
+     * {@code dir}; returns their paths.
+     */
+    static Path[] writeCorpus(Path dir, int count) throws IOException {
+        byte[] picture = picture(40_000);
+        long ms = CORPUS_DURATION_MS;
+        byte[][] templates = {
+            mp3Id3v23(picture, CORPUS_FRAMES),
+            mp3Id3v24(ms),
+            mp3Id3v1(CORPUS_FRAMES),
+            flac(picture, 44100, 44100L * ms / 1000),
+            oggVorbis(44100, 44100L * ms / 1000),
+            opus(48L * ms, 312),
+            m4a(picture, 1000, ms),
+        };
+        String[] extensions = {
+            "mp3",
+            "mp3",
+            "mp3",
+            "flac",
+            "ogg",
+            "opus",
+            "m4a",
+        };
+        Path[] paths = new Path[count];
+        for (int i = 0; i < count; i++) {
+            int t = i % templates.length;
+            paths[i] = dir.resolve("track" + i + "." + extensions[t]);
+            Files.write(paths[i], templates[t]);
+        }
+        return paths;
+    }
+
+    private static byte[] streamInfo(int sampleRate, long samples) {
+        Bytes info = new Bytes();
+        info.u16(4096).u16(4096).u24(0).u24(0);
+        // 20-bit rate, 3-bit channels - 1, 5-bit bits per sample - 1,
+        // 36-bit sample count
+        long packed = (long) sampleRate << 44 | 1L << 41 | 15L << 36 |
+            (samples & 0xfffffffffL);
+        info.u32((int) (packed >>> 32)).u32((int) packed);
+        info.zeros(16);
+        return info.toArray();
+    }
+
+    private static void mpegFrames(Bytes file, int frames, boolean xing) {
+        for (int f = 0; f < frames; f++) {
+            int start = file.size();
+            file.u32(MPEG_HEADER);
+            if (f == 0 && xing) {
+                file.zeros(32).ascii("Xing").u32(1).u32(frames);
+            }
+            file.zeros(MPEG_FRAME - (file.size() - start));
+        }
+    }
+
+    private static void id3Frame(
+        Bytes out,
+        String id,
+        byte[] data,
+        boolean syncsafe
+    ) {
+        out.ascii(id);
+        if (syncsafe) out.syncsafe(data.length);
+        else out.u32(data.length);
+        out.u16(0).bytes(data);
+    }
+
+    private static void id3v22Frame(Bytes out, String id, byte[] data) {
+        out.ascii(id).u24(data.length).bytes(data);
+    }
+
+    private static byte[] latin1Text(String text) {
+        return new Bytes().u8(0).latin1(text).toArray();
+    }
+
+    private static byte[] utf8Text(String text) {
+        return new Bytes().u8(3).bytes(utf8(text)).u8(0).toArray();
+    }
+
+    private static byte[] utf16Text(String text) {
+        return new Bytes()
+            .u8(1)
+            .bytes(text.getBytes(StandardCharsets.UTF_16))
+            .u16(0)
+            .toArray();
+    }
+
+    private static byte[] vorbisComment(String... comments) {
+        Bytes out = new Bytes();
+        byte[] vendor = utf8("fixture");
+        out.le32(vendor.length).bytes(vendor).le32(comments.length);
+        for (String comment : comments) {
+            byte[] bytes = utf8(comment);
+            out.le32(bytes.length).bytes(bytes);
+        }
+        return out.toArray();
+    }
+
+    private static byte[] ogg(byte[] first, byte[] second, long granule) {
+        Bytes file = new Bytes();
+        oggPage(file, 2, 0, 0, first);
+        oggPage(file, 0, 0, 1, second);
+        oggPage(file, 0, granule / 2, 2, new byte[5_000]);
+        oggPage(file, 4, granule, 3, new byte[3_000]);
+        return file.toArray();
+    }
+
+    private static void oggPage(
+        Bytes file,
+        int flags,
+        long granule,
+        int sequence,
+        byte[] packet
+    ) {
+        Bytes lacing = new Bytes();
+        int left = packet.length;
+        while (left >= 255) {
+            lacing.u8(255);
+            left -= 255;
+        }
+        lacing.u8(left);
+        file.ascii("OggS").u8(0).u8(flags);
+        file.le32((int) granule).le32((int) (granule >>> 32));
+        file.le32(0x1234).le32(sequence).le32(0);
+        file.u8(lacing.size()).bytes(lacing.toArray()).bytes(packet);
+    }
+
+    private static void box(Bytes out, String type, Bytes content) {
+        out.u32(8 + content.size()).latin1(type).bytes(content.toArray());
+    }
+
+    private static void ilstItem(
+        Bytes ilst,
+        String type,
+        int dataType,
+        byte[] value
+    ) {
+        Bytes data = new Bytes().u32(dataType).u32(0).bytes(value);
+        Bytes item = new Bytes();
+        box(item, "data", data);
+        box(ilst, type, item);
+    }
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String repeat(char c, int n) {
+        char[] chars = new char[n];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    /** Big-endian unless a method says otherwise. */
+    static final class Bytes {
+
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Bytes u8(int v) {
+            out.write(v);
+            return this;
+        }
+
+        Bytes u16(int v) {
+            return u8(v >>> 8).u8(v);
+        }
+
+        Bytes u24(int v) {
+            return u8(v >>> 16).u16(v);
+        }
+
+        Bytes u32(int v) {
+            return u16(v >>> 16).u16(v);
+        }
+
+        Bytes le32(int v) {
+            return u8(v).u8(v >>> 8).u8(v >>> 16).u8(v >>> 24);
+        }
+
+        Bytes syncsafe(int v) {
+            return u8(v >>> 21 & 0x7f).u8(v >>> 14 & 0x7f).u8(v >>> 7 & 0x7f)
+                .u8(v & 0x7f);
+        }
+
+        Bytes ascii(String s) {
+            return bytes(s.getBytes(StandardCharsets.US_ASCII));
+        }
+
+        Bytes latin1(String s) {
+            return bytes(s.getBytes(StandardCharsets.ISO_8859_1));
+        }
+
+        Bytes padded(String s, int length) {
+            byte[] bytes = Arrays.copyOf(
+                s.getBytes(StandardCharsets.ISO_8859_1),
+                length
+            );
+            return bytes(bytes);
+        }
+
+        Bytes zeros(int n) {
+            return bytes(new byte[n]);
+        }
+
+        Bytes bytes(byte[] b) {
+            out.write(b, 0, b.length);
+            return this;
+        }
+
+        int size() {
+            return out.size();
+        }
+
+        byte[] toArray() {
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.example.musicplayer.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TagReaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final TagReader reader = new TagReader();
+    private final byte[] picture = TagFixtures.picture(70_000);
+
+    @Test
+    public void id3v23WithXingHeader() throws IOException {
+        Path file = write(TagFixtures.mp3Id3v23(picture, 1000));
+        Tags tags = read(file);
+        assertEquals(TagFixtures.TITLE, tags.getTitle());
+        assertEquals(TagFixtures.ARTIST, tags.getArtist());
+        assertEquals(TagFixtures.ALBUM, tags.getAlbum());
+        assertEquals(TagFixtures.TRACK, tags.getTrackNumber());
+        // 1000 frames of 1152 samples at 44.1 kHz
+        assertEquals(26_122, tags.getDurationMs());
+        assertEquals("image/jpeg", tags.getArtworkMime());
+        assertArrayEquals(picture, artwork(file, tags));
+    }
+
+    @Test
+    public void id3v24UsesLengthFrame() throws IOException {
+        Tags tags = read(write(TagFixtures.mp3Id3v24(183_456)));
+        assertEquals(TagFixtures.TITLE, tags.getTitle());
+        assertEquals(TagFixtures.ARTIST, tags.getArtist());
+        assertEquals(TagFixtures.ALBUM, tags.getAlbum());
+        assertEquals(183_456, tags.getDurationMs());
+        assertFalse(tags.hasArtwork());
+    }
+
+    @Test
+    public void id3v22() throws IOException {
+        Path file = write(TagFixtures.mp3Id3v22(picture));
+        Tags tags = read(file);
+        assertEquals(TagFixtures.PLAIN_TITLE, tags.getTitle());
+        assertEquals(TagFixtures.ARTIST, tags.getArtist());
+        assertEquals(TagFixtures.ALBUM, tags.getAlbum());
+        assertEquals("image/png", tags.getArtworkMime());
+        assertArrayEquals(picture, artwork(file, tags));
+    }
+
+    @Test
+    public void id3v1AndConstantBitrate() throws IOException {
+        Tags tags = read(write(TagFixtures.mp3Id3v1(600)));
+        assertEquals(TagFixtures.PLAIN_TITLE, tags.getTitle());
+        assertEquals(TagFixtures.ARTIST, tags.getArtist());
+        assertEquals(TagFixtures.ALBUM, tags.getAlbum());
+        assertEquals(TagFixtures.TRACK, tags.getTrackNumber());
+        // 600 frames of 417 bytes at 128 kbps
+        assertEquals(600L * 417 * 8 / 128, tags.getDurationMs());
+    }
+
+    @Test
+    public void flac() throws IOException {
+        Path file = write(TagFixtures.flac(picture, 48000, 48000L * 200));
+        Tags tags = read(file);
+        assertEquals(TagFixtures.TITLE, tags.getTitle());
+        assertEquals(TagFixtures.ARTIST, tags.getArtist());
+        assertEquals(TagFixtures.ALBUM, tags.getAlbum());
+        assertEquals(TagFixtures.TRACK, tags.getTrackNumber());
+        assertEquals(200_000, tags.getDurationMs());
+        assertArrayEquals(picture, artwork(file, tags));
+    }
+
+    @Test
+    public void oggVorbis() throws IOException {
+        Tags tags = read(write(TagFixtures.oggVorbis(44100, 44100L * 95)));
+        assertEquals(TagFixtures.TITLE, tags.getTitle());
+        assertEquals(TagFixtures.ARTIST, tags.getArtist());
+        assertEquals(TagFixtures.ALBUM, tags.getAlbum());
+        assertEquals(TagFixtures.TRACK, tags.getTrackNumber());
+        assertEquals(95_000, tags.getDurationMs());
+    }
+
+    @Test
+    public void opusSubtractsPreSkip() throws IOException {
+        Tags tags = read(write(TagFixtures.opus(48000L * 30, 312)));
+        assertEquals(TagFixtures.TITLE, tags.getTitle());
+        assertEquals(TagFixtures.ARTIST, tags.getArtist());
+        assertNull(tags.getAlbum());
+        assertEquals(30_000, tags.getDurationMs());
+    }
+
+    @Test
+    public void m4aWithMovieBoxLast() throws IOException {
+        Path file = write(TagFixtures.m4a(picture, 600, 600L * 321));
+        Tags tags = read(file);
+        assertEquals(TagFixtures.TITLE, tags.getTitle());
+        assertEquals(TagFixtures.ARTIST, tags.getArtist());
+        assertEquals(TagFixtures.ALBUM, tags.getAlbum());
+        assertEquals(TagFixtures.TRACK, tags.getTrackNumber());
+        assertEquals(321_000, tags.getDurationMs());
+        assertEquals("image/jpeg", tags.getArtworkMime());
+        assertArrayEquals(picture, artwork(file, tags));
+    }
+
+    @Test
+    public void unknownAndTruncatedFiles() throws IOException {
+        byte[] noise = new byte[50_000];
+        new Random(1).nextBytes(noise);
+        // No 0xff so no byte can look like an MPEG frame sync
+        for (int i = 0; i < noise.length; i++) noise[i] &= 0x7f;
+        assertFalse(reader.read(open(write(noise)), new Tags()));
+        assertFalse(reader.read(open(write(new byte[3])), new Tags()));
+
+        // Cut inside the picture: text still reads, the art does not fit
+        byte[] full = TagFixtures.flac(picture, 44100, 44100);
+        byte[] cut = Arrays.copyOf(full, 2_000);
+        Tags tags = read(write(cut));
+        assertEquals(TagFixtures.TITLE, tags.getTitle());
+        assertFalse(tags.hasArtwork());
+    }
+
+    @Test
+    public void damagedFilesDoNotThrow() throws IOException {
+        byte[] small = TagFixtures.picture(3_000);
+        byte[][] fixtures = {
+            TagFixtures.mp3Id3v23(small, 40),
+            TagFixtures.mp3Id3v24(1_000),
+            TagFixtures.mp3Id3v22(small),
+            TagFixtures.mp3Id3v1(40),
+            TagFixtures.flac(small, 44100, 44100),
+            TagFixtures.oggVorbis(44100, 44100),
+            TagFixtures.opus(48000, 312),
+            TagFixtures.m4a(small, 1000, 1000),
+        };
+        Random random = new Random(7);
+        Path file = folder.newFile().toPath();
+        Tags tags = new Tags();
+        for (byte[] fixture : fixtures) {
+            for (int round = 0; round < 25; round++) {
+                byte[] damaged = Arrays.copyOf(
+                    fixture,
+                    1 + random.nextInt(fixture.length)
+                );
+                // Bytes in the headers are the interesting ones
+                for (int k = 0; k < 8; k++) {
+                    int at = random.nextInt(Math.min(damaged.length, 2_000));
+                    damaged[at] = (byte) random.nextInt(256);
+                }
+                Files.write(file, damaged);
+                try (FileChannel channel = open(file)) {
+                    reader.read(channel, tags);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void readerIsReusedAcrossFormats() throws IOException {
+        Path[] corpus = TagFixtures.writeCorpus(folder.getRoot().toPath(), 21);
+        Tags tags = new Tags();
+        for (Path file : corpus) {
+            try (FileChannel channel = open(file)) {
+                assertTrue(file.toString(), reader.read(channel, tags));
+            }
+            assertEquals(
+                file.toString(),
+                TagFixtures.CORPUS_DURATION_MS,
+                tags.getDurationMs(),
+                30
+            );
+        }
+    }
+
+    private Path write(byte[] content) throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), content);
+        return file.toPath();
+    }
+
+    private Tags read(Path file) throws IOException {
+        Tags tags = new Tags();
+        try (FileChannel channel = open(file)) {
+            assertTrue(reader.read(channel, tags));
+        }
+        return tags;
+    }
+
+    private static FileChannel open(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.READ);
+    }
+
+    private static byte[] artwork(Path file, Tags tags) throws IOException {
+        assertTrue(tags.hasArtwork());
+        ByteBuffer picture = ByteBuffer.allocate(tags.getArtworkLength());
+        try (FileChannel channel = open(file)) {
+            channel.read(picture, tags.getArtworkOffset());
+        }
+        return picture.array();
+    }
+}
@@ -21,3 +21,4 @@ dependencyResolutionManagement {
 
 rootProject.name = "Music Player"
 include(":app")
+include(":core")